@@ -21,6 +21,9 @@ class Beans{
    ****************************************************************************************/
   val DB_PATH = "profile/db/db";
 
+  /** read-only star tiles, built by CompileDb */
+  val STAR_TILES_PATH = "profile/db/startiles";
+
   lazy val recman:RecordManager = {
     //make sure folder exists
     val parentFolder = new java.io.File(DB_PATH).getParentFile();
@@ -30,30 +33,56 @@ class Beans{
     val props = new java.util.Properties();
     //set this property in batch import mode
     props.put(RecordManagerOptions.APPEND_TO_END, System.getProperty(RecordManagerOptions.APPEND_TO_END,"false"))
-    val recman = RecordManagerFactory.createRecordManager(DB_PATH,props)
+    var recman = RecordManagerFactory.createRecordManager(DB_PATH,props)
+
+    //data written in older format would be read incorrectly, so database is deleted and must be rebuilt by CompileDb
+    val catalogDao = new CatalogDao(recman)
+    if(!catalogDao.isSchemaCurrent){
+      Log.warning("Database at "+parentFolder.getAbsolutePath+" has schema version "+catalogDao.schemaVersion+
+        ", expected "+CatalogDao.SCHEMA_VERSION+". Database is deleted and must be rebuilt.")
+      recman.close()
+      CatalogDao.deleteDb(DB_PATH)
+      recman = RecordManagerFactory.createRecordManager(DB_PATH,props)
+    }
 
     //add shutdown code
     onShutdown.listen{e=>recman.close()}
     recman
   }
 
-  lazy val liteStarDao = new LiteStarDao(recman)
-  lazy val deepSkyDao = new DeepSkyDao(recman)
+  /** memory budget (in bytes) for star tile cache, deep sky uses 1/8 of it */
+  val TILE_CACHE_SIZE:Long = java.lang.Long.getLong("asterope.tileCacheSize", 32*1024*1024)
+
+  lazy val liteStarDao = new LiteStarDao(recman, StarTileStore.open(new java.io.File(STAR_TILES_PATH)), TILE_CACHE_SIZE)
+  lazy val deepSkyDao = new DeepSkyDao(recman, TILE_CACHE_SIZE/8)
   lazy val milkyWayDao = new MilkyWayDao(recman)
   lazy val constelLineDao = new ConstelLineDao(recman)
   lazy val constelBoundaryDao = new ConstelBoundaryDao(recman)
   lazy val catalogDao = new CatalogDao(recman)
-  lazy val nameResolver = new NameResolver(deepSkyDao,liteStarDao)
+
+  /** immutable snapshot of compiled catalogs, built by CompileDb */
+  val SNAPSHOT_PATH = "profile/db/snapshot";
+
+  /** if snapshot exists, chart and name resolver read it and JDBM is not opened at all */
+  lazy val snapshot = DistributionSnapshot.open(new java.io.File(SNAPSHOT_PATH), TILE_CACHE_SIZE/8)
+
+  lazy val liteStarSource:LiteStarSource = snapshot.map(_.liteStarDao).getOrElse(liteStarDao)
+  lazy val deepSkySource:DeepSkySource = snapshot.map(_.deepSkyDao).getOrElse(deepSkyDao)
+  lazy val milkyWaySource:MilkyWaySource = snapshot.map(_.milkyWayDao).getOrElse(milkyWayDao)
+  lazy val constelLineSource:ConstelLineSource = snapshot.map(_.constelLineDao).getOrElse(constelLineDao)
+  lazy val constelBoundarySource:ConstelBoundarySource = snapshot.map(_.constelBoundaryDao).getOrElse(constelBoundaryDao)
+
+  lazy val nameResolver = new NameResolver(deepSkySource,liteStarSource)
 
 
   /****************************************************************************************
    * Chart beans
    ****************************************************************************************/
-  lazy val stars = new Stars(liteStarDao)
-  lazy val deepSky = new DeepSkyPainter(deepSkyDao)
-  lazy val milkyWay = new ChartMilkyWay(milkyWayDao)
-  lazy val constelLine = new ChartConstelLine(constelLineDao)
-  lazy val constelBoundary = new ChartConstelBoundary(constelBoundaryDao)
+  lazy val stars = new Stars(liteStarSource)
+  lazy val deepSky = new DeepSkyPainter(deepSkySource)
+  lazy val milkyWay = new ChartMilkyWay(milkyWaySource)
+  lazy val constelLine = new ChartConstelLine(constelLineSource)
+  lazy val constelBoundary = new ChartConstelBoundary(constelBoundarySource)
   lazy val legendBorder = new LegendBorder(stars,deepSky)
 
 
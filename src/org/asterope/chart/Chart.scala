@@ -14,7 +14,7 @@ import org.asterope.geometry._
 
 import java.awt.image.BufferedImage
 
-import collection.mutable.{Map => MMap}
+import collection.mutable.{Map => MMap, ArrayBuffer}
 import org.apache.commons.math.geometry.{Rotation, Vector3D}
 
 
@@ -76,9 +76,8 @@ case class Chart(
 	/** Inversion used for deprojection */
 	protected val wcsInverse = wcs.inverse
 	
-	lazy val area = 
-	  if(fieldOfView>160.degree) LongRangeSetBuilder.EMPTY.complement
-	  else Pixelization.queryDisc(position,fieldOfView)
+	/** multi-order coverage of chart, wide fields are covered by coarse cells */
+	lazy val area = Pixelization.queryDisc(position,fieldOfView)
 
   /** angular size of one pixel in center of map deprojected back to sphere */
 	lazy val pixelAngularSize:Angle = {
@@ -215,8 +214,35 @@ case class Chart(
   def saveToImageFile(file: java.io.File) = ChartUtils.saveChartToImageFile(this, file)
 
   protected val object2Node = MMap[Any,PNode]()
-  
-  def objects:Iterator[Any] = object2Node.keys.iterator
+
+  /** objects painted by batch nodes, node for object is created on demand */
+  protected val object2Batch = MMap[Any,(StarBatchNode,Int)]()
+
+  /** reverse of `object2Node`, nodes are compared by identity */
+  protected val node2Object = new java.util.IdentityHashMap[PNode,Any]()
+
+  /** projected bounds of painted objects, used for picking */
+  lazy val hitIndex = new SpatialIndex(width, height)
+
+  /** register object painted by node, must be called inside `exec` after node was added to layer */
+  private def register(obj:Any, node:PNode){
+    object2Node.put(obj,node)
+    if(obj != None){
+      node2Object.put(node,obj)
+      hitIndex.add(obj, node.getGlobalFullBounds)
+    }
+  }
+
+  private def registerBatch(batch:StarBatchNode){
+    for(i <- 0 until batch.size){
+      val o = batch.obj(i)
+      object2Batch.put(o, (batch,i))
+      val r = batch.radius(i)
+      hitIndex.add(o, batch.x(i) - r, batch.y(i) - r, batch.x(i) + r, batch.y(i) + r)
+    }
+  }
+
+  def objects:Iterator[Any] = object2Node.keys.iterator ++ object2Batch.keys.iterator
   
   
   /**
@@ -228,16 +254,131 @@ case class Chart(
    * @param zorder in which node should be added to layer
    */
   def addNode(layer: Layer.Value, node: PNode, obj: Any = None, zorder: Double = 0) {
+    val s = scene.get
+    if(s!=null){
+      if(isInsideCanvas(node)) s.layerNodes(layer) += ((node,obj,zorder))
+      return
+    }
 	  exec{
       if(!isInsideCanvas(node)) return
-      object2Node.put(obj,node)
       getLayer(layer).addChildWithZorder(node, zorder);
+      register(obj,node)
 	  }
 	  
   }
   
-  def getNodeForObject(obj:Any):Option[PNode] = object2Node.get(obj)
-  def getObjectForNode(node:PNode):Option[Any] = object2Node.find(n=>n._2 ==node).map(_._1)
+  /**
+   * Adds many nodes to the same layer at once.
+   * Nodes outside of canvas are skipped, others are merged into layer in single pass.
+   *
+   * @param layerName where nodes will be added
+   * @param nodes with object they represent and z-order
+   */
+  def addNodes(layer: Layer.Value, nodes:Seq[(PNode, Any, Double)]) {
+    val s = scene.get
+    if(s!=null){
+      s.layerNodes(layer) ++= nodes.filter(n=>isInsideCanvas(n._1))
+      return
+    }
+    val sorted = nodes.filter(n=>isInsideCanvas(n._1)).sortBy(_._3)
+    exec{
+      getLayer(layer).addChildrenSorted(sorted.map(n=>(n._1,n._3)))
+      for((node,obj,_) <- sorted) register(obj,node)
+    }
+  }
+
+  /**
+   * Adds batch of stars to chart. Batch is finished and added as single node,
+   * objects from batch are registered, so they can be found by `getNodeForObject`
+   *
+   * @param layerName where node will be added
+   * @param batch with stars
+   * @param zorder in which node should be added to layer
+   */
+  def addBatch(layer: Layer.Value, batch:StarBatchNode, zorder: Double = 0) {
+    batch.finish()
+    val s = scene.get
+    if(s!=null){
+      s.batches += ((layer,batch,zorder))
+      return
+    }
+    exec{
+      getLayer(layer).addChildWithZorder(batch, zorder);
+      registerBatch(batch)
+    }
+  }
+
+  /** nodes collected by `buildScene`, they are not attached to chart yet */
+  protected class Scene{
+    val nodes = MMap[Layer.Value,ArrayBuffer[(PNode,Any,Double)]]()
+    def layerNodes(layer:Layer.Value) = nodes.getOrElseUpdate(layer, new ArrayBuffer[(PNode,Any,Double)])
+    val batches = new ArrayBuffer[(Layer.Value,StarBatchNode,Double)]
+  }
+
+  /** scene being built by current thread, null if nodes go directly to chart */
+  private val scene = new ThreadLocal[Scene]
+
+  /**
+   * Builds part of scene off EDT.
+   * `addNode`, `addNodes` and `addBatch` called from current thread inside block
+   * do not touch chart, but collect nodes into detached buffer.
+   * When block finishes, nodes are sorted and merged into layers with single `exec`,
+   * so there is only one EDT hand-off for the whole feature.
+   * If block throws an exception, nothing is added to chart.
+   *
+   * @param feature name used in log and timing
+   * @return value returned by block
+   */
+  def buildScene[E](feature:String)(block: => E):E = {
+    //nested call, outer call will commit
+    if(scene.get!=null) return block
+
+    val s = new Scene
+    scene.set(s)
+    val ret = try{
+      block
+    }finally{
+      scene.remove()
+    }
+    checkInterrupted()
+
+    //sort off EDT, so swap itself is just merge
+    val sorted = s.nodes.toList.map{case (layer,nodes) => (layer, nodes.sortBy(_._3))}
+    val count = sorted.map(_._2.size).sum + s.batches.size
+    val nanos = exec{
+      val start = System.nanoTime
+      for((layer,nodes) <- sorted){
+        getLayer(layer).addChildrenSorted(nodes.map(n=>(n._1,n._3)))
+        for((node,obj,_) <- nodes) register(obj,node)
+      }
+      for((layer,batch,zorder) <- s.batches){
+        getLayer(layer).addChildWithZorder(batch, zorder)
+        registerBatch(batch)
+      }
+      System.nanoTime - start
+    }
+    Chart.sceneSwapLatency.record(nanos)
+    Log.debug("Scene '"+feature+"' committed, nodes: "+count+", swap: "+nanos/1000+"us")
+    ret
+  }
+
+  def getNodeForObject(obj:Any):Option[PNode] =
+    object2Node.get(obj).orElse(object2Batch.get(obj).map{case (batch,i)=>batch.handle(i)})
+
+  def getObjectForNode(node:PNode):Option[Any] = node match{
+    case h:StarHandle => Some(h.obj)
+    case _ => exec{ Option(node2Object.get(node)) }
+  }
+
+  /**
+   * Find object painted at given position on canvas.
+   * If there is no object directly under position, nearest object within tolerance is returned.
+   */
+  def objectAt(x:Double, y:Double, tolerance:Double = SpatialIndex.PICK_TOLERANCE):Option[Any] =
+    hitIndex.nearest(x, y, tolerance)
+
+  /** @return objects whose bounds intersect with given rectangle on canvas */
+  def objectsInRect(rect:Rectangle2D):Seq[Any] = hitIndex.query(rect)
   
   def angleSizeOnChart(pos:Vector3D, angle:Angle):Option[Double] = {
 	  val p1 = wcs.project(pos);
@@ -291,4 +432,7 @@ case class Chart(
 object Chart{
   val resMap = new ResourceMap(classOf[Chart])
 
+  /** time spent on EDT while `buildScene` merges collected nodes into chart */
+  val sceneSwapLatency = new LatencyHistogram("sceneSwap")
+
 }
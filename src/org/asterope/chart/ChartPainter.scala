@@ -4,20 +4,36 @@ import edu.umd.cs.piccolo.PNode
 import org.asterope.util._
 
 trait ChartPainter[C,E] {
-	
+
 	def defaultConfig:C;
-	
-	
+
+	/** layer where painted objects are added */
+	def layer:Layer.Value
+
+	/** z-order of painted object, objects with smaller z-order are painted first */
+	def zorder(obj:E):Double = 0
+
+	/** object registered on chart for painted node, `None` if node should not be found by object */
+	def nodeObject(obj:E):Any = obj
+
 	def paintObject(chart:Chart, config:C, obj:E,addToLayer:Boolean=true):Option[PNode]
-	
+
+	/**
+	 * Paint all objects and add them to layer in single batch,
+	 * so layer does not have to keep z-order for each node separately
+	 */
 	def paintAll(chart:Chart, config:C, objects:Iterator[E]){
+		val nodes = new scala.collection.mutable.ArrayBuffer[(PNode,Any,Double)]
 		objects.foreach{ o=>
       checkInterrupted()
-			paintObject(chart,config,o)
+			paintObject(chart,config,o,false).foreach{n=>
+				nodes += ((n, nodeObject(o), zorder(o)))
+			}
 		}
+		chart.addNodes(layer, nodes)
 	}
-	
+
 	def paintAll(chart:Chart, config:C, objects:Iterable[E]){
 		paintAll(chart,config,objects.iterator)
 	}
-}
\ No newline at end of file
+}
@@ -6,48 +6,68 @@ import java.awt.BasicStroke
 import edu.umd.cs.piccolo.nodes.PPath
 import org.asterope.data._
 import org.asterope.util._
-import java.awt.RadialGradientPaint
+import java.awt.RenderingHints
+import java.awt.image.BufferedImage
+import edu.umd.cs.piccolo.nodes.PImage
 import edu.umd.cs.piccolo.util.PPaintContext
 import java.awt.geom.{Area, Ellipse2D}
 
-case class ChartMilkyWayConfig()
+case class ChartMilkyWayConfig(
+	/** opacity of the brightest part of Milky Way, from 0 to 1 */
+	intensity:Double = 0.6,
+	/** raster is sampled every `step` pixels and scaled up, Milky Way does not have sharp details */
+	step:Int = 4
+)
 
-class ChartMilkyWay(dao:MilkyWayDao)
-	extends ChartFeature[ChartMilkyWayConfig] with ChartPainter[ChartMilkyWayConfig, MilkyWayPixel]{
-	
-	def paintObject(chart:Chart, config:ChartMilkyWayConfig, pixel:MilkyWayPixel,addToLayer:Boolean):Option[PNode] = {
-		val pos = chart.wcs.project(pixel.pos)
-		if(pos.isEmpty) return None
-		//calculate diameter size, 
-		//NOTE: 1 degree is too much, but part of disc is transparent 
-		val diameter = chart.angleSizeOnChart(pixel.pos, 1.0 degree)
-		if(diameter.isEmpty) return None
-		
-		val n= new PPath(new Ellipse2D.Double(-diameter.get/2,-diameter.get/2,diameter.get,diameter.get)){
-      override protected def paint(paintContext:PPaintContext) {
-        //paint only when non interactive
-        if(paintContext.getRenderQuality >= PPaintContext.HIGH_QUALITY_RENDERING)
-          super.paint(paintContext)
-      }
-    };
-    n.setGlobalTranslation(pos.get);
-
-    val gray = 1.0* pixel.gray/255.0;
-    val c1 = Colors.between(chart.colors.bg, chart.colors.milkyWay,gray );
-    val c2 = Colors.setAlpha(c1, 0);
-    n.setPaint(new RadialGradientPaint(0F,0F,diameter.get.toFloat/2F,Array[Float](0,1F),Array[Color](c1,c2)));
-    n.setStroke(new BasicStroke(0));
-    n.setStrokePaint(c2);
-    if(addToLayer)
-      	chart.addNode(Layer.milkyway, n, None, gray);
-    Some(n)
-	}
+/**
+ * Paints Milky Way from pre-rendered raster.
+ * Raster is reprojected through chart WCS into single image,
+ * so scene graph has only one node regardless of field of view.
+ * Image is painted only with high quality rendering, it is hidden while user interacts with chart.
+ */
+class ChartMilkyWay(dao:MilkyWaySource)
+	extends ChartFeature[ChartMilkyWayConfig]{
 
 	def updateChart(chart: Chart, config:ChartMilkyWayConfig){
-		val pixels = dao.milkyWayPixelsByArea(chart.area);
-		paintAll(chart,config,pixels)
+		val raster = dao.raster
+		val step = math.max(1, config.step)
+		val order = raster.orderForResolution(chart.pixelAngularSize * step)
+		val width = chart.width / step + 1
+		val height = chart.height / step + 1
+
+		//Milky Way color with alpha for each gray value
+		val rgb = chart.colors.milkyWay.getRGB & 0xFFFFFF
+		val colors = Array.tabulate(256)(gray=> ((gray * config.intensity).toInt << 24) | rgb)
+
+		val img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB)
+		for(y<-0 until height){
+			checkInterrupted()
+			for(x<-0 until width){
+				//sample center of area covered by image pixel
+				val pos = chart.wcs.deproject(x * step + step/2, y * step + step/2)
+				if(pos.isDefined)
+					img.setRGB(x, y, colors(raster.gray(pos.get, order)))
+			}
+		}
+
+		val node = new PImage(img){
+			override protected def paint(paintContext:PPaintContext){
+				//paint only when non interactive
+				if(paintContext.getRenderQuality >= PPaintContext.HIGH_QUALITY_RENDERING){
+					paintContext.getGraphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR)
+					super.paint(paintContext)
+				}
+			}
+		}
+		node.scale(step)
+
+		chart.exec{
+			val layer = chart.getLayer(Layer.milkyway)
+			layer.removeAllChildren()
+			layer.addChild(node)
+		}
 	}
-	
+
 	def defaultConfig = new ChartMilkyWayConfig()
 	
 	def clearChart(chart:Chart) {
@@ -57,9 +77,14 @@ class ChartMilkyWay(dao:MilkyWayDao)
 
 case class ChartConstelLineConfig(stroke: BasicStrokeConfig = BasicStrokeConfig(width = 3 ), cutoutCircle:Int = 15)
 
-class ChartConstelLine(dao:ConstelLineDao)
+class ChartConstelLine(dao:ConstelLineSource)
 	extends ChartFeature[ChartConstelLineConfig] with ChartPainter[ChartConstelLineConfig, ConstelLine]{
 
+	def layer = Layer.constelLine
+
+	/** lines are not selectable */
+	override def nodeObject(line:ConstelLine) = None
+
 	def paintObject(chart:Chart, config:ChartConstelLineConfig, line:ConstelLine,addToLayer:Boolean):Option[PNode] = {
 		
 		val p1 = chart.wcs.project(line.v1);
@@ -72,7 +97,7 @@ class ChartConstelLine(dao:ConstelLineDao)
 	  node.setStroke(config.stroke.getStroke);
 	  node.setStrokePaint(chart.colors.constelLine);
 	  if(addToLayer)
-	    	chart.addNode(Layer.constelLine, node)
+	    	chart.addNode(layer, node)
 		Some(node)
 	}
 	
@@ -93,7 +118,7 @@ class ChartConstelLine(dao:ConstelLineDao)
 case class ChartConstelBoundaryConfig(stroke: BasicStrokeConfig = BasicStrokeConfig(width = 3,  dash = List(3,5)) )
 
 		
-class ChartConstelBoundary(dao: ConstelBoundaryDao)
+class ChartConstelBoundary(dao: ConstelBoundarySource)
 	extends ChartFeature[ChartConstelBoundaryConfig] {
 	
 
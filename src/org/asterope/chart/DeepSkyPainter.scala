@@ -9,6 +9,7 @@ import org.asterope.util._
 import java.awt.Shape
 import java.awt.geom.Path2D
 import org.asterope.data._
+import org.asterope.healpix.LongRangeSet
 
 case class DeepSkyPainterConfig(
     	bigObjectsTransparent:Boolean = true,
@@ -22,9 +23,14 @@ case class DeepSkyPainterConfig(
 )
 
 
-class DeepSkyPainter(dao: DeepSkyDao)
+class DeepSkyPainter(dao: DeepSkySource)
 	extends ChartFeature[DeepSkyPainterConfig]
   with ChartPainter[DeepSkyPainterConfig, DeepSky]{
+
+  def layer = Layer.deepsky
+
+  /** big objects go first, so small objects are painted over them */
+  override def zorder(ds:DeepSky) = -ds.sizeMax.map(_.toDegree).getOrElse(0D)
   
   def paintObject(chart:Chart, config:DeepSkyPainterConfig,
                   ds:DeepSky,addToLayer:Boolean):Option[PNode] = {
@@ -62,10 +68,8 @@ class DeepSkyPainter(dao: DeepSkyDao)
           _.setTransparency(alpha.toFloat)
         }
       }
-      if(addToLayer){
-        val mag = ds.mag.getOrElse(new Magnitude(100)).mag
-        chart.addNode(Layer.deepsky, node, ds, -ds.sizeMax.get.toDegree)
-      }
+      if(addToLayer)
+        chart.addNode(layer, node, ds, zorder(ds))
     }
     n
   }
@@ -182,6 +186,9 @@ class DeepSkyPainter(dao: DeepSkyDao)
 	  paintAll(chart,config,deepSkys)
   }
   
+  /** warm DAO cache for area, which is likely to be painted soon */
+  def prefetch(area:LongRangeSet) = dao.prefetchByArea(area)
+
   def clearChart(chart:Chart) = {
 	  chart.getLayer(Layer.deepsky).removeAllChildren
   }
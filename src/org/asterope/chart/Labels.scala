@@ -1,12 +1,11 @@
 package org.asterope.chart
 
 import edu.umd.cs.piccolo.PNode
-import java.awt.Color
 import org.asterope.data._
 import java.awt.Font
 import edu.umd.cs.piccolo.nodes._
 import org.asterope.util._
-import java.awt.image.BufferedImage
+import collection.mutable.ArrayBuffer
 
 /**
  * Configuration object `Labels`
@@ -28,50 +27,90 @@ object Labels
 		chart.getLayer(Layer.label).removeAllChildren()
 	}
 	
+	/**
+	 * Place labels for brightest objects on chart.
+	 * Bounds of labelled objects are copied from scene graph in single `exec` call,
+	 * placement then runs in current thread against occupancy grid of painted objects and already placed labels,
+	 * labels are then added to chart in single step.
+	 * Constellation and coordinate grid lines are not in grid, labels may overlap them.
+	 */
 	def updateChart(chart: Chart, config:LabelsConfig){
 		val objs:List[(HasNomenclature,PNode)] = findStarsToLabel(chart,config ) ::: findDeepSkyToLabel(chart,config)
+		//Piccolo is not thread safe, so bounds of nodes already in scene are read on EDT
+		val bounds = chart.exec{ objs.map(_._2.getGlobalFullBounds) }
+
+		val occupied = new OccupancyGrid(chart.width, chart.height)
+		chart.hitIndex.foreachBounds(occupied.mark)
+		val placed = new OccupancyGrid(chart.width, chart.height)
+
+		val labels = new ArrayBuffer[(PNode,Any,Double)]
+		for(((starlinkObj,_),b) <- objs.zip(bounds)){
+			checkInterrupted()
+			val label = new PText(selectName(starlinkObj))
+			label.setFont(config.labelFont)
+			label.setTextPaint(chart.colors.fg); //TODO special color for labels
+			val w = label.getWidth
+			val h = label.getHeight
+			findLabelPosition(chart, b, w, h, occupied, placed).foreach{p=>
+				label.setGlobalTranslation(p);
+				placed.mark(p.x, p.y, p.x + w, p.y + h)
+				labels += ((label, None, 0D))
+			}
+		}
+		chart.addNodes(Layer.label, labels)
+	}
 
+	/**
+	 * Objects whose painted bounds are inside or intersect with canvas.
+	 * It is taken from `chart.hitIndex`, so nodes in scene graph are not touched outside of EDT.
+	 */
+	private def objectsOnCanvas(chart:Chart):collection.Set[Any] =
+		chart.objectsInRect(new java.awt.geom.Rectangle2D.Double(0,0,chart.width,chart.height)).toSet
 
-		chart.exec{ //this all must be on EDT thread, otherwise chart would repaint many times and cause poor performance
-			var size:Float = config.labelFont.getSize;
-      objs.foreach{case (starlinkObj,node) =>
-        checkInterrupted()
-        if(size>4)
-          size = size - 0.03F
-				val name = selectName(starlinkObj)
-				val label= new PText(name)
-				label.setFont(config.labelFont.deriveFont(size))
-				label.setTextPaint(chart.colors.fg); //TODO special color for labels
-				//find best position for label
-          
-				val pos = findBestLabelPosition(chart, node, label.getWidth.toInt, label.getHeight.toInt);
-			
-				pos.foreach{p=>
-					label.setGlobalTranslation(p);
-					//add label and wait until done				
-					chart.addNode(Layer.label,label)
-				}
+	/**
+	 * Select `k` elements with smallest key. Bounded heap is used, so whole collection is not sorted.
+	 *
+	 * @param accept additional filter, it is only called for elements which would get into result
+	 * @return selected elements sorted by key
+	 */
+	def topK[A](items:Iterator[A], k:Int, key:A=>Double, accept:A=>Boolean = (a:A)=>true):List[A] = {
+		if(k<=0) return Nil
+		//largest key is on top, so it can be replaced by smaller element
+		val heap = new java.util.PriorityQueue[(Double,A)](k, new java.util.Comparator[(Double,A)]{
+			def compare(a:(Double,A), b:(Double,A)) = java.lang.Double.compare(b._1, a._1)
+		})
+		items.foreach{a=>
+			val d = key(a)
+			if((heap.size<k || d<heap.peek._1) && accept(a)){
+				heap.add((d,a))
+				if(heap.size>k) heap.poll()
 			}
 		}
+		var ret:List[A] = Nil
+		while(!heap.isEmpty) ret = heap.poll()._2 :: ret
+		ret
 	}
-	
+
 	/**
 	 * Find brightest stars on chart, for which label is added. 
 	 */
 	def findStarsToLabel(chart: Chart, config:LabelsConfig):List[(LiteStar,PNode)] = {
 			if(!config.showStarLabels) return Nil
-			val liteStars = chart.objects
-					.filter(_.isInstanceOf[LiteStar])
-					.map(_.asInstanceOf[LiteStar])
-					.filter{s=> chart.isInsideCanvas(chart.getNodeForObject(s).get)}
-                    .filter(_.names.forall(_.toString.startsWith("UCAC"))) //TODO primitive hack not to show UCAC star labels for Galway Sky Catalog
-					.toList
-					.sortWith(_.mag<_.mag) 
-					.take(config.numberOfStarLabels)
-			liteStars.map{s=>
-				val node = chart.getNodeForObject(s).get
-				(s,node)
+			//stars from batch are on chart as StarRef, full LiteStar is created only for candidates
+			def star(s:AnyRef) = s match{
+				case r:StarRef => r.star
+				case s:LiteStar => s
 			}
+			val onCanvas = objectsOnCanvas(chart)
+			val candidates = chart.objects
+					.collect{
+						case s:LiteStar => (s:AnyRef,s.mag.mag)
+						case r:StarRef => (r:AnyRef,r.mag)
+					}
+			topK[(AnyRef,Double)](candidates, config.numberOfStarLabels, _._2,
+					c=> onCanvas.contains(c._1) &&
+						star(c._1).names.forall(_.toString.startsWith("UCAC"))) //TODO primitive hack not to show UCAC star labels for Galway Sky Catalog
+				.map{case (s,_)=> (star(s),chart.getNodeForObject(s).get)}
 	}
 	
 	/**
@@ -79,18 +118,12 @@ object Labels
 	 */
 	def findDeepSkyToLabel(chart: Chart, config:LabelsConfig):List[(DeepSky,PNode)] = {
 			if(!config.showDeepSkyLabels) return Nil
-			val ds = chart.objects
-					.filter(_.isInstanceOf[DeepSky])
-					.map(_.asInstanceOf[DeepSky])
-					.filter(!_.names.isEmpty) //only show stars with labels
-					.filter{s=> chart.isInsideCanvas(chart.getNodeForObject(s).get)}
-					.toList
-					.sortWith(_.mag<_.mag) 
-					.take(config.numberOfDeepSkyLabels)
-			ds.map{s=>
-				val node = chart.getNodeForObject(s).get
-				(s,node)
-			}
+			val onCanvas = objectsOnCanvas(chart)
+			val ds = chart.objects.collect{case d:DeepSky => d}
+			//objects with unknown magnitude go first
+			topK[DeepSky](ds, config.numberOfDeepSkyLabels, _.mag.map(_.mag).getOrElse(Double.NegativeInfinity),
+					d=> onCanvas.contains(d) && !d.names.isEmpty) //only show objects with labels
+				.map{s=> (s,chart.getNodeForObject(s).get)}
 	}
 
 	/**
@@ -151,95 +184,51 @@ object Labels
 	}
 	
 	
-  /**Find best position where to put label. It uses fuzzy algorithm to find
-   * place where label does not overlap with other things
+  /** offsets of label from object bounds, in order of preference */
+  private val positions = List(
+      (1,0), (-1,0), (0,-1), (0,1), //right, left, top, bottom
+      (1,-1), (1,1), (-1,-1), (-1,1)) //diagonals
+
+  /** gap between object and label */
+  val LABEL_OFFSET = 3
+
+  /** penalty for each occupied grid cell covered by label, compared to one step in position preference */
+  val OVERLAP_PENALTY = 10
+
+  /**
+   * Find best position where to put label. Positions around object are tested,
+   * label must not overlap with other labels and should overlap with as few objects as possible.
+   *
    * @param chart Chart on which label should be placed
-   * @param node PNode for which label should be placed
+   * @param bounds of object for which label should be placed
    * @param w width of label
    * @param h height of label
-   * @return best position for label  
-   */
-  def findBestLabelPosition(chart:Chart, node:PNode, w:Int, h:Int):Option[Point2d] = {
-	  
-	  /*
-	   * Prepare image 
-	   */
-	  val offset = 3;
-	  val bounds = node.getFullBounds;
-	  val imgX = math.floor(bounds.getMinX - w - offset).toInt;
-	  val imgY = math.floor(bounds.getMinY - h - offset).toInt;
-	  val imgW =  math.ceil(bounds.getWidth + w*2 + offset*2).toInt;
-	  val imgH = math.ceil(bounds.getHeight + h*2 + offset*2).toInt;
-	  val img = chart.toBufferedImage(imgX, imgY, imgW, imgH);
-	   
-	  /*
-	   * make candidate points with scores 
-	   */
-	  val bgColor = chart.colors.bg
-	  val lx:Double = imgW/2 - w/2;
-	  val ly:Double = imgH/2 - h/2;
-	  val viewBounds = chart.camera.getViewBounds;
-	  var bestPos:Point2d = null;
-	  var bestScore = java.lang.Double.MAX_VALUE;
-
-    //bitmap is copied to this array, so new instance does not have to be instanciated each time
-    val rgbArray = Array.ofDim[Int](w*h)
-
-	  for{
-	 	  	x:Int <- Range(0, imgW-w, math.max(imgW/20,2));
-	 	  	if(imgX +x >viewBounds.getMinX);
-	 	  	if(imgX + x + w < viewBounds.getMaxX);
-	 		y:Int <- Range(0, imgH-h, math.max(imgH/20,2));
-	 	  	if(imgY +y >viewBounds.getMinY);
-	 	  	if(imgY + y + h < viewBounds.getMaxY);
-	 		distPenalty = math.abs((lx - x) * (lx - x)+(ly - y) * (ly - y));
-	 		imgScore = calculateColorScore(img,bgColor,x,y,w,h,rgbArray);
-	 		totalScore = imgScore + distPenalty * 20;
-	 		if(bestScore>totalScore || bestPos == null)
-	  }{
-			bestPos = new Point2d(x,y);
-			bestScore = totalScore;
-	  }
-	  if(bestPos == null)
-		  None;
-	  else
-		  Some(new Point2d(imgX+bestPos.x, imgY + bestPos.y));
-  }
-
-    /**
-   * Calculate color score. Is based on distance from background color and how often color 'swaps'
-   * Is used to calculate 'score' for label position.
-   * Position with smallest difference from bg color is used.
-   *
-   * @param img to calculate average color on
-   * @param bg  background color
-   * @return number from -255-255 which represents avg color distance
+   * @param occupied grid with painted objects
+   * @param placed grid with already placed labels
+   * @return best position for label, None if there is no free space around object
    */
-  def calculateColorScore(img: BufferedImage, bg: Color, x: Int, y: Int, w: Int, h: Int, rgbArray:Array[Int]): Double = {
-    var ret: Long = 0
-    val red: Int = bg.getRed
-    val green: Int = bg.getGreen
-    val blue: Int = bg.getBlue
-    img.getRGB(x, y, w, h, rgbArray, 0, w)
-    var oldRgb: Int = 0
-    val size = rgbArray.size
-    var i = 0;
-    while(i<size){
-      val rgb = rgbArray(i)
-      //this loop has to be very optimized, no external method can be called from here
-      if (oldRgb != rgb) {
-
-        val redDist: Int = red - ((rgb >> 16) & 0xFF)
-        val greenDist: Int = green - ((rgb >> 8) & 0xFF)
-        val blueDist: Int = blue - (rgb & 0xFF)
-        ret += redDist * redDist
-        ret += greenDist * greenDist
-        ret += blueDist * blueDist
+  def findLabelPosition(chart:Chart, bounds:java.awt.geom.Rectangle2D, w:Double, h:Double,
+                        occupied:OccupancyGrid, placed:OccupancyGrid):Option[Point2d] = {
+    var bestPos:Point2d = null
+    var bestScore = Int.MaxValue
+    for(((dx,dy),index) <- positions.zipWithIndex){
+      val x =
+        if(dx>0) bounds.getMaxX + LABEL_OFFSET
+        else if(dx<0) bounds.getMinX - LABEL_OFFSET - w
+        else bounds.getCenterX - w/2
+      val y =
+        if(dy>0) bounds.getMaxY + LABEL_OFFSET
+        else if(dy<0) bounds.getMinY - LABEL_OFFSET - h
+        else bounds.getCenterY - h/2
+      if(x>=0 && y>=0 && x+w<=chart.width && y+h<=chart.height && placed.isFree(x,y,x+w,y+h)){
+        val score = occupied.count(x,y,x+w,y+h) * OVERLAP_PENALTY + index
+        if(score<bestScore){
+          bestPos = Point2d(x,y)
+          bestScore = score
+        }
       }
-      oldRgb = rgb
-      i = i + 1;
     }
-    ret
+    Option(bestPos)
   }
 
 }
\ No newline at end of file
@@ -1,9 +1,7 @@
 package org.asterope.chart
 
 import edu.umd.cs.piccolo.{PNode, PLayer}
-import collection.mutable.WeakHashMap
 import edu.umd.cs.piccolo.PNode._
-import java.util.{Collections, Comparator}
 
 object Layer extends Enumeration {
 
@@ -36,44 +34,138 @@ case class Layer(layerName:Layer.Value)
 
 
     /**
-     * stores zorders for nodes
+     * z-order of children, primitive array parallel to children list, it is always sorted.
+     * Node added without z-order gets z-order of its neighbour.
      */
-    private val zorders = new WeakHashMap[PNode, Double]();
+    private var zorders = new Array[Double](16)
+    private var zorderCount = 0
+
+    /** z-order used by next `addChild(index,node)`, so it can stay single entry point. NaN if not set */
+    private var nextZorder = Double.NaN
+
+    override def addChild(index:Int, child:PNode) {
+        assertThread();
+        val zorder = nextZorder
+        nextZorder = Double.NaN
+        //if child is already in this layer, Piccolo removes it first, so index is valid after this call
+        super.addChild(index, child);
+        insertZorder(index, zorder)
+    }
+
+    override def removeChild(index:Int):PNode = {
+        assertThread();
+        val ret = super.removeChild(index)
+        if(ret == null) return null
+        System.arraycopy(zorders, index+1, zorders, index, zorderCount - index - 1)
+        zorderCount-=1
+        ret
+    }
+
+    override def removeAllChildren() {
+        assertThread();
+        super.removeAllChildren()
+        zorderCount = 0
+    }
+
+    private def insertZorder(index:Int, zorder:Double){
+        if(zorderCount == zorders.length)
+            zorders = java.util.Arrays.copyOf(zorders, zorders.length*2)
+        val zorder2 =
+            if(!zorder.isNaN) zorder
+            else if(index>0) zorders(index-1)
+            else if(zorderCount>0) zorders(0)
+            else 0D
+        System.arraycopy(zorders, index, zorders, index+1, zorderCount - index)
+        zorders(index) = zorder2
+        zorderCount+=1
+    }
+
+    /** z-order of child at given index */
+    def zorderAt(index:Int):Double = {
+        if(index<0 || index>=zorderCount) throw new IndexOutOfBoundsException(index.toString)
+        zorders(index)
+    }
+
+    /** @return index after last child with z-order smaller or equal */
+    private def upperBound(zorder:Double):Int = {
+        var low = 0
+        var high = zorderCount
+        while(low<high){
+            val mid = (low + high) >>> 1
+            if(zorders(mid) <= zorder) low = mid + 1
+            else high = mid
+        }
+        low
+    }
 
     /**
-     * add node to layer with defined z-order
+     * add node to layer with defined z-order.
+     * Node goes after existing nodes with the same z-order.
      *
      * @param child  node to add
-     * @param zorder, can be null
+     * @param zorder, nodes with smaller z-order are painted first
      */
     def addChildWithZorder(child:PNode, zorder:Double) {
         if (child == null)
             throw new IllegalArgumentException("child is null");
         assertThread();
+        //remove first, so index is not shifted by removal
+        if(child.getParent eq this) removeChild(child)
+        nextZorder = zorder
+        addChild(upperBound(zorder), child);
+    }
 
-       zorders.put(child, zorder);
-       val children = getChildrenReference.asInstanceOf[java.util.List[PNode]];
-
-       val comparator = new Comparator[PNode](){
-           override def  compare( o1:PNode, o2:PNode):Int= {
-               val zorder1:Option[Double] = zorders.get(o1);
-               val zorder2:Option[Double] = zorders.get(o2);
-               if((zorder1.isEmpty && zorder2.isEmpty ))
-                   0;
-               else if(zorder1.isEmpty || zorder1.get < zorder2.get)
-                   -1;
-               else if(zorder2.isEmpty || zorder2.get < zorder1.get)
-                   1;
-               else
-                   0;
-           }
-       }
-
-       var i:Int = Collections.binarySearch(children, child, comparator);
-       if(i<0) i = -i -1;
-
-       addChild(i, child);
-
+    /**
+     * Add many nodes at once. Batch is merged with existing children in single pass,
+     * so it costs O(n+m) instead of binary search and array shift for each node.
+     * Children list is changed once and single property change event is fired.
+     *
+     * @param nodes with z-order, must be sorted by z-order
+     */
+    def addChildrenSorted(nodes:Seq[(PNode, Double)]) {
+        assertThread();
+        if(nodes.isEmpty) return
+        var last = Double.NegativeInfinity
+        for((node,zorder) <- nodes){
+            if (node == null)
+                throw new IllegalArgumentException("child is null");
+            if(zorder<last)
+                throw new IllegalArgumentException("nodes are not sorted by z-order")
+            last = zorder
+            if(node.getParent!=null) node.removeFromParent()
+        }
+
+        val children = getChildrenReference.asInstanceOf[java.util.List[PNode]]
+        val size = zorderCount + nodes.size
+        val merged = new java.util.ArrayList[PNode](size)
+        val zorders2 = new Array[Double](math.max(16,size))
+        var i = 0
+        var k = 0
+        for((node,zorder) <- nodes){
+            //existing nodes with the same z-order go first
+            while(i<zorderCount && zorders(i)<=zorder){
+                merged.add(children.get(i))
+                zorders2(k) = zorders(i)
+                i+=1; k+=1
+            }
+            node.setParent(this)
+            merged.add(node)
+            zorders2(k) = zorder
+            k+=1
+        }
+        while(i<zorderCount){
+            merged.add(children.get(i))
+            zorders2(k) = zorders(i)
+            i+=1; k+=1
+        }
+
+        children.clear()
+        children.addAll(merged)
+        zorders = zorders2
+        zorderCount = size
+        nodes.foreach(_._1.invalidatePaint())
+        invalidateFullBounds()
+        firePropertyChange(PROPERTY_CODE_CHILDREN, PROPERTY_CHILDREN, null, children)
     }
 
     protected def assertThread() {
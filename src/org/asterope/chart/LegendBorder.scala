@@ -98,7 +98,7 @@ class LegendBorder (stars:Stars, deepSky:DeepSkyPainter)
 			def magRound(d:Double) = Magnitude(d -d%0.5) //fce used to round magnitude to 0.5
 			val mag = magRound(0 + i * limitStarMag.mag / numberOfStars)
 
-			val star = new LiteStar(chart.position.getRa,chart.position.getDe,mag)
+			val star = LiteStar(chart.position.getRa,chart.position.getDe,mag)
 			
 			val node = stars.paintObject(chart,config.starConfig,star,addToLayer=false).get
 
@@ -110,9 +110,9 @@ class LegendBorder (stars:Stars, deepSky:DeepSkyPainter)
     pos+=30
 
 		val angle = chart.pixelAngularSize  * 20
-		val ds = new DeepSky(ra=chart.position.getRa,de=chart.position.getDe,
+		val ds = DeepSky(ra=chart.position.getRa,de=chart.position.getDe,
 				mag=Some(Magnitude(8)), sizeMax=Some(angle), sizeMin=Some(angle/2),posAngle = Some(70.degree),
-				deepSkyType = null)
+				deepSkyType = null, names = Nil)
 		//galaxy legend		
 		deepSky.paintGalaxy(chart,config.deepSkyConfig,ds).foreach{g=>
       append(g,"Galaxy")
@@ -0,0 +1,72 @@
+package org.asterope.chart
+
+/**
+ * Bitmap of occupied areas on chart canvas with coarse resolution.
+ * It is used by label placement to test if label would overlap
+ * with already painted objects or other labels, without rendering chart into image.
+ *
+ * @param width of canvas
+ * @param height of canvas
+ * @param cellSize size of single bit in pixels
+ *
+ * @author Jan Kotek
+ */
+class OccupancyGrid(val width:Double, val height:Double, val cellSize:Int = OccupancyGrid.CELL_SIZE){
+
+  private val cols = math.max(1, math.ceil(width/cellSize).toInt)
+  private val rows = math.max(1, math.ceil(height/cellSize).toInt)
+  private val bits = new java.util.BitSet(cols*rows)
+
+  private def col(x:Double) = math.min(cols-1, math.max(0, math.floor(x/cellSize).toInt))
+  private def row(y:Double) = math.min(rows-1, math.max(0, math.floor(y/cellSize).toInt))
+
+  /** true if rectangle is completely outside of canvas, it can not be marked or tested */
+  private def outside(x1:Double, y1:Double, x2:Double, y2:Double) =
+    x2<0 || y2<0 || x1>width || y1>height
+
+  /** mark rectangle as occupied */
+  def mark(x1:Double, y1:Double, x2:Double, y2:Double){
+    if(outside(x1,y1,x2,y2)) return
+    val c1 = col(x1)
+    val c2 = col(x2)
+    var r = row(y1)
+    while(r<=row(y2)){
+      bits.set(r*cols+c1, r*cols+c2+1)
+      r+=1
+    }
+  }
+
+  /** @return number of occupied cells in rectangle */
+  def count(x1:Double, y1:Double, x2:Double, y2:Double):Int = {
+    if(outside(x1,y1,x2,y2)) return 0
+    val c1 = col(x1)
+    val c2 = col(x2)
+    var ret = 0
+    var r = row(y1)
+    while(r<=row(y2)){
+      ret += bits.get(r*cols+c1, r*cols+c2+1).cardinality
+      r+=1
+    }
+    ret
+  }
+
+  /** @return true if no cell in rectangle is occupied */
+  def isFree(x1:Double, y1:Double, x2:Double, y2:Double):Boolean = {
+    if(outside(x1,y1,x2,y2)) return true
+    val c1 = col(x1)
+    val c2 = col(x2)
+    var r = row(y1)
+    while(r<=row(y2)){
+      val next = bits.nextSetBit(r*cols+c1)
+      if(next>=0 && next<=r*cols+c2) return false
+      r+=1
+    }
+    true
+  }
+
+}
+
+object OccupancyGrid{
+  /** default cell size in pixels */
+  val CELL_SIZE = 4
+}
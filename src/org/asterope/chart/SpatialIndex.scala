@@ -0,0 +1,193 @@
+package org.asterope.chart
+
+import java.awt.geom.Rectangle2D
+
+/**
+ * Uniform grid over chart canvas with bounds of painted objects.
+ * Each object is stored in all cells its bounds overlap,
+ * so nearest-object and rectangle queries only visit few cells
+ * instead of scanning all objects on chart.
+ * <p>
+ * Objects are added incrementally as features paint. Bounds outside of canvas
+ * are clamped to border cells. Index is thread safe.
+ *
+ * @param width of canvas
+ * @param height of canvas
+ * @param cellSize size of grid cell in pixels
+ *
+ * @author Jan Kotek
+ */
+class SpatialIndex(val width:Double, val height:Double, val cellSize:Int = SpatialIndex.CELL_SIZE){
+
+  private val cols = math.max(1, math.ceil(width/cellSize).toInt)
+  private val rows = math.max(1, math.ceil(height/cellSize).toInt)
+
+  /** entry ids in each cell, cell array grows on demand */
+  private val cells = new Array[Array[Int]](cols*rows)
+  private val cellSizes = new Array[Int](cols*rows)
+
+  private var _size = 0
+  private var minX = new Array[Double](64)
+  private var minY = new Array[Double](64)
+  private var maxX = new Array[Double](64)
+  private var maxY = new Array[Double](64)
+  private var objects = new Array[Any](64)
+
+  /** last query which visited entry, used to remove duplicates from multiple cells */
+  private var visited = new Array[Int](64)
+  private var queryId = 0
+
+  def size = synchronized{_size}
+
+  private def col(x:Double) = math.min(cols-1, math.max(0, math.floor(x/cellSize).toInt))
+  private def row(y:Double) = math.min(rows-1, math.max(0, math.floor(y/cellSize).toInt))
+
+  /**
+   * Add object with given bounds
+   * @param obj object, it is returned by queries
+   * @param bounds of object on canvas
+   */
+  def add(obj:Any, bounds:Rectangle2D){
+    add(obj, bounds.getMinX, bounds.getMinY, bounds.getMaxX, bounds.getMaxY)
+  }
+
+  def add(obj:Any, x1:Double, y1:Double, x2:Double, y2:Double){
+    synchronized{
+      if(_size == objects.length) grow()
+      val id = _size
+      minX(id) = x1
+      minY(id) = y1
+      maxX(id) = x2
+      maxY(id) = y2
+      objects(id) = obj
+      _size+=1
+
+      var r = row(y1)
+      while(r<=row(y2)){
+        var c = col(x1)
+        while(c<=col(x2)){
+          addToCell(r*cols+c, id)
+          c+=1
+        }
+        r+=1
+      }
+    }
+  }
+
+  private def grow(){
+    val size2 = objects.length*2
+    minX = java.util.Arrays.copyOf(minX, size2)
+    minY = java.util.Arrays.copyOf(minY, size2)
+    maxX = java.util.Arrays.copyOf(maxX, size2)
+    maxY = java.util.Arrays.copyOf(maxY, size2)
+    visited = java.util.Arrays.copyOf(visited, size2)
+    val objects2 = new Array[Any](size2)
+    System.arraycopy(objects, 0, objects2, 0, _size)
+    objects = objects2
+  }
+
+  private def addToCell(cell:Int, id:Int){
+    var ids = cells(cell)
+    if(ids == null){
+      ids = new Array[Int](4)
+      cells(cell) = ids
+    }else if(cellSizes(cell) == ids.length){
+      ids = java.util.Arrays.copyOf(ids, ids.length*2)
+      cells(cell) = ids
+    }
+    ids(cellSizes(cell)) = id
+    cellSizes(cell) += 1
+  }
+
+  /** distance from point to entry bounds, zero if point is inside */
+  private def distance(id:Int, x:Double, y:Double):Double = {
+    val dx = math.max(0, math.max(minX(id) - x, x - maxX(id)))
+    val dy = math.max(0, math.max(minY(id) - y, y - maxY(id)))
+    math.sqrt(dx*dx + dy*dy)
+  }
+
+  private def area(id:Int) = (maxX(id) - minX(id)) * (maxY(id) - minY(id))
+
+  /** call function for each entry in cells overlapping rectangle, each entry is visited once */
+  private def foreachInCells(x1:Double, y1:Double, x2:Double, y2:Double)(f:Int=>Unit){
+    queryId+=1
+    var r = row(y1)
+    while(r<=row(y2)){
+      var c = col(x1)
+      while(c<=col(x2)){
+        val cell = r*cols+c
+        val ids = cells(cell)
+        var i = 0
+        while(i<cellSizes(cell)){
+          val id = ids(i)
+          if(visited(id)!=queryId){
+            visited(id) = queryId
+            f(id)
+          }
+          i+=1
+        }
+        c+=1
+      }
+      r+=1
+    }
+  }
+
+  /**
+   * Find object nearest to given point.
+   * If point is inside bounds of several objects, the smallest one is returned,
+   * so star inside big galaxy can still be picked.
+   *
+   * @param maxDistance maximal distance from point to object bounds
+   * @return nearest object or None
+   */
+  def nearest(x:Double, y:Double, maxDistance:Double = SpatialIndex.PICK_TOLERANCE):Option[Any] = synchronized{
+    var best = -1
+    var bestDist = Double.MaxValue
+    foreachInCells(x-maxDistance, y-maxDistance, x+maxDistance, y+maxDistance){id=>
+      val dist = distance(id,x,y)
+      if(dist<=maxDistance && (dist<bestDist || (dist==bestDist && best>=0 && area(id)<area(best)))){
+        best = id
+        bestDist = dist
+      }
+    }
+    if(best == -1) None else Some(objects(best))
+  }
+
+  /** @return all objects whose bounds intersect with given rectangle */
+  def query(rect:Rectangle2D):IndexedSeq[Any] = synchronized{
+    val ret = new scala.collection.mutable.ArrayBuffer[Any]
+    foreachInCells(rect.getMinX, rect.getMinY, rect.getMaxX, rect.getMaxY){id=>
+      if(minX(id)<=rect.getMaxX && maxX(id)>=rect.getMinX &&
+        minY(id)<=rect.getMaxY && maxY(id)>=rect.getMinY)
+        ret+=objects(id)
+    }
+    ret
+  }
+
+  /** call function with bounds of each object in index */
+  def foreachBounds(f:(Double,Double,Double,Double)=>Unit){
+    synchronized{
+      var id = 0
+      while(id<_size){
+        f(minX(id), minY(id), maxX(id), maxY(id))
+        id+=1
+      }
+    }
+  }
+
+  def clear(){
+    synchronized{
+      java.util.Arrays.fill(cellSizes, 0)
+      objects = new Array[Any](objects.length)
+      _size = 0
+    }
+  }
+
+}
+
+object SpatialIndex{
+  /** default cell size in pixels */
+  val CELL_SIZE = 32
+  /** default distance for picking, so very small objects can be clicked */
+  val PICK_TOLERANCE = 3D
+}
@@ -0,0 +1,297 @@
+package org.asterope.chart
+
+import edu.umd.cs.piccolo.PNode
+import edu.umd.cs.piccolo.util.PPaintContext
+import java.awt.BasicStroke
+import java.awt.geom.{Rectangle2D, Ellipse2D, Path2D}
+import org.asterope.util._
+
+/**
+ * Single Piccolo node which paints many stars.
+ * Projected position, diameter and decorations are stored in primitive arrays
+ * and all stars are painted in one `paint` call, so scene graph does not
+ * have to maintain bounds and repaint state for tens of thousands of nodes.
+ * <p>
+ * Each star also has object it represents (LiteStar or StarRef).
+ * Chart finds star by object, and creates lightweight `StarHandle` node on demand,
+ * so labels and selection work with star bounds the same way as with ordinary nodes.
+ *
+ * @param colors colors used to paint stars
+ * @param initialCapacity size of arrays, they grow if needed
+ *
+ * @author Jan Kotek
+ */
+class StarBatchNode(colors:Colors, initialCapacity:Int = 1024) extends PNode{
+  import StarBatchNode._
+
+  private var _size = 0
+  private var _x = new Array[Double](initialCapacity)
+  private var _y = new Array[Double](initialCapacity)
+  private var _diameter = new Array[Double](initialCapacity)
+  private var _posAngle = new Array[Double](initialCapacity)
+  private var _zorder = new Array[Double](initialCapacity)
+  private var _flags = new Array[Byte](initialCapacity)
+  private var _objects = new Array[AnyRef](initialCapacity)
+
+  /** indexes of stars in paint order, is set by `finish` */
+  private var order:Array[Int] = null
+
+  /** disc with binary line for binary stars, null for other stars. Is built by `finish` */
+  private var binaryShapes:Array[java.awt.Shape] = null
+
+  def size = _size
+  def x(i:Int) = _x(i)
+  def y(i:Int) = _y(i)
+  def diameter(i:Int) = _diameter(i)
+  def flags(i:Int) = _flags(i)
+  /** object represented by star at given index */
+  def obj(i:Int):AnyRef = _objects(i)
+
+  def maxDiameter:Double = {
+    var ret = 0D
+    var i = 0
+    while(i<_size){
+      ret = math.max(ret, _diameter(i))
+      i+=1
+    }
+    ret
+  }
+
+  /**
+   * Add star
+   *
+   * @param x projected position
+   * @param y projected position
+   * @param diameter of star disc
+   * @param flags combination of FLAG_BINARY and FLAG_VARIABLE decorations
+   * @param posAngle position angle of binary star line in radians
+   * @param obj object represented by star
+   * @param zorder stars with smaller zorder are painted first
+   */
+  def add(x:Double, y:Double, diameter:Double, flags:Int, posAngle:Double, obj:AnyRef, zorder:Double){
+    if(order!=null) throw new IllegalStateException("batch is already finished")
+    if(_size == _x.length) grow()
+    _x(_size) = x
+    _y(_size) = y
+    _diameter(_size) = diameter
+    _flags(_size) = flags.toByte
+    _posAngle(_size) = posAngle
+    _objects(_size) = obj
+    _zorder(_size) = zorder
+    _size+=1
+  }
+
+  private def grow(){
+    val size2 = math.max(16, _x.length * 2)
+    _x = java.util.Arrays.copyOf(_x, size2)
+    _y = java.util.Arrays.copyOf(_y, size2)
+    _diameter = java.util.Arrays.copyOf(_diameter, size2)
+    _posAngle = java.util.Arrays.copyOf(_posAngle, size2)
+    _zorder = java.util.Arrays.copyOf(_zorder, size2)
+    _flags = java.util.Arrays.copyOf(_flags, size2)
+    _objects = java.util.Arrays.copyOf(_objects, size2)
+  }
+
+  /** radius of area covered by star, including decorations */
+  def radius(i:Int):Double = {
+    val d = _diameter(i)
+    //binary line reaches one diameter from center
+    if((_flags(i) & FLAG_BINARY) != 0) d + strokeWidth(d)
+    else d/2 + strokeWidth(d)
+  }
+
+  /**
+   * Sort stars into paint order and update bounds.
+   * It must be called after all stars were added, before node is added to chart
+   */
+  def finish(){
+    val sorted = (0 until _size).sortBy(_zorder(_))
+    order = sorted.toArray
+    //area union is expensive, so it is done once and not on each repaint
+    binaryShapes = new Array[java.awt.Shape](_size)
+    for(i <- 0 until _size; if((_flags(i) & FLAG_BINARY) != 0)){
+      val d = _diameter(i)
+      val disc = new Ellipse2D.Double(_x(i) - d/2, _y(i) - d/2, d, d)
+      binaryShapes(i) = ChartUtils.shapeAdd(binaryLine(_x(i), _y(i), d, _posAngle(i)), disc)
+    }
+    if(_size == 0){
+      setBounds(0,0,0,0)
+      return
+    }
+    var minX = Double.MaxValue
+    var minY = Double.MaxValue
+    var maxX = Double.MinValue
+    var maxY = Double.MinValue
+    var i = 0
+    while(i<_size){
+      val r = radius(i)
+      minX = math.min(minX, _x(i) - r)
+      minY = math.min(minY, _y(i) - r)
+      maxX = math.max(maxX, _x(i) + r)
+      maxY = math.max(maxY, _y(i) + r)
+      i+=1
+    }
+    setBounds(minX, minY, maxX-minX, maxY-minY)
+  }
+
+  /** @return true if star disc (with decorations) intersects given rectangle */
+  private def starIntersects(i:Int, r:Rectangle2D):Boolean = {
+    val rad = radius(i)
+    r.intersects(_x(i) - rad, _y(i) - rad, rad*2, rad*2)
+  }
+
+  /** picking hits only stars, not empty space between them */
+  override def intersects(localBounds:Rectangle2D):Boolean = {
+    if(!super.intersects(localBounds)) return false
+    var i = 0
+    while(i<_size){
+      if(starIntersects(i,localBounds)) return true
+      i+=1
+    }
+    false
+  }
+
+  /**
+   * Find star at given position.
+   * @return index of nearest star whose disc contains position, or -1
+   */
+  def indexAt(x:Double, y:Double):Int = {
+    var ret = -1
+    var bestDist = Double.MaxValue
+    var i = 0
+    while(i<_size){
+      val dx = _x(i) - x
+      val dy = _y(i) - y
+      val dist = dx*dx + dy*dy
+      val r = math.max(radius(i), PICK_TOLERANCE)
+      if(dist <= r*r && dist<bestDist){
+        ret = i
+        bestDist = dist
+      }
+      i+=1
+    }
+    ret
+  }
+
+  /** @return object of star at given position */
+  def objectAt(x:Double, y:Double):Option[AnyRef] = {
+    val i = indexAt(x,y)
+    if(i<0) None else Some(_objects(i))
+  }
+
+  /** @return lightweight node with bounds of star disc, it is not part of scene graph */
+  def handle(i:Int):StarHandle = new StarHandle(this,i)
+
+  override def paint(ctx:PPaintContext){
+    if(order == null) return
+    val g = ctx.getGraphics
+    val clip = ctx.getLocalClip
+    val disc = new Ellipse2D.Double
+    var k = 0
+    while(k<order.length){
+      val i = order(k)
+      k+=1
+      if(starIntersects(i,clip)){
+        val d = _diameter(i)
+        val x = _x(i)
+        val y = _y(i)
+        disc.setFrame(x - d/2, y - d/2, d, d)
+        val shape =
+          if(binaryShapes(i) == null) disc
+          else binaryShapes(i)
+
+        g.setPaint(colors.star)
+        g.fill(shape)
+        try{
+          g.setStroke(stroke(strokeWidth(d)))
+          g.setPaint(colors.bg)
+          g.draw(shape)
+        }catch{
+          //see Stars.createNode, Linux OpenJDK have problems painting stroke around some stars
+          case e:java.awt.geom.IllegalPathStateException =>
+            Log.warning("!!Error in OpenJDK!!, not fatal, but star drawn without stroke")
+        }
+
+        if((_flags(i) & FLAG_VARIABLE) != 0){
+          //dark circle decoration
+          val c1Dia = d - 2.6
+          if(c1Dia>0){
+            val c2Dia = c1Dia - 2.6
+            g.setPaint(colors.bg)
+            if(c2Dia > 4){
+              //ring between two circles is painted as stroke in middle of them
+              val w = RING_WIDTH
+              disc.setFrame(x - (c1Dia-w)/2, y - (c1Dia-w)/2, c1Dia-w, c1Dia-w)
+              g.setStroke(RING_STROKE)
+              g.draw(disc)
+            }else{
+              disc.setFrame(x - c1Dia/2, y - c1Dia/2, c1Dia, c1Dia)
+              g.fill(disc)
+            }
+          }
+        }
+      }
+    }
+  }
+
+}
+
+object StarBatchNode{
+
+  /** star has binary star line decoration */
+  val FLAG_BINARY = 1
+  /** star has variable star circle decoration */
+  val FLAG_VARIABLE = 2
+
+  /** minimal radius used in picking, so very faint stars can be clicked */
+  val PICK_TOLERANCE = 3D
+
+  def strokeWidth(diameter:Double) = math.min(1, diameter/10)
+
+  /** strokes are quantized, so they are not created for each star */
+  private val STROKES = Array.tabulate(21)(i=> new BasicStroke(i/20F))
+
+  def stroke(width:Double) = STROKES(math.round(width*20).toInt)
+
+  /** width of variable star ring */
+  private val RING_WIDTH = 1.3
+  private val RING_STROKE = new BasicStroke(RING_WIDTH.toFloat)
+
+  /**
+   * Line across binary star, rotated by position angle.
+   * TODO calculate position angle based on map orientation, dont just expect north points up
+   */
+  def binaryLine(x:Double, y:Double, diameter:Double, posAngle:Double):Path2D = {
+    val strokeWidth = StarBatchNode.strokeWidth(diameter)
+    val xa = +strokeWidth
+    val xb = -strokeWidth
+    val h = diameter
+    val cos = math.cos(posAngle)
+    val sin = math.sin(posAngle)
+    val xa2 = xa * cos - h * sin
+    val xb2 = xb * cos - h * sin
+    val ya2 = h * cos + xa * sin
+    val yb2 = h * cos + xb * sin
+    val line = new Path2D.Double()
+    line.moveTo(x + xa2, y + ya2)
+    line.lineTo(x - xb2, y - yb2)
+    line.lineTo(x - xa2, y - ya2)
+    line.lineTo(x + xb2, y + yb2)
+    line.closePath()
+    line
+  }
+
+}
+
+/**
+ * Node which stands for single star in StarBatchNode.
+ * It has bounds of star disc, but it is not painted and it is not part of scene graph.
+ */
+class StarHandle(val batch:StarBatchNode, val index:Int) extends PNode{
+  {
+    val r = batch.diameter(index)/2
+    setBounds(batch.x(index) - r, batch.y(index) - r, r*2, r*2)
+  }
+
+  def obj = batch.obj(index)
+}
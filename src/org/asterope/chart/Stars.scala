@@ -4,11 +4,11 @@ import edu.umd.cs.piccolo.PNode
 import java.awt.geom.Ellipse2D
 import java.awt.BasicStroke
 import edu.umd.cs.piccolo.nodes.PPath
-import java.awt.geom.Path2D
 import java.awt.Shape
 import org.asterope.data._
 import org.asterope.util._
 import scala.math._
+import org.asterope.healpix.LongRangeSet
 
 case class StarsConfig(
 	limitStarMagDelta: Double = -3,
@@ -26,11 +26,16 @@ case class StarsConfig(
  * @author Jan Kotek
  */
 class Stars(
-		dao: LiteStarDao)
+		dao: LiteStarSource)
 					   extends ChartFeature[StarsConfig]
 	                   with ChartPainter[StarsConfig, LiteStar]{
 	
 	def defaultConfig = new StarsConfig()
+
+	def layer = Layer.star
+
+	/** z-order is star magnitude, same as in StarBatchNode */
+	override def zorder(star:LiteStar) = star.mag.mag
 	
 	def calculateLimitStarMag(chart:Chart, config:StarsConfig):Magnitude = {
 		config.limitStarMagForce.getOrElse{
@@ -46,6 +51,25 @@ class Stars(
 
 	}
 	
+	/**
+	 * Decide which decorations star needs on chart.
+	 * @return combination of StarBatchNode.FLAG_BINARY and StarBatchNode.FLAG_VARIABLE
+	 */
+	def decorations(chart:Chart, config:StarsConfig, star:LiteStar, limitStarMag:Magnitude):Int = {
+		var flags = 0
+		//double star line
+		if(star.separation.isDefined && star.posAngle.isDefined &&
+				star.mag.mag < limitStarMag.mag + config.doubleStarMagDif &&
+				star.separation.get > chart.fieldOfView * config.doubleStarMinSize)
+			flags |= StarBatchNode.FLAG_BINARY
+		//variable star circle
+		if(config.showVariable && star.minMag.isDefined && star.maxMag.isDefined &&
+				star.mag.mag +3< limitStarMag.mag && //TODO hardcoded limit not to show variables by brightness
+				abs(star.maxMag.get.mag - star.minMag.get.mag)>0.5)
+			flags |= StarBatchNode.FLAG_VARIABLE
+		flags
+	}
+
 	/**
 	 * Paint star into chart node. 
 	 * 
@@ -57,44 +81,48 @@ class Stars(
 		val limitStarMag = calculateLimitStarMag(chart,config)
 		val diameter = (limitStarMag.mag  - star.mag.mag) * config.starDiscMultiply
 		val pos = chart.wcs.project(star.ra, star.de)
-		val strokeWidth = math.min(1,diameter.toDouble/10)
+		val strokeWidth = StarBatchNode.strokeWidth(diameter)
 		if(pos.isEmpty || diameter<1e-6) return None//nothing to paint
 		var s1:Shape = new Ellipse2D.Double(-diameter / 2, -diameter/ 2, diameter, diameter);
-		
-		  //paint double star decoration if needed
-	    if(star.separation.isDefined &&
-	    	star.mag.mag < limitStarMag.mag + config.doubleStarMagDif){
+		val flags = decorations(chart,config,star,limitStarMag)
 
-	    	if(star.posAngle.isDefined && star.separation.isDefined &&
-           star.separation.get > chart.fieldOfView * config.doubleStarMinSize){
-	    		//TODO calculate position angle based on map orientation, dont just expect north points up
-	    		val xa = +strokeWidth 
-	    		val xb =  -strokeWidth
-	    		val y = diameter	    		 
-	    		
-	    		//rotate by position angle
-	    		val angle = star.posAngle.get.toRadian;
-	    		val xa2 = xa * cos(angle) - y * sin(angle)
-	    		val xb2 = xb * cos(angle) - y * sin(angle)
-	    		val ya2 = y * cos(angle) + xa * sin(angle)
-	    		val yb2 = y * cos(angle) + xb * sin(angle)
-	    		//paint line	    		
-	    		val line = new Path2D.Double();
-	    		line.moveTo(xa2,ya2)
-	    		line.lineTo(-xb2,-yb2)
-	    		line.lineTo(-xa2,-ya2)
-	    		line.lineTo(xb2,yb2)	    			    		 	
-	    		line.closePath()
-	    		//add line to stellar disc
-	    		s1 = ChartUtils.shapeAdd(line,s1)
-	    		
-	    	}
-	    }
+		//paint double star decoration if needed
+		if((flags & StarBatchNode.FLAG_BINARY)!=0){
+			val line = StarBatchNode.binaryLine(0, 0, diameter, star.posAngle.get.toRadian)
+			//add line to stellar disc
+			s1 = ChartUtils.shapeAdd(line,s1)
+		}
 
-		
+		val n = createNode(chart,s1,strokeWidth,pos.get)
 	    
-		val n = new PPath(s1,null)
-		n.setGlobalTranslation(pos.get);
+		//if is variable star, add black circle decoration
+		if((flags & StarBatchNode.FLAG_VARIABLE)!=0){
+			//add dark circle to node
+			val c1Dia = diameter -  2.6
+			if(c1Dia>0){
+				val c1 = new Ellipse2D.Double(-c1Dia / 2 , -c1Dia/ 2 , c1Dia, c1Dia);
+				val c2Dia = c1Dia  -  2.6
+				//cut central area of circle
+				val c2 = new Ellipse2D.Double(-c2Dia / 2 , -c2Dia/ 2 , c2Dia, c2Dia);
+				val res = if(c2Dia> 4) new PPath(ChartUtils.shapeSubtract(c1,c2));
+					else new PPath(c1)
+				res.setPaint(chart.colors.bg)
+				res.setStroke(null)
+				res.setStrokePaint(null)
+				n.addChild(res)
+			}
+		}
+
+	    if(addToLayer)
+	    	chart.addNode(layer,n,star,zorder(star))
+	    	   
+	    Some(n)
+	}
+
+	/** create node for star with given shape */
+	protected def createNode(chart:Chart, shape:Shape, strokeWidth:Double, pos:Point2d):PPath = {
+		val n = new PPath(shape,null)
+		n.setGlobalTranslation(pos);
 	    n.setPaint(chart.colors.star);
 	    try{
 	    	n.setStroke( new BasicStroke(strokeWidth.toFloat));
@@ -107,47 +135,63 @@ class Stars(
 	    		//exception stack trace is not logged, as it makes hard to programm on linux	    	
 	    }
 	    n.setStrokePaint(chart.colors.bg);
-	    
-	    //if is variable star, add black circle decoration
-	    if(config.showVariable && star.minMag.isDefined &&
-	    		star.mag.mag +3< limitStarMag.mag){ //TODO hardcoded limit not to show variables by brightness
-
-	    	val minMag = star.minMag.get
-	    	val maxMag = star.maxMag.get
-	    	if(minMag!=null && maxMag!=null && abs(maxMag.mag - minMag.mag)>0.5){
-	    		//add dark circle to node
-	    		val c1Dia = diameter -  2.6
-	    		if(c1Dia>0){
-	    			val c1 = new Ellipse2D.Double(-c1Dia / 2 , -c1Dia/ 2 , c1Dia, c1Dia);
- 			   		val c2Dia = c1Dia  -  2.6
- 			   		//cut central area of circle
- 			   		val c2 = new Ellipse2D.Double(-c2Dia / 2 , -c2Dia/ 2 , c2Dia, c2Dia);
- 			   		val res = if(c2Dia> 4) new PPath(ChartUtils.shapeSubtract(c1,c2));
- 			   			else new PPath(c1)
- 			   		res.setPaint(chart.colors.bg)
- 			   		res.setStroke(null)
- 			   		res.setStrokePaint(null)
- 			   		n.addChild(res)
-	    		}
-	    	}
-	    }
+	    n
+	}
 
-	    if(addToLayer)
-	    	chart.addNode(Layer.star,n,star,star.mag.mag)
-	    	   
-	    Some(n)
+	/**
+	 * Paint all stars from batch into single StarBatchNode.
+	 * Plain stars are taken directly from primitive arrays and added to chart as StarRef.
+	 * LiteStar is created only for double and variable stars, which may need decoration.
+	 */
+	def paintBatch(chart:Chart, config:StarsConfig, batch:StarBatch){
+		val limitStarMag = calculateLimitStarMag(chart,config)
+		val node = new StarBatchNode(chart.colors, batch.size)
+		val xyz = new Array[Double](3)
+		var i = 0
+		while(i<batch.size){
+			checkInterrupted()
+			val mag = batch.mag(i)
+			val diameter = (limitStarMag.mag  - mag) * config.starDiscMultiply
+			xyz(0) = batch.x(i)
+			xyz(1) = batch.y(i)
+			xyz(2) = batch.z(i)
+			val pos = chart.wcs.project(xyz)
+			if(pos.isDefined && diameter>=1e-6){
+				val x = pos.get(0)
+				val y = pos.get(1)
+				//same test as Chart.isInsideCanvas, without creating node
+				val r = diameter/2
+				if(x+r>=0 && y+r>=0 && x-r<=chart.width && y-r<=chart.height){
+					if(batch.flags(i) != 0){
+						val star = batch.star(i)
+						val flags = decorations(chart,config,star,limitStarMag)
+						val posAngle = star.posAngle.map(_.toRadian).getOrElse(0D)
+						node.add(x, y, diameter, flags, posAngle, star, mag)
+					}else
+						node.add(x, y, diameter, 0, 0, batch.ref(i), mag)
+				}
+			}
+			i+=1
+		}
+		chart.addBatch(Layer.star,node)
 	}
 	
-	
 	def updateChart(chart: Chart, config:StarsConfig){
 		val limitStarMag = calculateLimitStarMag(chart,config)
-        var counter = 0
-		val stars = dao.starsByAreaMag(chart.area, limitStarMag).map{s=>counter+=1;s};
+		val batch = dao.starBatchByAreaMag(chart.area, limitStarMag)
 
-		paintAll(chart, config, stars)
-        Log.debug("Added "+counter+" stars with limit mag: "+limitStarMag)
+		paintBatch(chart, config, batch)
+        Log.debug("Added "+batch.size+" stars with limit mag: "+limitStarMag)
 	}
 	
+	/**
+	 * warm DAO cache for area, which is likely to be painted soon.
+	 * It does nothing if stars are read from memory mapped tile store or snapshot
+	 */
+	def prefetch(area:LongRangeSet, limitStarMag:Magnitude){
+		dao.prefetchByAreaMag(area, limitStarMag)
+	}
+
 	def clearChart(chart: Chart){
 		chart.getLayer(Layer.star).removeAllChildren()
 	}
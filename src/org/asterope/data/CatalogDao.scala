@@ -5,6 +5,7 @@ import jdbm._
 /**
  * Bean responsible for managing Data Access to catalog informations. 
  * Usual task is to check if given catalog was imported. 
+ * It also keeps version of format in which data are stored.
  * @author Jan Kotek
  *
  */
@@ -14,10 +15,46 @@ class CatalogDao (
 	
 	/** map of already imported catalog */
 	protected val importedCatalogs:PrimaryTreeMap[String,Boolean] = recman.treeMap("importedCatalogs");
+
+	/** database properties, such as schema version */
+	protected val dbInfo:PrimaryTreeMap[String,Integer] = recman.treeMap("dbInfo");
 	
 	/** check if catalog with given name was already imported */
 	def isCatalogImported(name:String) = importedCatalogs.containsKey(name) && importedCatalogs.get(name);
-	/** catalog with given name is set as imported */ 
-	def setCatalogImported(name:String) = importedCatalogs.put(name, true);
+	/** catalog with given name is set as imported, database is marked with current schema version */ 
+	def setCatalogImported(name:String) = {
+		dbInfo.put(CatalogDao.SCHEMA_VERSION_KEY, CatalogDao.SCHEMA_VERSION)
+		importedCatalogs.put(name, true);
+	}
+
+	/** version of format in which data were written, 0 if database was written before versions were stored */
+	def schemaVersion:Int = Option(dbInfo.get(CatalogDao.SCHEMA_VERSION_KEY)).map(_.intValue).getOrElse(0)
+
+	/** true if database is empty or was written with current schema version */
+	def isSchemaCurrent = importedCatalogs.isEmpty || schemaVersion == CatalogDao.SCHEMA_VERSION
+
+}
+
+object CatalogDao{
+
+	/**
+	 * Version of format in which data are stored. Must be increased with every incompatible change,
+	 * database with older version can not be read and must be rebuilt.
+	 * <p>
+	 * 0: initial format, version was not stored <br>
+	 * 2: nested Healpix ipix, stars indexed by StarCell <br>
+	 * 3: length-prefixed Nomenclature body
+	 */
+	val SCHEMA_VERSION = 3
+
+	val SCHEMA_VERSION_KEY = "schemaVersion"
+
+	/** delete all files of JDBM database at given path */
+	def deleteDb(path:String){
+		val file = new java.io.File(path)
+		val files = file.getParentFile.listFiles
+		if(files!=null)
+			files.filter(_.getName.startsWith(file.getName+".")).foreach(_.delete())
+	}
 
-}
\ No newline at end of file
+}
@@ -44,159 +44,178 @@ object CompileDb extends Beans with App{
 	
 	/** open InputStream from gziped file  */
 	def gzip(f:File) = new GZIPInputStream(new FileInputStream(f))
-	
 
-	
-	if(!catalogDao.isCatalogImported("sacDeepSky")){
-		println("Importing SAC Deep Sky catalog")
-    val sac = new SacDeepSkyCatalog()
-    sac.queryForAll.foreach{ds=>
-      deepSkyDao.addDeepSky(ds)
-    }
+	/** read lines from file, skip comments */
+	def lines(in: =>InputStream):Iterator[String] =
+		Source.fromInputStream(in).getLines.filter(!_.startsWith("#"))
+
+	/** catalogs are parsed in parallel and written by single thread */
+	val pipeline = new ImportPipeline()
 
-		catalogDao.setCatalogImported("sacDeepSky")
-		commit()
+	/** catalogs imported in this run, files derived from DB must be rewritten if not empty */
+	@volatile var importedCatalogs = Set[String]()
+
+	/** catalogs which change stars or star names, star tiles are derived from them */
+	val STAR_CATALOGS = Set("sky2000","hipCrossid","hipDoubleCrossid","tyc2Crossid","formerNamesCrossid")
+
+	/**
+	 * Add import step into pipeline, unless catalog was already imported.
+	 * Catalog is marked as imported and committed after write finishes.
+	 */
+	def importStep[E](catalog:String, lines: =>Iterator[String], parse:String=>Option[E])(write:Iterator[E]=>Unit){
+		if(!catalogDao.isCatalogImported(catalog))
+			pipeline.add(catalog, lines, parse){items=>
+				write(items)
+				catalogDao.setCatalogImported(catalog)
+				commit()
+				importedCatalogs += catalog
+			}
 	}
 
-	if(!catalogDao.isCatalogImported("sky2000")){
-		System.out.println("Importing Sky2000 catalog");
-		val cat = new Sky2000Catalog()
-    cat.queryForAll.foreach{s=>
-      liteStarDao.addStar(s)
-    }
 
-		catalogDao.setCatalogImported("sky2000")
-		commit()
+	val sac = new SacDeepSkyCatalog()
+	importStep("sacDeepSky", sac.readLines(),
+		(line:String) => sac.dataFormat.parseLine(line).flatMap(sac.translate(_))
+	){deepSkies=>
+		deepSkies.foreach(deepSkyDao.addDeepSky(_))
+	}
 
+	val sky2000 = new Sky2000Catalog()
+	importStep("sky2000", sky2000.readLines(), sky2000.translateLine(_)){stars=>
+		liteStarDao.addStars(stars)
 	}
 
-	if(!catalogDao.isCatalogImported("hipCrossid")){
-		println("Importing HIP names")
-    val hipFormatId = Nomenclature.formatIdByExact("HIP NNNNNN")
-		val hipSrc = Source.fromInputStream(gzip(SKY2000_HIP_FILE));		
-		val hipSrcCustom = Source.fromFile(SKY2000_HIP_CUSTOM_FILE);
-		(hipSrc.getLines ++ hipSrcCustom.getLines)
-			.filter(!_.startsWith("#"))
-			.foreach{ s=>
-				val ss = s.split(",");
-				val sky2000 = "SKY2000 "+ss(0).trim
-				val hip = Nomenclature.parseWithID("HIP "+ss(1).trim.toInt,hipFormatId);
-
-				liteStarDao.addName(sky2000,hip)
-			}
-		catalogDao.setCatalogImported("hipCrossid")
-		commit()
+	val hipFormatId = Nomenclature.formatIdByExact("HIP NNNNNN")
+	importStep("hipCrossid",
+		lines(gzip(SKY2000_HIP_FILE)) ++ lines(new FileInputStream(SKY2000_HIP_CUSTOM_FILE)),
+		{s:String=>
+			val ss = s.split(",");
+			val sky2000 = "SKY2000 "+ss(0).trim
+			val hip = Nomenclature.parseWithID("HIP "+ss(1).trim.toInt,hipFormatId);
+			Some((sky2000,hip))
+		}
+	){names=>
+		liteStarDao.addNames(names)
 	}
-	
-	if(!catalogDao.isCatalogImported("hipDoubleCrossid")){
-		println("Importing HIP-Double names")
-    val hipFormatId = Nomenclature.formatIdByExact("HIP NNNNNNA")
-		val hipSrc = Source.fromInputStream(gzip(SKY2000_HIPDOUBLE_FILE));		
-		hipSrc.getLines.filter(!_.startsWith("#")).foreach{ s=>
+
+	val hipDoubleFormatId = Nomenclature.formatIdByExact("HIP NNNNNNA")
+	importStep("hipDoubleCrossid", lines(gzip(SKY2000_HIPDOUBLE_FILE)),
+		{s:String=>
 			val ss = s.split(",");
 			val sky2000 = "SKY2000 "+ss(0)
 			assert(ss(2).size == 1,"too long component"+ss(2))
-			val comp:Char = ss(2)(0)					
-			val hip = Nomenclature.parseWithID("HIP "+ss(3).toInt+comp,hipFormatId);
-			liteStarDao.addName(sky2000,hip)
+			val comp:Char = ss(2)(0)
+			val hip = Nomenclature.parseWithID("HIP "+ss(3).toInt+comp,hipDoubleFormatId);
+			Some((sky2000,hip))
 		}
-		catalogDao.setCatalogImported("hipDoubleCrossid")
-		commit()
+	){names=>
+		liteStarDao.addNames(names)
 	}
-	
-	if(!catalogDao.isCatalogImported("tyc2Crossid")){
-		println("Importing TYC2 names")
-    val tycFormatId = Nomenclature.formatIdByPrefix("TYC")
-		val hipSrc = Source.fromInputStream(gzip(SKY2000_TYC2_FILE));
-		var counter = 0;
-		hipSrc.getLines.filter(!_.startsWith("#")).foreach{ s=>
+
+	val tycFormatId = Nomenclature.formatIdByPrefix("TYC")
+	importStep("tyc2Crossid", lines(gzip(SKY2000_TYC2_FILE)),
+		{s:String=>
 			val ss = s.split(",");
 			val sky2000 = "SKY2000 "+ss(4)
 			val tyc = Nomenclature.parseWithID("TYC "+ss(0).toInt+"-"+ss(1).toInt+"-"+ss(2).toInt,tycFormatId)
-			liteStarDao.addName(sky2000,tyc)
-			counter+=1
-			if(counter%50000==0){
-				commit()
-				println(" "+counter);
-			}
-			
+			Some((sky2000,tyc))
 		}
-		catalogDao.setCatalogImported("tyc2Crossid")
-		commit()
+	){names=>
+		liteStarDao.addNames(names)
 	}
 
-	if(!catalogDao.isCatalogImported("formerNamesCrossid")){
-		println("Importing former names")
-		val hipSrc = Source.fromFile(STAR_NAMES_FILE);		
-		hipSrc.getLines.filter(!_.startsWith("#")).foreach{ s=>			
+	importStep("formerNamesCrossid", lines(new FileInputStream(STAR_NAMES_FILE)),
+		{s:String=>
 			val ss:Array[String] = s.split("\\|");
 			val hip = "HIP "+ss(0).trim
-      //name does not have format, so use simple string to represent it 
-			val name = Nomenclature.justName(ss(1).trim); 
-			liteStarDao.addName(hip,name)
+			//name does not have format, so use simple string to represent it
+			val name = Nomenclature.justName(ss(1).trim);
+			Some((hip,name))
 		}
-		catalogDao.setCatalogImported("formerNamesCrossid")
-		commit()
+	){names=>
+		liteStarDao.addNames(names)
 	}
 
-	if(!catalogDao.isCatalogImported("milkyWayPixel")){
-		println("Importing MilkyWay pixels")
-		val src = Source.fromInputStream(gzip(MILKYWAY_FILE));
-		src.getLines.filter(!_.startsWith("#")).foreach{ s=>
+	importStep("milkyWayPixel", lines(gzip(MILKYWAY_FILE)),
+		{s:String=>
 			val ss = s.split(" ")
 			val pos = rade2Vector(
 					Angle.normalizeRa(ss(0).toDouble * Angle.H2R), Angle.D2R * ss(1).toDouble )
 			val gray = ss(2).toInt
 			if(gray>10)	 //if gray is too small, dont add
-				milkyWayDao.addMilkyWayPixel(new MilkyWayPixel(pos,gray))
+				Some(new MilkyWayPixel(pos,gray))
+			else
+				None
 		}
-		catalogDao.setCatalogImported("milkyWayPixel")
-		commit()
+	){pixels=>
+		pixels.foreach(milkyWayDao.addMilkyWayPixel(_))
 	}
-	
-	if(!catalogDao.isCatalogImported("constellationLine")){
-		println("Importing Constel Lines")
-		val src = Source.fromFile(CONSTELLATION_LINES_FILE);
-		for(
-				line <-src.getLines;
-				if(!line.startsWith("#") && line.trim!="");
-				split = line.replaceAll("[ ]+"," ").split(" ");
-				constellation = Constel.withName(split(0));
-				lineCount = split(1).toInt;
-				i <- 0 until lineCount;
-				hip1 = split(2+i*2).toInt;
-				hip2 = split(2+i*2+1).toInt
-		){		
-			def findHip(hip:String):Vector3D = {
-				List(hip,hip+"A",hip+"B").foreach{ h=>
-					val iter = liteStarDao.objectsByName(h)
-					if(iter.hasNext) 
-						return iter.next.vector
-				}
-				throw new Error("ID not found:"+hip)	
-			}			
 
+	importStep("constellationLine", lines(new FileInputStream(CONSTELLATION_LINES_FILE)),
+		{line:String=>
+			if(line.trim=="") None
+			else{
+				val split = line.replaceAll("[ ]+"," ").split(" ");
+				val constellation = Constel.withName(split(0));
+				val lineCount = split(1).toInt;
+				Some((0 until lineCount).map{i=>
+					(constellation, split(2+i*2).toInt, split(2+i*2+1).toInt)
+				})
+			}
+		}
+	){constelLines=>
+		def findHip(hip:String):Vector3D = {
+			List(hip,hip+"A",hip+"B").foreach{ h=>
+				val iter = liteStarDao.objectsByName(h)
+				if(iter.hasNext)
+					return iter.next.vector
+			}
+			throw new Error("ID not found:"+hip)
+		}
+
+		for((constellation,hip1,hip2) <- constelLines.flatMap(_.iterator)){
 			val v1 = findHip("HIP "+hip1)
 			val v2 = findHip("HIP "+hip2)
 			val line = new ConstelLine(v1,v2,
-					hip1.toInt, hip2, constellation.toString, 1)
+					hip1, hip2, constellation.toString, 1)
 			constelLineDao.add(line)
-
 		}
-		catalogDao.setCatalogImported("constellationLine")
-		commit()
 	}
 
+	pipeline.run()
+
   if(!catalogDao.isCatalogImported("constellationBoundary")){
     println("Importing Constel Boundary Lines")
     CompileDbUtils.readConstelBounds.foreach{
       constelBoundaryDao.add(_)
     }
     catalogDao.setCatalogImported("constellationBoundary")
-    commit()    
+    commit()
+    importedCatalogs += "constellationBoundary"    
+  }
+
+
+  if(!catalogDao.isCatalogImported("milkyWayRaster")){
+    println("Rendering Milky Way raster")
+    milkyWayDao.saveRaster()
+    catalogDao.setCatalogImported("milkyWayRaster")
+    commit()
+    importedCatalogs += "milkyWayRaster"
   }
 
+  //tiles are rewritten if stars changed or file was written by other version
+  val starTilesFile = new File(STAR_TILES_PATH)
+  if(!StarTileStore.isCurrent(starTilesFile) || !(importedCatalogs & STAR_CATALOGS).isEmpty){
+    println("Writing star tiles")
+    liteStarDao.writeTileStore(starTilesFile)
+  }
 
+  //snapshot contains all catalogs, so any import makes it stale
+  val snapshotFile = new File(SNAPSHOT_PATH)
+  if(!DistributionSnapshot.isCurrent(snapshotFile) || !importedCatalogs.isEmpty){
+    println("Writing distribution snapshot")
+    DistributionSnapshot.write(snapshotFile, liteStarDao, deepSkyDao, milkyWayDao, constelLineDao, constelBoundaryDao)
+  }
 
 	println("Defrag")
 	recman.defrag()
@@ -23,84 +23,80 @@ case class ConstelLine(
 
 }
 
+/** Read-only constellation lines, implemented by ConstelLineDao and DistributionSnapshot */
+trait ConstelLineSource{
+	/** query constellation lines by area */
+	def constellationLineByArea(area:LongRangeSet):Iterator[ConstelLine]
+}
+
+/** Read-only constellation boundaries, implemented by ConstelBoundaryDao and DistributionSnapshot */
+trait ConstelBoundarySource{
+	/**
+	 * query constellation lines by area
+	 * @return parts of boundary lines in area
+	 */
+	def constelBoundsByArea(area:LongRangeSet):Iterator[SkyLine]
+}
+
 import jdbm._
 
 /** an DAO for ConstelLine*/
-class ConstelLineDao(recman: RecordManager){
+class ConstelLineDao(recman: RecordManager) extends ConstelLineSource{
 	
 	protected val constellationLines:PrimaryStoreMap[JLong,ConstelLine] =
 		recman.storeMap("constelationLines")
 
-	
-	/** index to query lines by area */	
-	protected val constellationLinesAreaIndex: PrimaryTreeMap[JLong, LongRangeSet] = 
-		recman.treeMap("constelationLinesAreaIndex")
-		
-	/** bind two map together, so index is automaticaly updated */	
-	constellationLines.addRecordListener(new RecordListener[JLong,ConstelLine]{
-		override def recordInserted(key:JLong, value:ConstelLine) =
-			constellationLinesAreaIndex.put(key, value.line.calculateArea)
-		
-		override def recordUpdated(key:JLong, oldValue:ConstelLine, newValue:ConstelLine) = {
-				constellationLinesAreaIndex.remove(key)
-				constellationLinesAreaIndex.put(key, newValue.line.calculateArea)
-		}
-		
-		override def recordRemoved(key:JLong, value:ConstelLine) =
-				constellationLinesAreaIndex.remove(key)
-	})
+	@volatile private var _index:SegmentIndex[ConstelLine] = null
+
+	/** spatial index to query lines by area, it is built once from all lines */
+	def index:SegmentIndex[ConstelLine] = {
+		if(_index == null)
+			_index = SegmentIndex.build(all.toIndexedSeq)(_.line)
+		_index
+	}
 	
 	/** add constellation line to dao*/
-	def add(line:ConstelLine) = constellationLines.putValue(line)
+	def add(line:ConstelLine) = {
+		_index = null
+		constellationLines.putValue(line)
+	}
 	
 	/** @return all constellation lines */
 	def all = constellationLines.valuesIterator
 	
 	/** query constellation lines by area */
-	def constellationLineByArea(area:LongRangeSet):Iterator[ConstelLine] = {
-			//iterate over all areas and find out if they overlap with area
-			constellationLinesAreaIndex.filter{case(k,v)=>
-				v.containsAny(area.rangeIterator)
-			}.map(v=>constellationLines.get(v._1)).iterator
-	}
+	def constellationLineByArea(area:LongRangeSet):Iterator[ConstelLine] =
+		index.itemsByArea(area)
 }
 
 
 /** an DAO for constelation bondary lines*/
-class ConstelBoundaryDao(recman: RecordManager){
+class ConstelBoundaryDao(recman: RecordManager) extends ConstelBoundarySource{
 	protected val constelBounds:PrimaryStoreMap[JLong,SkyLine] =
 		recman.storeMap("constelationBoundary")
 
+	@volatile private var _index:SegmentIndex[SkyLine] = null
 
-	/** index to query lines by area */
-	protected val constellationBoundaryAreaIndex: PrimaryTreeMap[JLong, LongRangeSet] =
-		recman.treeMap("constellationBoundaryAreaIndex")
-
-	/** bind two map together, so index is automaticaly updated */
-	constelBounds.addRecordListener(new RecordListener[JLong,SkyLine]{
-		override def recordInserted(key:JLong, value:SkyLine) =
-			constellationBoundaryAreaIndex.put(key, value.calculateArea)
-
-		override def recordUpdated(key:JLong, oldValue:SkyLine, newValue:SkyLine) = {
-				constellationBoundaryAreaIndex.remove(key)
-				constellationBoundaryAreaIndex.put(key, newValue.calculateArea)
-		}
-
-		override def recordRemoved(key:JLong, value:SkyLine) =
-				constellationBoundaryAreaIndex.remove(key)
-	})
+	/** spatial index to query lines by area, it is built once from all lines */
+	def index:SegmentIndex[SkyLine] = {
+		if(_index == null)
+			_index = SegmentIndex.build(all.toIndexedSeq)(l=>l)
+		_index
+	}
 
 	/** add constellation line to dao*/
-	def add(line:SkyLine) = constelBounds.putValue(line)
+	def add(line:SkyLine) = {
+		_index = null
+		constelBounds.putValue(line)
+	}
 
 	/** @return all constellation lines */
 	def all = constelBounds.valuesIterator
 
-	/** query constellation lines by area */
-	def constelBoundsByArea(area:LongRangeSet):Iterator[SkyLine] = {
-		//iterate over all areas and find out if they overlap with area
-		constellationBoundaryAreaIndex.filter{case(k,v)=>
-				v.containsAny(area.rangeIterator)
-    }.map(v=>constelBounds.get(v._1)).iterator
-	}
+	/**
+	 * query constellation lines by area
+	 * @return parts of boundary lines in area
+	 */
+	def constelBoundsByArea(area:LongRangeSet):Iterator[SkyLine] =
+		index.polylinesByArea(area).map(_._2)
 }
\ No newline at end of file
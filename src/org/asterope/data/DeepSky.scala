@@ -13,6 +13,8 @@ import org.apache.commons.math.geometry.Vector3D
  * An object which stores minimal information about deep sky object.
  * It is used to draw deep sky object on map without loading full StarlinkObject
  * which is slower to fetch.
+ * <p>
+ * Names are decoded lazily on first access, same way as in LiteStar.
  *  
  */
 case class DeepSky(
@@ -22,14 +24,15 @@ case class DeepSky(
 	sizeMax:Option[Angle],
 	sizeMin:Option[Angle],
 	posAngle:Option[Angle],
-	deepSkyType:DeepSkyType.Value,
- 	names:List[Nomenclature] = Nil
-	) extends HasNomenclature {
+	deepSkyType:DeepSkyType.Value
+	)(nameLoader: ()=>List[Nomenclature]) extends HasNomenclature {
+
+	lazy val names:List[Nomenclature] = nameLoader()
 	
 	/** normalized vector with position calculated from Ra De */
-	val vector = rade2Vector(ra,de)
+	lazy val vector = rade2Vector(ra,de)
 	/** healpix ipix */
-	val ipix = Pixelization.vector2Ipix(vector);
+	lazy val ipix = Pixelization.vector2Ipix(vector);
 }
 
 
@@ -112,6 +115,17 @@ case class DeepSkyOutline(id:String,  author:String, points:Vector[Vector3D]){
 
 object DeepSky{
 
+	def apply(
+		ra: Angle,
+		de: Angle,
+		mag: Option[Magnitude],
+		sizeMax:Option[Angle],
+		sizeMin:Option[Angle],
+		posAngle:Option[Angle],
+		deepSkyType:DeepSkyType.Value,
+		names:List[Nomenclature] = Nil
+		):DeepSky = new DeepSky(ra,de,mag,sizeMax,sizeMin,posAngle,deepSkyType)(()=>names)
+
   lazy val resourceMap = new ResourceMap(classOf[DeepSky])
 
   /** create Outline from XML */
@@ -134,57 +148,44 @@ object DeepSky{
 
 import jdbm._
 
+/**
+ * Read-only deep sky queries used by chart and name resolver.
+ * It is implemented by JDBM based DeepSkyDao and by read-only DistributionSnapshot.
+ */
+trait DeepSkySource{
+
+	def deepSkyByArea(area:LongRangeSet):Iterator[DeepSky]
+
+	def prefetchByArea(area:LongRangeSet)
+
+	def objectsByName(name:String):Iterator[DeepSky]
+
+	def objectsByNameFuzzy(name:String, maxDistance:Int):List[(String,DeepSky,Int)]
+
+	/** outlines by id, id is object name */
+	def outlines:Map[String,DeepSkyOutline]
+
+	/**
+	 *  Find contour for given deep sky object
+	 */
+	def findOutline(id:String):Option[DeepSkyOutline] = outlines.get(id)
+
+	def findOutline(ds:DeepSky):Option[DeepSkyOutline] = ds.names
+		.map(_.toString)
+		.flatMap(findOutline(_))
+		.headOption
+}
+
 /**
  * Data Acces Object bean which handless DeepSky. 
  * Most complicated task is fetching by area (healpix). 
  * 
  *
  */
-class DeepSkyDao(val recman:RecordManager)  {
+class DeepSkyDao(val recman:RecordManager, tileCacheSize:Long = 4*1024*1024) extends DeepSkySource {
+
+	import DeepSkyDao.serializer
 
-	/** serializer used for more efficient space usage */ 
-	protected object serializer extends Serializer[DeepSky] {
-	
-		override def serialize(out:SerializerOutput, obj: DeepSky){
-			//save as much space as possible, so angles are writen in MAS as Integers
-			def writeOptAngle(a:Option[Angle]) = {
-				val i = if(a.isEmpty) Integer.MIN_VALUE 
-					else a.get.toMas.asInstanceOf[Int]
-			    out.writeInt(i)
-			}
-			out.writeInt(obj.ra.toMas.asInstanceOf[Int])
-			out.writeInt(obj.de.toMas.asInstanceOf[Int])
-			//and magnitude is written in Short.
-      if(obj.mag.isDefined) out.writeShort(obj.mag.get.toMilimag.toShort)
-			else out.writeShort(Short.MaxValue);
-			writeOptAngle(obj.sizeMax)
-			writeOptAngle(obj.sizeMin)
-			writeOptAngle(obj.posAngle)
-			out.write(obj.deepSkyType.id)
-      Nomenclature.listSerializer.serialize(out,obj.names)
-		}
-	
-		override def deserialize(in:SerializerInput):DeepSky = {
-				val ra = in.readInt.mas
-				val de = in.readInt.mas
-				val mag = in.readShort()
-        val mag2 = if(mag==Short.MaxValue) None
-                  else Some(Magnitude(mag/1000))
-				def readOptAngle:Option[Angle] = {
-					var i = in.readInt
-					if(i == Integer.MIN_VALUE) None
-					else Some(i.mas)
-				}
-				val maxAngle = readOptAngle
-				val minAngle = readOptAngle
-				val posAngle = readOptAngle
-				val deepSkyType = DeepSkyType(in.read)
-        val names = Nomenclature.listSerializer.deserialize(in)
-				return new DeepSky(ra,de,mag2, maxAngle,minAngle,posAngle,deepSkyType,names);
-		}
-	}
-	
-	
 	/**
 	 * Main map where deep sky objects are stored
 	 */
@@ -211,18 +212,30 @@ class DeepSkyDao(val recman:RecordManager)  {
 		
 	
 	
-	def deepSkyByArea(area:LongRangeSet):Iterator[DeepSky] = {
-     Pixelization.rangeSetToSeq(area)
-       .map(f=>deepSkyByArea.subMap(f._1, f._2+1))
-       .flatMap(_.values())
-       .flatMap(_.iterator)
-       .map(deepSkyByArea.getPrimaryValue(_))
-       .iterator
-	}
+	/** cache of decoded objects, tiles are Healpix cells at order 5 */
+	val tileCache = new AreaTileCache[DeepSky](math.min(5,Pixelization.NORDER), tileCacheSize, 200)
+
+	def deepSkyByArea(area:LongRangeSet):Iterator[DeepSky] =
+    tileCache.byArea(area)(loadTile)
+
+  /** load tiles for area into cache, is used to prefetch area which is likely to be queried soon */
+  def prefetchByArea(area:LongRangeSet){
+    tileCache.prefetch(area)(loadTile)
+  }
+
+  private def loadTile(lo:Long, hi:Long):Iterator[(Long,DeepSky)] =
+    deepSkyByArea.subMap(lo, hi+1).entrySet.iterator
+      .flatMap(e=>e.getValue.iterator.map(recid=>(e.getKey.longValue, deepSkyByArea.getPrimaryValue(recid))))
 	
 	def addDeepSky(deepSky:DeepSky){
+		_nameIndex = null
+		tileCache.clear()
 		val deepSkyRecid = deepSkyMap.putValue(deepSky);
+		onNamesModified.firePublish(Unit)
 	}
+
+	/** is fired after object was added, caches of name lookups should be cleared */
+	val onNamesModified = new Publisher[Unit]()
 	
 	def all:Iterator[DeepSky] = deepSkyMap.valuesIterator
 
@@ -231,31 +244,80 @@ class DeepSkyDao(val recman:RecordManager)  {
 		recidsByName(name).map{deepSkyByName.getPrimaryValue(_)}
 	}
 
-  def recidsByName(name2:String):Iterator[JLong] = {
-    Nomenclature.recidsByMame(name2,deepSkyByName)
-	}
+  def recidsByName(name2:String):Iterator[JLong] =
+    nameIndex.recidsByName(name2).map(new JLong(_))
+
+  /** @return objects with name within given edit distance, as (normalized name, object, distance) sorted by distance */
+  def objectsByNameFuzzy(name:String, maxDistance:Int):List[(String,DeepSky,Int)] =
+    nameIndex.fuzzy(name,maxDistance).map(f=>(f._1, deepSkyMap.get(new JLong(f._2)), f._3))
+
+  @volatile private var _nameIndex:NameIndex = null
 
-  var outlines: Map[String, DeepSkyOutline] =  loadOutlines();
+  /** in-memory name index, is built on first use and dropped when objects are added */
+  def nameIndex:NameIndex = {
+    var idx = _nameIndex
+    if(idx == null){
+      idx = NameIndex.build(deepSkyByName)
+      _nameIndex = idx
+    }
+    idx
+  }
 
-  private def loadOutlines():Map[String,DeepSkyOutline] = {
+  /** outlines are parsed from XML on first use */
+  lazy val outlines: Map[String, DeepSkyOutline] = {
     val xml = XML.loadFile(outlineFile)
     (xml\"outline")
       .map(DeepSky.outlineFromXml(_))
       .map(c=>(c.id,c))
     }.toMap
 
+  private lazy val outlineFile = new File("data/nebula_outlines")
 
-  /**
-   *  Find contour for given deep sky object
-   */
-  def findOutline(id:String):Option[DeepSkyOutline] = outlines.get(id)
-
-  def findOutline(ds:DeepSky):Option[DeepSkyOutline] = ds.names
-      .map(_.toString)
-      .flatMap(findOutline(_))
-      .headOption
+	
+}
 
-  private lazy val outlineFile = new File("data/nebula_outlines")
+object DeepSkyDao{
 
+	/** serializer used for more efficient space usage */ 
+	protected[data] object serializer extends Serializer[DeepSky] {
+	
+		override def serialize(out:SerializerOutput, obj: DeepSky){
+			//save as much space as possible, so angles are writen in MAS as Integers
+			def writeOptAngle(a:Option[Angle]) = {
+				val i = if(a.isEmpty) Integer.MIN_VALUE 
+					else a.get.toMas.asInstanceOf[Int]
+			    out.writeInt(i)
+			}
+			out.writeInt(obj.ra.toMas.asInstanceOf[Int])
+			out.writeInt(obj.de.toMas.asInstanceOf[Int])
+			//and magnitude is written in Short.
+      if(obj.mag.isDefined) out.writeShort(obj.mag.get.toMilimag.toShort)
+			else out.writeShort(Short.MaxValue);
+			writeOptAngle(obj.sizeMax)
+			writeOptAngle(obj.sizeMin)
+			writeOptAngle(obj.posAngle)
+			out.write(obj.deepSkyType.id)
+      //names are written with length prefix, so they can be decoded lazily
+      Nomenclature.writeLazyList(out,obj.names)
+		}
 	
+		override def deserialize(in:SerializerInput):DeepSky = {
+				val ra = in.readInt.mas
+				val de = in.readInt.mas
+				val mag = in.readShort()
+        val mag2 = if(mag==Short.MaxValue) None
+                  else Some(Magnitude(mag/1000D))
+				def readOptAngle:Option[Angle] = {
+					var i = in.readInt
+					if(i == Integer.MIN_VALUE) None
+					else Some(i.mas)
+				}
+				val maxAngle = readOptAngle
+				val minAngle = readOptAngle
+				val posAngle = readOptAngle
+				val deepSkyType = DeepSkyType(in.read)
+        val names = Nomenclature.readLazyList(in)
+				return new DeepSky(ra,de,mag2, maxAngle,minAngle,posAngle,deepSkyType)(names);
+		}
+	}
 }
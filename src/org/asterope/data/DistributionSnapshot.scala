@@ -0,0 +1,398 @@
+package org.asterope.data
+
+import java.io._
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import org.asterope.util._
+import collection.mutable.ArrayBuffer
+import jdbm.{SerializerInput, SerializerOutput}
+import org.apache.commons.math.geometry.Vector3D
+
+/**
+ * Immutable snapshot of compiled catalogs distributed with Asterope.
+ * It is written by CompileDb into single file and memory-mapped read-only at startup,
+ * so chart does not open JDBM, build tree maps or parse XML files.
+ * Mapped pages are shared by all processes which open same file.
+ * <p>
+ * File starts with directory of sections (name, offset, length), it fits into first page.
+ * Each section starts at page boundary. Stars, deep sky objects and constellation
+ * segment indexes are read straight from mapped buffer, small sections are decoded on first use.
+ * <p>
+ * File is mapped with single MappedByteBuffer, so its size is limited to 2GB.
+ *
+ * @param tileCacheSize memory budget for decoded deep sky tiles
+ * @author Jan Kotek
+ */
+class DistributionSnapshot(val file:File, tileCacheSize:Long = 4*1024*1024){
+  import DistributionSnapshot._
+
+  private val buf = StarTileStore.map(file)
+
+  if(buf.getInt(0) != MAGIC) throw new IOException("Not an distribution snapshot: "+file)
+  if(buf.getInt(4) != VERSION) throw new IOException("Unsupported distribution snapshot version: "+buf.getInt(4))
+
+  /** section name -> (offset, length) */
+  private val sections:Map[String,(Int,Int)] = {
+    val in = new DataInputStream(new ByteBufferInputStream(buf.duplicate()))
+    in.skipBytes(8)
+    val count = in.readInt
+    (0 until count).map{i=>
+      val name = in.readUTF
+      val offset = in.readLong.toInt
+      val length = in.readLong.toInt
+      (name,(offset,length))
+    }.toMap
+  }
+
+  def sectionNames = sections.keySet
+
+  /** @return read-only view of section content, position zero is section start */
+  def section(name:String):ByteBuffer = {
+    val (offset,length) = sections.getOrElse(name,
+      throw new IOException("Section '"+name+"' not found in "+file))
+    val b = buf.duplicate()
+    b.position(offset)
+    b.limit(offset+length)
+    b.slice()
+  }
+
+  lazy val liteStarDao:LiteStarSource = new ReadOnlyLiteStarDao(
+    new StarTileStore(section(STARS), file.getPath+"#"+STARS),
+    NameIndex.read(section(STAR_NAMES)))
+
+  lazy val deepSkyDao:DeepSkySource = new ReadOnlyDeepSkyDao(
+    section(DEEP_SKY),
+    NameIndex.read(section(DEEP_SKY_NAMES)),
+    readOutlines(section(DEEP_SKY_OUTLINES)),
+    tileCacheSize)
+
+  lazy val milkyWayDao:MilkyWaySource = new MilkyWaySource{
+    lazy val raster = {
+      val b = section(MILKY_WAY)
+      val levels = Array.fill(b.getInt){
+        val level = new Array[Byte](b.getInt)
+        b.get(level)
+        level
+      }
+      new MilkyWayRaster(levels)
+    }
+  }
+
+  lazy val constelLineDao:ConstelLineSource = new ConstelLineSource{
+    val index = SegmentIndex.read(section(CONSTEL_LINES_INDEX))(_=>readConstelLines(section(CONSTEL_LINES)))
+    def constellationLineByArea(area:LongRangeSet) = index.itemsByArea(area)
+  }
+
+  lazy val constelBoundaryDao:ConstelBoundarySource = new ConstelBoundarySource{
+    //boundaries are only queried as polylines, so owner of line is just its number
+    val index = SegmentIndex.read(section(CONSTEL_BOUNDARIES))(count=>0 until count)
+    def constelBoundsByArea(area:LongRangeSet) = index.polylinesByArea(area).map(_._2)
+  }
+
+}
+
+object DistributionSnapshot{
+
+  val MAGIC = 0x41534e31 //'ASN1'
+  val VERSION = 2
+
+  /** sections are aligned to page, so each section is mapped and paged independently */
+  val PAGE_SIZE = 4096
+
+  val STARS = "stars"
+  val STAR_NAMES = "starNames"
+  val DEEP_SKY = "deepSky"
+  val DEEP_SKY_NAMES = "deepSkyNames"
+  val DEEP_SKY_OUTLINES = "deepSkyOutlines"
+  val MILKY_WAY = "milkyWay"
+  val CONSTEL_LINES = "constelLines"
+  val CONSTEL_LINES_INDEX = "constelLinesIndex"
+  val CONSTEL_BOUNDARIES = "constelBoundaries"
+
+  /** @return true if file exists and was written by current version */
+  def isCurrent(file:File) = StarTileStore.hasHeader(file, MAGIC, VERSION)
+
+  /**
+   * @return snapshot for given file, or None if file does not exist or was written by other version.
+   * In that case Beans fall back to JDBM.
+   */
+  def open(file:File, tileCacheSize:Long = 4*1024*1024):Option[DistributionSnapshot] = {
+    if(!file.exists) return None
+    if(!isCurrent(file)){
+      Log.warning("Distribution snapshot "+file+" is not current version and is ignored, run CompileDb to rebuild it")
+      return None
+    }
+    try{
+      val ret = new DistributionSnapshot(file, tileCacheSize)
+      //stars section has its own header, it may be older than snapshot format
+      val stars = ret.section(STARS)
+      if(stars.getInt(0) != StarTileStore.MAGIC || stars.getInt(4) != StarTileStore.VERSION){
+        Log.warning("Distribution snapshot "+file+" has old star tiles and is ignored, run CompileDb to rebuild it")
+        None
+      }else
+        Some(ret)
+    }catch{
+      case e:IOException =>
+        Log.warning("Could not open distribution snapshot "+file, e)
+        None
+    }
+  }
+
+  /**
+   * Write compiled catalogs into new snapshot.
+   * Snapshot is written into temporary file which is renamed at end,
+   * so interrupted build does not leave broken file behind.
+   *
+   * @param file to write into, is replaced if exists
+   */
+  def write(file:File, stars:LiteStarDao, deepSky:DeepSkyDao, milkyWay:MilkyWayDao,
+            constelLines:ConstelLineDao, constelBoundaries:ConstelBoundaryDao){
+    file.getParentFile.mkdirs()
+    val tmp = new File(file.getPath+".tmp")
+    tmp.delete()
+    val raf = new RandomAccessFile(tmp,"rw")
+    val dir = new ArrayBuffer[(String,Long,Long)]
+    var done = false
+    try{
+      //first page is reserved for directory
+      raf.setLength(PAGE_SIZE)
+
+      def section(name:String)(body:DataOutputStream=>Unit){
+        val offset = (raf.length + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE
+        raf.seek(offset)
+        //stream writes at channel position, which is shared with file pointer; it is not closed
+        val out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(raf.getChannel), 65536))
+        body(out)
+        out.flush()
+        dir += ((name, offset, raf.getFilePointer - offset))
+      }
+
+      //stars, names are indexed by position in tile store
+      val starNames = new ArrayBuffer[(String,Long)]
+      val tilesFile = new File(file.getPath+"."+STARS+".tmp")
+      try{
+        StarTileStore.write(tilesFile, stars.starsInTileOrder.zipWithIndex.map{case ((bucket,s),i) =>
+          s.names.foreach(n=> starNames += ((n.toString, i.toLong)))
+          (bucket,s)
+        })
+        section(STARS){out=>
+          val in = new FileInputStream(tilesFile)
+          try{
+            IOUtil.copy(in,out,65536)
+          }finally{
+            in.close()
+          }
+        }
+      }finally{
+        tilesFile.delete()
+      }
+      section(STAR_NAMES){out=>
+        NameIndex.build(starNames.iterator.map(n=>(n._1,List(n._2)))).write(out)
+      }
+
+      //deep sky, names are indexed by position in section
+      val deepSkies = deepSky.all.toArray.sortBy(_.ipix)
+      section(DEEP_SKY)(ReadOnlyDeepSkyDao.write(_,deepSkies))
+      section(DEEP_SKY_NAMES){out=>
+        val names = for((ds,i) <- deepSkies.iterator.zipWithIndex; n <- ds.names.iterator)
+          yield (n.toString, List(i.toLong))
+        NameIndex.build(names).write(out)
+      }
+      section(DEEP_SKY_OUTLINES)(writeOutlines(_, deepSky.outlines.values))
+
+      section(MILKY_WAY){out=>
+        val levels = milkyWay.raster.levels
+        out.writeInt(levels.length)
+        levels.foreach{level=>
+          out.writeInt(level.length)
+          out.write(level)
+        }
+      }
+
+      //segment indexes are written as flat arrays and mapped directly
+      section(CONSTEL_LINES)(writeConstelLines(_, constelLines.index.items))
+      section(CONSTEL_LINES_INDEX)(constelLines.index.write(_))
+      section(CONSTEL_BOUNDARIES)(constelBoundaries.index.write(_))
+
+      raf.seek(0)
+      raf.writeInt(MAGIC)
+      raf.writeInt(VERSION)
+      raf.writeInt(dir.size)
+      dir.foreach{case (name,offset,length) =>
+        raf.writeUTF(name)
+        raf.writeLong(offset)
+        raf.writeLong(length)
+      }
+      if(raf.getFilePointer > PAGE_SIZE)
+        throw new IOException("Section directory does not fit into first page")
+      assert(raf.length < Int.MaxValue, "Snapshot is too big: "+raf.length)
+      done = true
+    }finally{
+      raf.close()
+      if(!done) tmp.delete()
+    }
+    file.delete()
+    if(!tmp.renameTo(file))
+      throw new IOException("Could not rename "+tmp+" to "+file)
+    Log.info("Distribution snapshot written, "+dir.size+" sections, "+file.length+" bytes")
+  }
+
+  private def writeOutlines(out:DataOutputStream, outlines:Iterable[DeepSkyOutline]){
+    out.writeInt(outlines.size)
+    outlines.foreach{o=>
+      out.writeUTF(o.id)
+      out.writeUTF(o.author)
+      out.writeInt(o.points.size)
+      o.points.foreach{v=>
+        out.writeDouble(v.getX)
+        out.writeDouble(v.getY)
+        out.writeDouble(v.getZ)
+      }
+    }
+  }
+
+  private def readOutlines(b:ByteBuffer):Map[String,DeepSkyOutline] = {
+    val in = new DataInputStream(new ByteBufferInputStream(b))
+    (0 until in.readInt).map{i=>
+      val id = in.readUTF
+      val author = in.readUTF
+      val points = Vector.fill(in.readInt)(new Vector3D(in.readDouble, in.readDouble, in.readDouble))
+      (id, new DeepSkyOutline(id, author, points))
+    }.toMap
+  }
+
+  private def writeConstelLines(out:DataOutputStream, lines:Seq[ConstelLine]){
+    out.writeInt(lines.size)
+    lines.foreach{l=>
+      List(l.v1,l.v2).foreach{v=>
+        out.writeDouble(v.getX)
+        out.writeDouble(v.getY)
+        out.writeDouble(v.getZ)
+      }
+      out.writeInt(l.hipparcos1)
+      out.writeInt(l.hipparcos2)
+      out.writeUTF(l.constellation)
+      out.writeInt(l.lineWidth)
+    }
+  }
+
+  private def readConstelLines(b:ByteBuffer):IndexedSeq[ConstelLine] = {
+    val in = new DataInputStream(new ByteBufferInputStream(b))
+    Vector.fill(in.readInt){
+      val v1 = new Vector3D(in.readDouble, in.readDouble, in.readDouble)
+      val v2 = new Vector3D(in.readDouble, in.readDouble, in.readDouble)
+      ConstelLine(v1, v2, in.readInt, in.readInt, in.readUTF, in.readInt)
+    }
+  }
+
+}
+
+
+/**
+ * Read-only LiteStar DAO backed by StarTileStore section of DistributionSnapshot.
+ * Name index points to position of star in tile store.
+ */
+class ReadOnlyLiteStarDao(tiles:StarTileStore, names: =>NameIndex) extends LiteStarSource{
+
+  /** name index is copied on heap on first name query */
+  lazy val nameIndex = names
+
+  def starsByAreaMag(area: LongRangeSet, limitMag:Magnitude):Iterator[LiteStar] =
+    tiles.starsByAreaMag(area, LiteStarDao.MINMAG to LiteStarDao.magBucket(limitMag), limitMag)
+
+  def starBatchByAreaMag(area: LongRangeSet, limitMag:Magnitude):StarBatch =
+    tiles.starBatchByAreaMag(area, LiteStarDao.MINMAG to LiteStarDao.magBucket(limitMag), limitMag)
+
+  /** tile store is memory mapped, there is nothing to prefetch */
+  def prefetchByAreaMag(area: LongRangeSet, limitMag:Magnitude){}
+
+  def objectsByName(name:String):Iterator[LiteStar] =
+    nameIndex.recidsByName(name).map(i=>tiles.star(i.toInt))
+
+  def objectsByNameFuzzy(name:String, maxDistance:Int):List[(String,LiteStar,Int)] =
+    nameIndex.fuzzy(name,maxDistance).map(f=>(f._1, tiles.star(f._2.toInt), f._3))
+}
+
+
+/**
+ * Read-only DeepSky DAO backed by section of DistributionSnapshot.
+ * Objects are sorted by ipix, section contains object count, ipix column,
+ * record offsets and records written by DeepSkyDao serializer.
+ * Name index points to position of object in section.
+ */
+class ReadOnlyDeepSkyDao(buf:ByteBuffer, names: =>NameIndex, outlines0: =>Map[String,DeepSkyOutline],
+                         tileCacheSize:Long = 4*1024*1024) extends DeepSkySource{
+
+  val count = buf.getInt(0)
+  private val ipixOff = 4
+  private val offsetsOff = ipixOff + count*8
+  private val recordsOff = offsetsOff + (count+1)*4
+
+  /** name index is copied on heap on first name query */
+  lazy val nameIndex = names
+
+  /** outlines are decoded on first use */
+  lazy val outlines = outlines0
+
+  /** cache of decoded objects, tiles are Healpix cells at order 5 */
+  val tileCache = new AreaTileCache[DeepSky](math.min(5,Pixelization.NORDER), tileCacheSize, 200)
+
+  private def ipix(i:Int) = buf.getLong(ipixOff + i*8)
+
+  /** decode object at given position */
+  def deepSky(i:Int):DeepSky = {
+    val b = buf.duplicate()
+    b.position(recordsOff + buf.getInt(offsetsOff + i*4))
+    b.limit(recordsOff + buf.getInt(offsetsOff + (i+1)*4))
+    DeepSkyDao.serializer.deserialize(new SerializerInput(new ByteBufferInputStream(b)))
+  }
+
+  /** @return position of first object with ipix equal or greater */
+  private def lowerBound(key:Long):Int = {
+    var lo = 0
+    var hi = count
+    while(lo<hi){
+      val mid = (lo+hi)>>>1
+      if(ipix(mid)<key) lo = mid+1
+      else hi = mid
+    }
+    lo
+  }
+
+  private def loadTile(lo:Long, hi:Long):Iterator[(Long,DeepSky)] =
+    Iterator.range(lowerBound(lo), lowerBound(hi+1)).map(i=>(ipix(i),deepSky(i)))
+
+  def deepSkyByArea(area:LongRangeSet):Iterator[DeepSky] =
+    tileCache.byArea(area)(loadTile)
+
+  def prefetchByArea(area:LongRangeSet){
+    tileCache.prefetch(area)(loadTile)
+  }
+
+  def objectsByName(name:String):Iterator[DeepSky] =
+    nameIndex.recidsByName(name).map(i=>deepSky(i.toInt))
+
+  def objectsByNameFuzzy(name:String, maxDistance:Int):List[(String,DeepSky,Int)] =
+    nameIndex.fuzzy(name,maxDistance).map(f=>(f._1, deepSky(f._2.toInt), f._3))
+}
+
+object ReadOnlyDeepSkyDao{
+
+  /** write objects in format read by ReadOnlyDeepSkyDao, objects must be sorted by ipix */
+  def write(out:DataOutputStream, deepSkies:Seq[DeepSky]){
+    val bytes = new ByteArrayOutputStream
+    val records = new SerializerOutput(bytes)
+    val offsets = new ArrayBuffer[Int]
+    deepSkies.foreach{ds=>
+      offsets += records.size
+      DeepSkyDao.serializer.serialize(records,ds)
+    }
+    offsets += records.size
+    records.flush()
+
+    out.writeInt(deepSkies.size)
+    deepSkies.foreach(ds=>out.writeLong(ds.ipix))
+    offsets.foreach(out.writeInt(_))
+    out.write(bytes.toByteArray)
+  }
+}
@@ -0,0 +1,102 @@
+package org.asterope.data
+
+import java.io._
+import jdbm.{Serializer, SerializerInput, SerializerOutput}
+import collection.mutable.{ArrayBuffer, PriorityQueue}
+
+/**
+ * Sorts more items than fits into memory. It is used by CompileDb bulk imports.
+ * <p>
+ * Items are buffered into chunks, each chunk is sorted in memory and spilled into
+ * temporary file. Spill files are then merged in single pass.
+ * If all items fit into single chunk, nothing is written to disk.
+ *
+ * @param serializer used to write items into spill files
+ * @param ordering sort order
+ * @param chunkSize number of items sorted in memory
+ */
+class ExternalSort[E](
+    serializer:Serializer[E],
+    ordering:Ordering[E],
+    chunkSize:Int = 100000){
+
+  /** @return iterator over sorted items */
+  def sort(items:Iterator[E]):Iterator[E] = {
+    val spills = new ArrayBuffer[File]
+    var chunk = readChunk(items)
+    if(!items.hasNext) return chunk.iterator
+
+    try{
+      while(!chunk.isEmpty){
+        spills += spill(chunk)
+        chunk = readChunk(items)
+      }
+    }catch{
+      case e:Throwable =>{
+        spills.foreach(_.delete())
+        throw e
+      }
+    }
+    merge(spills)
+  }
+
+  /** read next chunk from iterator and sort it */
+  protected def readChunk(items:Iterator[E]):Seq[E] = {
+    val buf = new ArrayBuffer[E](chunkSize)
+    while(buf.size<chunkSize && items.hasNext)
+      buf += items.next()
+    buf.sorted(ordering)
+  }
+
+  /** write sorted chunk into temporary file */
+  protected def spill(chunk:Seq[E]):File = {
+    val f = File.createTempFile("asterope","sort")
+    f.deleteOnExit()
+    val out = new SerializerOutput(new BufferedOutputStream(new FileOutputStream(f), 65536))
+    out.writeInt(chunk.size)
+    chunk.foreach(serializer.serialize(out,_))
+    out.close()
+    f
+  }
+
+  /** reads items from spill file, file is deleted when all items are read */
+  protected class SpillReader(f:File) {
+    private val in = new SerializerInput(new BufferedInputStream(new FileInputStream(f), 65536))
+    private var remaining = in.readInt()
+    var head:E = _
+
+    /** move to next item, @return false if file was fully read */
+    def advance():Boolean = {
+      if(remaining == 0){
+        in.close()
+        f.delete()
+        return false
+      }
+      head = serializer.deserialize(in)
+      remaining-=1
+      true
+    }
+  }
+
+  /** merge sorted spill files into single iterator */
+  protected def merge(spills:Seq[File]):Iterator[E] = {
+    //PriorityQueue returns biggest item first, so reverse ordering
+    val readerOrdering = new Ordering[SpillReader]{
+      def compare(r1:SpillReader, r2:SpillReader) = ordering.compare(r2.head,r1.head)
+    }
+    val queue = new PriorityQueue[SpillReader]()(readerOrdering)
+    spills.map(new SpillReader(_)).filter(_.advance()).foreach(queue+=_)
+
+    new Iterator[E]{
+      def hasNext = !queue.isEmpty
+      def next():E = {
+        val reader = queue.dequeue()
+        val ret = reader.head
+        if(reader.advance())
+          queue+=reader
+        ret
+      }
+    }
+  }
+
+}
@@ -0,0 +1,167 @@
+package org.asterope.data
+
+import java.util.concurrent._
+import java.util.concurrent.atomic.AtomicLong
+import collection.mutable.ArrayBuffer
+import org.asterope.util._
+
+/**
+ * Staged pipeline used by CompileDb to import multiple catalogs.
+ * <p>
+ * Each step has its own reader thread which splits lines into chunks.
+ * Chunks are parsed by pool of worker threads and passed through bounded queue
+ * to single writer. Writer runs on calling thread and processes steps one by one,
+ * in order they were added, so later steps may depend on data written by previous steps.
+ * Parsed chunks are consumed in same order as lines were read.
+ * <p>
+ * Bounded queue provides backpressure, reader blocks when writer can not keep up.
+ * So memory usage is limited to `queueSize * chunkSize` items for each step.
+ * <p>
+ * Parse functions are called from multiple threads, so they must be thread safe.
+ * Write functions are called from single thread and may access database.
+ *
+ * @param workers number of parser threads
+ * @param queueSize maximal number of parsed chunks waiting for writer in each step
+ * @param chunkSize number of lines in one chunk
+ */
+class ImportPipeline(
+    workers:Int = Runtime.getRuntime.availableProcessors,
+    queueSize:Int = 64,
+    chunkSize:Int = 1000){
+
+  /** throughput counter for one stage of pipeline */
+  class StageCounter(val name:String){
+    val items = new AtomicLong
+    val nanos = new AtomicLong
+
+    def add(count:Long, time:Long){
+      items.addAndGet(count)
+      nanos.addAndGet(time)
+    }
+
+    def itemsPerSecond:Long = if(nanos.get == 0) 0 else items.get * 1000000000L / nanos.get
+
+    override def toString = name+" "+items.get+" in "+(nanos.get/1000000)+" ms ("+itemsPerSecond+"/s)"
+  }
+
+  /** one import step, usually one catalog */
+  protected class Step[E](
+      val name:String,
+      lines:()=>Iterator[String],
+      parse:String=>Option[E],
+      write:Iterator[E]=>Unit){
+
+    val read = new StageCounter("read")
+    val parsed = new StageCounter("parsed")
+    val written = new StageCounter("written")
+    /** time writer spent waiting for parsers */
+    val writerWait = new AtomicLong
+
+    private val queue = new ArrayBlockingQueue[Future[Seq[E]]](queueSize)
+
+    /** marks end of data in queue */
+    private val END = completed(Callable[Seq[E]](Nil))
+
+    private def completed(c:Callable[Seq[E]]):Future[Seq[E]] = {
+      val f = new FutureTask[Seq[E]](c)
+      f.run()
+      f
+    }
+
+    /** reads lines, splits them into chunks and submits chunks to parsers */
+    def reader(pool:ExecutorService) = Runnable{
+      try{
+        val iter = lines()
+        while(iter.hasNext){
+          val start = System.nanoTime
+          val chunk = new ArrayBuffer[String](chunkSize)
+          while(chunk.size<chunkSize && iter.hasNext)
+            chunk += iter.next()
+          read.add(chunk.size, System.nanoTime - start)
+
+          //blocks if queue is full
+          queue.put(pool.submit(Callable[Seq[E]]{
+            val start = System.nanoTime
+            val ret = chunk.flatMap(l=>parse(l).toList)
+            parsed.add(ret.size, System.nanoTime - start)
+            ret
+          }))
+        }
+        queue.put(END)
+      }catch{
+        case e:InterruptedException => {/* pipeline was cancelled */}
+        case e:Throwable => queue.put(completed(Callable[Seq[E]](throw e)))
+      }
+    }
+
+    /** iterator over parsed items, blocks until parsers provide data */
+    protected def items:Iterator[E] = new Iterator[E]{
+      private var current:Iterator[E] = Iterator.empty
+      private var finished = false
+
+      def hasNext:Boolean = {
+        while(!current.hasNext && !finished){
+          val start = System.nanoTime
+          val f = queue.take()
+          if(f eq END)
+            finished = true
+          else try{
+            current = f.get.iterator
+          }catch{
+            case e:ExecutionException => throw e.getCause
+          }
+          writerWait.addAndGet(System.nanoTime - start)
+        }
+        current.hasNext
+      }
+
+      def next():E = {
+        if(!hasNext) throw new NoSuchElementException
+        current.next()
+      }
+    }
+
+    /** consume parsed items and pass them to write function */
+    def runWriter(){
+      var count = 0L
+      val start = System.nanoTime
+      write(items.map{e=> count+=1; e})
+      written.add(count, System.nanoTime - start - writerWait.get)
+    }
+
+    override def toString = name+": "+read+", "+parsed+", "+written+", writer waited "+(writerWait.get/1000000)+" ms"
+  }
+
+  protected val steps = new ArrayBuffer[Step[_]]
+
+  /**
+   * Add import step into pipeline.
+   *
+   * @param name of step, used in log
+   * @param lines source lines, is evaluated in reader thread
+   * @param parse converts line into item, or None if line should be skipped. Must be thread safe
+   * @param write consumes all parsed items, in order
+   */
+  def add[E](name:String, lines: =>Iterator[String], parse:String=>Option[E])(write:Iterator[E]=>Unit){
+    steps += new Step[E](name, ()=>lines, parse, write)
+  }
+
+  /** run all steps and wait until they are written */
+  def run(){
+    val pool = Executors.newFixedThreadPool(workers)
+    val readers = Executors.newCachedThreadPool()
+    try{
+      //all readers and parsers start at once, backpressure keeps them limited
+      steps.foreach(s=>readers.submit(s.reader(pool)))
+      steps.foreach{s=>
+        println("Importing "+s.name)
+        s.runWriter()
+        println(" "+s)
+      }
+    }finally{
+      readers.shutdownNow()
+      pool.shutdownNow()
+    }
+  }
+
+}
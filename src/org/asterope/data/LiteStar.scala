@@ -9,6 +9,12 @@ import org.asterope.healpix._
  * LiteStar is an data object which stores minimal information about star.
  * It is used to draw stars on map without loading full StarlinkObject
  * which is slower to fetch.
+ * <p>
+ * Names are decoded lazily on first access, most stars on chart are never labeled.
+ * Use companion `apply` to create star with already known names.
+ * Names are not part of equality and hash code, so comparing stars does not decode names.
+ * Two stars which differ only by names are equal, for example as keys of chart object map.
+ * Stars from catalogs always differ in position or magnitude, tests which check names must compare `names` explicitly.
  *  
  * @author Jan Kotek
  */
@@ -16,33 +22,72 @@ case class LiteStar(
 	ra: Angle,
 	de: Angle,
 	mag: Magnitude,
-  separation: Option[Angle] = None,
-  posAngle: Option[Angle] = None,
-  minMag: Option[Magnitude] = None,
-  maxMag: Option[Magnitude] = None,
-  names:List[Nomenclature] = Nil
-	) extends HasNomenclature {
+  separation: Option[Angle],
+  posAngle: Option[Angle],
+  minMag: Option[Magnitude],
+  maxMag: Option[Magnitude]
+	)(nameLoader: ()=>List[Nomenclature]) extends HasNomenclature {
+
+	lazy val names:List[Nomenclature] = nameLoader()
 	
 	/** normalized vector with position calculated from Ra De */
-	val vector = rade2Vector(ra,de)
+	lazy val vector = rade2Vector(ra,de)
 	/** healpix ipix */
 	lazy val ipix = Pixelization.vector2Ipix(vector);
+
+	/** @return copy of this star with different names */
+	def withNames(names2:List[Nomenclature]) =
+		LiteStar(ra,de,mag,separation,posAngle,minMag,maxMag,names2)
+}
+
+object LiteStar{
+
+	def apply(
+		ra: Angle,
+		de: Angle,
+		mag: Magnitude,
+		separation: Option[Angle] = None,
+		posAngle: Option[Angle] = None,
+		minMag: Option[Magnitude] = None,
+		maxMag: Option[Magnitude] = None,
+		names:List[Nomenclature] = Nil
+		):LiteStar = new LiteStar(ra,de,mag,separation,posAngle,minMag,maxMag)(()=>names)
 }
 
-import java.util.ArrayList
+import collection.mutable.ArrayBuffer
 import java.lang.Long
+import java.io.File
 import jdbm._
 
 
+/**
+ * Read-only star queries used by chart and name resolver.
+ * It is implemented by JDBM based LiteStarDao and by read-only DistributionSnapshot.
+ */
+trait LiteStarSource{
+
+	def starsByAreaMag(area: LongRangeSet, limitMag:Magnitude):Iterator[LiteStar]
+
+	def starBatchByAreaMag(area: LongRangeSet, limitMag:Magnitude):StarBatch
+
+	def prefetchByAreaMag(area: LongRangeSet, limitMag:Magnitude)
+
+	def objectsByName(name:String):Iterator[LiteStar]
+
+	def objectsByNameFuzzy(name:String, maxDistance:Int):List[(String,LiteStar,Int)]
+}
+
 /**
  * Data Acces Object bean which handless LiteStar. 
  * Most complicated task is fetching by area (healpix) and limiting magnitude. 
  * 
  * @author Jan Kotek
  *
+ * @param tileStore optional read-only tile store, if defined it is used for queries by area
  */
 class
-LiteStarDao(val recman:RecordManager)  {
+LiteStarDao(val recman:RecordManager, val tileStore:Option[StarTileStore] = None,
+            tileCacheSize:scala.Long = 32*1024*1024) extends LiteStarSource {
 
 	/** serializer used for more efficient space usage */ 
 	protected object serializer extends Serializer[LiteStar] {
@@ -66,23 +111,22 @@ LiteStarDao(val recman:RecordManager)  {
         out.writeInt(obj.separation.get.toMas.toInt)
       }
 
-      Nomenclature.listSerializer.serialize(out,obj.names)
-
-
+      //names are written with length prefix, so they can be decoded lazily
+      Nomenclature.writeLazyList(out,obj.names)
 		}
 	
 		override def deserialize(in:SerializerInput):LiteStar = {
 				val ra2 = in.readInt.mas
 				val de2 = in.readInt.mas
-				val mag2 = Magnitude (in.readShort() / 1000)
+				val mag2 = Magnitude (in.readShort() / 1000D)
         val List(isVariable,isBinary,_,_,_,_,_,_) = IOUtil.bitsDecode(in.readByte())
-        val maxMag2:Option[Magnitude] = if(isVariable) Some(Magnitude(in.readShort/1000)) else None
-        val minMag2:Option[Magnitude] = if(isVariable) Some(Magnitude(in.readShort/1000)) else None
+        val maxMag2:Option[Magnitude] = if(isVariable) Some(Magnitude(in.readShort/1000D)) else None
+        val minMag2:Option[Magnitude] = if(isVariable) Some(Magnitude(in.readShort/1000D)) else None
         val posAngle2:Option[Angle] = if(isBinary) Some(in.readInt.mas) else None
         val separation2:Option[Angle] = if(isBinary) Some(in.readInt.mas) else None
-        val names2 = Nomenclature.listSerializer.deserialize(in)
+        val names2 = Nomenclature.readLazyList(in)
 
-				return new LiteStar(ra=ra2,de=de2,mag=mag2,posAngle=posAngle2, separation=separation2, maxMag=maxMag2, minMag=minMag2, names=names2);
+				return new LiteStar(ra=ra2,de=de2,mag=mag2,posAngle=posAngle2, separation=separation2, maxMag=maxMag2, minMag=minMag2)(names2);
 		}
 	}
 	
@@ -94,19 +138,19 @@ LiteStarDao(val recman:RecordManager)  {
 	val liteStars:PrimaryStoreMap[JLong,LiteStar] = recman.storeMap("liteStars", serializer)
 	
 	/** most brightest star for Mag/Healpix index ,brighter stars mag is converted to this */ 
-	val MINMAG = 2;
+	val MINMAG = LiteStarDao.MINMAG
 	/** most fainter star in Mag/Healpix, bigger magnitudes are converted to this value */ 
-	val MAXMAG = 25;
+	val MAXMAG = LiteStarDao.MAXMAG
 	
 	/**
 	 * Magnitude/Healpix index. It is little bit complicated:
 	 * 1) key in first map is magnitude calculated  using mag2liteStarsByMagHealpixKey()
-	 * 2) key in second map is healpix ipix. 
-	 * 3) value in second map is list of recids pointing to liteStars Map. ArrayList is better persisted by JDBM. 
+	 * 2) key in second map is nested healpix ipix, so each coarse cell of query area is single subMap. 
+	 * 3) value in second map is StarCell with recids pointing to liteStars Map, sorted by magnitude. 
 	 */
-	val liteStarsByMagHealpix:Map[Int,PrimaryTreeMap[JLong,ArrayList[JLong]]] =
+	val liteStarsByMagHealpix:Map[Int,PrimaryTreeMap[JLong,StarCell]] =
 		Map() ++ (for(i <- MINMAG to MAXMAG)
-			yield (i -> recman.treeMap[JLong,ArrayList[JLong]]("liteStarsByMagHealpix-"+i))
+			yield (i -> recman.treeMap[JLong,StarCell]("liteStarsByMagHealpix-"+i, StarCell.serializer))
 	)
 
   private object nameKeyExtractor extends jdbm.SecondaryKeyExtractor[java.lang.Iterable[Nomenclature],JLong,LiteStar]{
@@ -126,17 +170,102 @@ LiteStarDao(val recman:RecordManager)  {
 	 * @return iterator over matching stars
 	 */
 	def starsByAreaMag(area: LongRangeSet, limitMag:Magnitude):Iterator[LiteStar] = {
-    val areaSeq = Pixelization.rangeSetToSeq(area)
     val limitMag2 = mag2liteStarsByMagHealpixKey(limitMag)
+    if(tileStore.isDefined)
+      return tileStore.get.starsByAreaMag(area, MINMAG to limitMag2, limitMag)
+
+    recidsByAreaMag(area,limitMag).map(liteStars.get(_))
+	}
+
+	/**
+	 * Query stars by given area and limiting magnitude into primitive batch.
+	 * LiteStar objects are created only when batch asks for them.
+	 */
+	def starBatchByAreaMag(area: LongRangeSet, limitMag:Magnitude):StarBatch = {
+    val limitMag2 = mag2liteStarsByMagHealpixKey(limitMag)
+    if(tileStore.isDefined)
+      return tileStore.get.starBatchByAreaMag(area, MINMAG to limitMag2, limitMag)
+
+    val batch = new StarBatch(recid=>liteStars.get(recid))
+    val cells = Pixelization.cellsInArea(area,TILE_ORDER)
+    if(cells.size>AreaTileCache.MAX_TILES){
+      //wide field, query few ranges directly, so cache is not flushed by thousands of tiles
+      recidsByAreaMag(area,limitMag).foreach{recid=> batch.add(liteStars.get(recid),recid)}
+      return batch
+    }
+    for(bucket <- MINMAG to limitMag2; cell <- cells){
+      val tile = tileCache.get(StarTileStore.tileKey(bucket,cell))(loadTile(bucket,cell))
+      val (lo,hi) = Pixelization.cellRange(TILE_ORDER,cell)
+      val whole = area.containsAll(lo,hi)
+      //all stars in brighter buckets pass, in last bucket check limit
+      val checkMag = bucket == limitMag2
+      var i = 0
+      while(i<tile.batch.size){
+        if((whole || area.contains(tile.ipix(i))) && (!checkMag || tile.batch.mag(i)<limitMag.mag))
+          batch.addFrom(tile.batch,i)
+        i+=1
+      }
+    }
+    batch
+	}
+
+	/**
+	 * Load tiles for area into cache without returning stars.
+	 * Is used to prefetch area which is likely to be queried soon, stops when thread is interrupted.
+	 */
+	def prefetchByAreaMag(area: LongRangeSet, limitMag:Magnitude){
+    //tile store is memory mapped, there is nothing to prefetch
+    if(tileStore.isDefined) return
+    val limitMag2 = mag2liteStarsByMagHealpixKey(limitMag)
+    val cells = Pixelization.cellsInArea(area,TILE_ORDER)
+    //wide field is not cached, see `starBatchByAreaMag`
+    if(cells.size>AreaTileCache.MAX_TILES) return
+    for(bucket <- MINMAG to limitMag2; cell <- cells){
+      checkInterrupted()
+      tileCache.get(StarTileStore.tileKey(bucket,cell))(loadTile(bucket,cell))
+    }
+	}
+
+	/** Healpix order of cached tiles, tile is about 2 degrees wide */
+	val TILE_ORDER = math.min(5,Pixelization.NORDER)
+
+	/** decoded stars from one magnitude bucket and one tile, with fine ipix for each star */
+	protected class StarTile(val ipix:Array[scala.Long], val batch:StarBatch){
+		def weight:scala.Long = 128 + ipix.length * 64L
+	}
+
+	/** cache of decoded tiles, is used by `starBatchByAreaMag` */
+	val tileCache = new TileCache[StarTile](tileCacheSize, _.weight)
+
+	protected def loadTile(bucket:Int, cell:scala.Long):StarTile = {
+		val (lo,hi) = Pixelization.cellRange(TILE_ORDER,cell)
+		val ipix = new ArrayBuffer[scala.Long]
+		val batch = new StarBatch(recid=>liteStars.get(recid), 16)
+		liteStarsByMagHealpix(bucket).subMap(lo,hi+1).entrySet.foreach{e=>
+			e.getValue.recids.foreach{recid=>
+				ipix += e.getKey.longValue
+				batch.add(liteStars.get(recid),recid)
+			}
+		}
+		new StarTile(ipix.toArray, batch)
+	}
+
+	/** @return recids of stars in given area, brighter than limit */
+	protected def recidsByAreaMag(area: LongRangeSet, limitMag:Magnitude):Iterator[scala.Long] = {
+    val limitMag2 = mag2liteStarsByMagHealpixKey(limitMag)
+    val limitMilimag = limitMag.toMilimag
+    val areaSeq = Pixelization.rangeSetToSeq(area)
     (MINMAG to limitMag2)
       .flatMap{mag=>
       val substars = liteStarsByMagHealpix(mag)
        areaSeq
        .map(f=>substars.subMap(f._1, f._2+1))
        .flatMap(_.values())
-       .flatMap(_.iterator)
-       .map(liteStars.get(_))
-       .filter(_.mag<limitMag)
+       .flatMap{cell=>
+         //all stars in brighter buckets pass, in last bucket stop at limit
+         val count = if(mag == limitMag2) cell.countBrighter(limitMilimag) else cell.size
+         cell.recids.iterator.take(count)
+       }
     }.iterator
 	}
 
@@ -144,12 +273,12 @@ LiteStarDao(val recman:RecordManager)  {
 	/**
 	 * Convert Magnitude into first key used in liteStarsByMagHealpix map
 	 */
-	protected def mag2liteStarsByMagHealpixKey(mag:Magnitude) = 
-			if(mag.mag<MINMAG) MINMAG
-			else if (mag.mag>MAXMAG) MAXMAG
-			else mag.mag.floor.asInstanceOf[Int]
+	protected def mag2liteStarsByMagHealpixKey(mag:Magnitude) =
+			LiteStarDao.magBucket(mag)
 	/**
-	 * Add star to database 
+	 * Add star to database.
+	 * Caches are not invalidated for each star, call `flush` after last star is added.
+	 * For import of many stars use `addStars`.
 	 * @param star to be added
 	 * @param starlinkRecid of bigger starlink object. If does not exist, use 0 
 	 */
@@ -160,44 +289,220 @@ LiteStarDao(val recman:RecordManager)  {
 		 */
 		val ipix:Long = new JLong(star.ipix)
 		val mag:Int = mag2liteStarsByMagHealpixKey(star.mag)
-		//create array list if needed
-    val list: ArrayList[JLong] =
-      if (!liteStarsByMagHealpix(mag).containsKey(ipix)) new ArrayList[JLong];
-      else liteStarsByMagHealpix(mag).get(ipix)
-		//insert ipix into array list
-		list.add(liteStarRecid)
-		//put array list back to index
-		liteStarsByMagHealpix(mag).put(ipix,list)
+		//insert recid into cell at position given by magnitude
+		val cell = liteStarsByMagHealpix(mag).getOrElse(ipix, StarCell.EMPTY)
+		liteStarsByMagHealpix(mag).put(ipix, cell.add(liteStarRecid.longValue, star.mag.toMilimag.toShort))
+	}
+
+	/**
+	 * Invalidate tile cache and name index after stars were added,
+	 * listeners of `onNamesModified` are notified.
+	 */
+	def flush(){
+		tileCache.clear()
+		_nameIndex = null
+		onNamesModified.firePublish(Unit)
 	}
 	
+	/**
+	 * Bulk import of stars.
+	 * Stars are sorted by (magnitude bucket, ipix, magnitude) using spill files,
+	 * then records and Mag/Healpix index are written in single sequential pass.
+	 * So each index cell is read and written only once, instead of once per star.
+	 *
+	 * @param stars to be added
+	 * @return number of added stars
+	 */
+	def addStars(stars:Iterator[LiteStar]):Int = {
+		val sorter = new ExternalSort[LiteStar](serializer,
+			Ordering.by{s:LiteStar => (StarTileStore.tileKey(mag2liteStarsByMagHealpixKey(s.mag),s.ipix), s.mag.mag)})
+
+		var counter = 0
+		var lastMag = -1
+		var lastIpix = -1L
+		val recids = new ArrayBuffer[scala.Long]
+		val mags = new ArrayBuffer[Short]
+		def flushList(){
+			if(!recids.isEmpty){
+				val cell = new StarCell(recids.toArray,mags.toArray)
+				val old = liteStarsByMagHealpix(lastMag).getOrElse(lastIpix, StarCell.EMPTY)
+				liteStarsByMagHealpix(lastMag).put(lastIpix, old.merge(cell))
+				recids.clear()
+				mags.clear()
+			}
+		}
+
+		sorter.sort(stars).foreach{star=>
+			val mag = mag2liteStarsByMagHealpixKey(star.mag)
+			val ipix = star.ipix
+			if(mag!=lastMag || ipix!=lastIpix){
+				//moved to next index page, write previous one
+				flushList()
+				lastMag = mag
+				lastIpix = ipix
+			}
+			recids += liteStars.putValue(star).longValue
+			mags += star.mag.toMilimag.toShort
+			counter+=1
+		}
+		flushList()
+		flush()
+		counter
+	}
+
 	def all:Iterator[LiteStar] = liteStars.valuesIterator
 
 	def objectsByName(name:String):Iterator[LiteStar] = {
 		recidsByName(name).map{liteStarsByName.getPrimaryValue(_)}
 	}
 
-  //TODO code duplication
-	def recidsByName(name2:String):Iterator[Long] = {
-    Nomenclature.recidsByMame(name2,liteStarsByName)
+	def recidsByName(name2:String):Iterator[Long] =
+		nameIndex.recidsByName(name2).map(new Long(_))
+
+	/** @return stars with name within given edit distance, as (normalized name, star, distance) sorted by distance */
+	def objectsByNameFuzzy(name:String, maxDistance:Int):List[(String,LiteStar,Int)] =
+		nameIndex.fuzzy(name,maxDistance).map(f=>(f._1, liteStars.get(new Long(f._2)), f._3))
+
+	@volatile private var _nameIndex:NameIndex = null
+
+	/** is fired after stars or star names were added, caches of name lookups should be cleared */
+	val onNamesModified = new Publisher[Unit]()
+
+	/** in-memory name index, is built on first use and dropped when names are modified */
+	def nameIndex:NameIndex = {
+		var idx = _nameIndex
+		if(idx == null){
+			idx = NameIndex.build(liteStarsByName)
+			_nameIndex = idx
+		}
+		idx
 	}
 
   def addName(id1: String, id2: Nomenclature) {
-		//query for all objects with this name
-		val iter = recidsByName(id1).toList
+		//query JDBM index directly, in-memory name index would be rebuilt for each call
+		val iter = Option(liteStarsByName.get(new Nomenclature(id1,-1))).map(_.toList).getOrElse(Nil)
 		assert(iter.size>0,"Name not found: '"+id1+"'");
     assert(iter.size<2,"More then one candidate found: '"+id1+"'");
 		iter.foreach{recid=>
       //fetch and make copy with new name
       val s1 = liteStars.get(recid)
       val names2 = id2 :: s1.names;
-      val s2 = s1.copy(names = names2)
+      val s2 = s1.withNames(names2)
       //replace original with new copy
       liteStars.put(recid,s2)
     }
+		_nameIndex = null
+		onNamesModified.firePublish(Unit)
 	}
 
+  /**
+   * Batch version of `addName`, is used by CompileDb to import crossids.
+   * Pairs are sorted by target name and joined with name index in single merge pass.
+   * Found names are then sorted by recid, so each star is fetched and rewritten only once.
+   *
+   * @param names pairs of (existing name, new name)
+   * @return number of added names
+   */
+  def addNames(names:Iterator[(String,Nomenclature)]):Int = {
+    val byTarget = new ExternalSort[(Nomenclature,Nomenclature)](namePairSerializer,
+      new Ordering[(Nomenclature,Nomenclature)]{
+        def compare(p1:(Nomenclature,Nomenclature), p2:(Nomenclature,Nomenclature)) = p1._1.compare(p2._1)
+      })
+    val sorted = byTarget.sort(names.map{case (target,name)=>(new Nomenclature(target,-1),name)}).buffered
+    if(!sorted.hasNext) return 0
+    _nameIndex = null
+
+    //index is sorted in same way as targets, so it is iterated only once
+    val index = liteStarsByName.tailMap(sorted.head._1).entrySet.iterator.buffered
+    val joined = sorted.map{case (target,name)=>
+      while(index.hasNext && index.head.getKey.compare(target)<0)
+        index.next()
+      assert(index.hasNext && index.head.getKey.compare(target)==0, "Name not found: '"+target+"'")
+      val recids = index.head.getValue.toList
+      assert(recids.size<2,"More then one candidate found: '"+target+"'");
+      (recids.head,name)
+    }
+
+    //sort consumes whole join before any star is modified, so index does not change while iterated
+    val byRecid = new ExternalSort[(JLong,Nomenclature)](recidNameSerializer,
+      Ordering.by{p:(JLong,Nomenclature) => p._1.longValue})
+    val grouped = byRecid.sort(joined).buffered
+
+    var counter = 0
+    while(grouped.hasNext){
+      val recid = grouped.head._1
+      var names2 = List[Nomenclature]()
+      while(grouped.hasNext && grouped.head._1 == recid){
+        names2 = grouped.next()._2 :: names2
+        counter+=1
+      }
+      //fetch and replace with copy which has all new names
+      val s1 = liteStars.get(recid)
+      liteStars.put(recid, s1.withNames(names2 ::: s1.names))
+    }
+    onNamesModified.firePublish(Unit)
+    counter
+  }
+
+  /**
+   * Writes nomenclature without parsing its format.
+   * Is used only for temporary spill files, so format does not have to be valid.
+   */
+  private def writeRawName(out:SerializerOutput, n:Nomenclature){
+    out.writeUTF(n.v)
+    out.writeInt(n.formatId)
+  }
+
+  private def readRawName(in:SerializerInput) = new Nomenclature(in.readUTF, in.readInt)
+
+  private object namePairSerializer extends Serializer[(Nomenclature,Nomenclature)]{
+    def serialize(out:SerializerOutput, p:(Nomenclature,Nomenclature)){
+      writeRawName(out,p._1)
+      writeRawName(out,p._2)
+    }
+    def deserialize(in:SerializerInput) = (readRawName(in),readRawName(in))
+  }
+
+  private object recidNameSerializer extends Serializer[(JLong,Nomenclature)]{
+    def serialize(out:SerializerOutput, p:(JLong,Nomenclature)){
+      out.writeLong(p._1.longValue)
+      writeRawName(out,p._2)
+    }
+    def deserialize(in:SerializerInput) = (new JLong(in.readLong),readRawName(in))
+  }
+
   def byRecid(recid:Long):LiteStar = liteStars.get(recid)
 
+  /** Write all stars into read-only tile store. */
+  def writeTileStore(file:File){
+    StarTileStore.write(file,starsInTileOrder)
+  }
+
+  /**
+   * All stars with magnitude bucket, in order used by StarTileStore.
+   * Stars are taken from Mag/Healpix index, so they are already sorted by bucket, ipix and magnitude.
+   */
+  def starsInTileOrder:Iterator[(Int,LiteStar)] =
+    for(
+      mag <- (MINMAG to MAXMAG).iterator;
+      cell <- liteStarsByMagHealpix(mag).values.iterator;
+      recid <- cell.recids.iterator
+    ) yield (mag, liteStars.get(recid))
+
 	
 }
 
+object LiteStarDao{
+
+	/** most brightest star for Mag/Healpix index ,brighter stars mag is converted to this */
+	val MINMAG = 2
+	/** most fainter star in Mag/Healpix, bigger magnitudes are converted to this value */
+	val MAXMAG = 25
+
+	/** magnitude bucket used in Mag/Healpix index and in StarTileStore */
+	def magBucket(mag:Magnitude):Int =
+		if(mag.mag<MINMAG) MINMAG
+		else if (mag.mag>MAXMAG) MAXMAG
+		else mag.mag.floor.asInstanceOf[Int]
+}
+
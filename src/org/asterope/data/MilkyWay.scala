@@ -3,7 +3,7 @@ package org.asterope.data
 import org.asterope.healpix._
 import scala.collection.JavaConversions._
 import org.apache.commons.math.geometry.Vector3D
-import org.asterope.util.Pixelization
+import org.asterope.util._
 
 case class MilkyWayPixel
 	(pos:Vector3D, gray:Int){
@@ -11,9 +11,74 @@ case class MilkyWayPixel
 	def ipix = Pixelization.vector2Ipix(pos)
 }
 
+/**
+ * Milky Way density pre-rendered into multi resolution Healpix raster.
+ * Level for each order holds one gray value (0-255) per nested cell,
+ * cells in coarser levels are averages of their four children.
+ * Chart samples level which matches its resolution and draws it as single image.
+ *
+ * @param levels gray values for orders from 0 to `maxOrder`
+ */
+class MilkyWayRaster(val levels:Array[Array[Byte]]){
+
+	def maxOrder = levels.length - 1
+
+	/** @return gray value of cell with given fine ipix */
+	def gray(ipix:Long, order:Int):Int =
+		levels(order)((ipix >> (2 * (Pixelization.NORDER - order))).toInt) & 0xFF
+
+	/** @return gray value at given position */
+	def gray(pos:Vector3D, order:Int):Int = gray(Pixelization.vector2Ipix(pos), order)
+
+	/** @return coarsest order whose cells are not bigger than given angle */
+	def orderForResolution(res:Angle):Int =
+		(0 to maxOrder).find(o=>PixTools.PixRes(Pixelization.norder2nside(o)) <= res.toArcSec).getOrElse(maxOrder)
+}
+
+object MilkyWayRaster{
+
+	/** finest order, cells are about half degree */
+	val MAX_ORDER = math.min(7, Pixelization.NORDER)
+
+	/** PP3 pixel is painted as disc with this radius, brightness falls linearly to zero at edge */
+	val PIXEL_RADIUS = 0.5.degree
+
+	def build(pixels:Iterator[MilkyWayPixel]):MilkyWayRaster = {
+		val r = PIXEL_RADIUS.toRadian
+		val finest = new Array[Double](PixTools.Nside2Npix(Pixelization.norder2nside(MAX_ORDER)).toInt)
+		for(pixel<-pixels){
+			val area = Pixelization.queryDisc(pixel.pos, PIXEL_RADIUS, MAX_ORDER)
+			for(cell<-Pixelization.cellsInArea(area, MAX_ORDER)){
+				val dist = Vector3D.angle(pixel.pos, Pixelization.cellCenter(MAX_ORDER, cell))
+				if(dist<r)
+					finest(cell.toInt) = math.max(finest(cell.toInt), pixel.gray * (1 - dist/r))
+			}
+		}
+
+		val levels = new Array[Array[Byte]](MAX_ORDER+1)
+		levels(MAX_ORDER) = finest.map(g=>math.min(255, math.round(g)).toByte)
+		for(order <- MAX_ORDER-1 to 0 by -1){
+			val children = levels(order+1)
+			levels(order) = Array.tabulate(children.length/4){cell=>
+				val sum = (0 until 4).map(i=>children(cell*4+i) & 0xFF).sum
+				((sum + 2) / 4).toByte
+			}
+		}
+		new MilkyWayRaster(levels)
+	}
+}
+
+/**
+ * Read-only Milky Way used by chart.
+ * It is implemented by JDBM based MilkyWayDao and by read-only DistributionSnapshot.
+ */
+trait MilkyWaySource{
+	def raster:MilkyWayRaster
+}
+
 import jdbm._
 
-class MilkyWayDao(recman:RecordManager){
+class MilkyWayDao(recman:RecordManager) extends MilkyWaySource{
 	import java.lang.Long
 	
 	/** serializer used for more efficient space usage */ 
@@ -43,7 +108,13 @@ class MilkyWayDao(recman:RecordManager){
 	
 	protected val milkyWayPixelMap:PrimaryTreeMap[Long,List[MilkyWayPixel]] = recman.treeMap("milkyWayPixelMap",serializer)
 	
+	/** raster levels by order, written at compile time */
+	protected val rasterMap:PrimaryTreeMap[Integer,Array[Byte]] = recman.treeMap("milkyWayRaster")
+
+	@volatile private var _raster:MilkyWayRaster = null
+
 	def addMilkyWayPixel(pixel:MilkyWayPixel){
+		_raster = null
 		val ipix:Long = pixel.ipix
     val list:List[MilkyWayPixel] =  pixel :: milkyWayPixelMap.getOrElse(ipix,Nil)
 		milkyWayPixelMap.put(ipix, list)
@@ -59,4 +130,26 @@ class MilkyWayDao(recman:RecordManager){
 	
 	
 	def all:Iterator[MilkyWayPixel] = milkyWayPixelMap.valuesIterator.flatMap(_.iterator)
+
+	/**
+	 * Pre-rendered raster, it is loaded once and kept in memory.
+	 * If raster was not stored at compile time, it is built from pixels.
+	 */
+	def raster:MilkyWayRaster = {
+		if(_raster == null){
+			_raster =
+				if(rasterMap.isEmpty) MilkyWayRaster.build(all)
+				else new MilkyWayRaster((0 until rasterMap.size).map(o=>rasterMap.get(o)).toArray)
+		}
+		_raster
+	}
+
+	/** builds raster from pixels and stores it, so it does not have to be built at runtime */
+	def saveRaster(){
+		val raster = MilkyWayRaster.build(all)
+		rasterMap.clear()
+		for((level,order)<-raster.levels.zipWithIndex)
+			rasterMap.put(order, level)
+		_raster = raster
+	}
 }
\ No newline at end of file
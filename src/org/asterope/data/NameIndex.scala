@@ -0,0 +1,205 @@
+package org.asterope.data
+
+import java.lang.{Long => JLong}
+import scala.collection.JavaConversions._
+import collection.mutable.ArrayBuffer
+
+/**
+ * Immutable in-memory index of object names, it answers name queries without walking JDBM B-tree.
+ * <p>
+ * Normalized names are sorted and packed into single char array.
+ * Sorted array works as implicit trie: names with common prefix are continuous range,
+ * so prefix query is binary search and fuzzy query walks trie nodes as sub-ranges.
+ * Recids for all names are stored in single array, `offsets` points to first recid of each name.
+ *
+ * @author Jan Kotek
+ */
+class NameIndex protected[data](
+    chars:Array[Char], starts:Array[Int],
+    offsets:Array[Int], recids:Array[Long]){
+
+  import NameIndex._
+
+  /** number of unique names in index */
+  def size = starts.length - 1
+
+  /** normalized name at given index */
+  def name(i:Int):String = new String(chars, starts(i), length(i))
+
+  private def length(i:Int) = starts(i+1) - starts(i)
+
+  private def charAt(i:Int, pos:Int) = chars(starts(i)+pos)
+
+  private def recidsAt(i:Int):Iterator[Long] = Iterator.range(offsets(i),offsets(i+1)).map(recids(_))
+
+  private def compare(i:Int, key:String):Int = {
+    val len = length(i)
+    val n = math.min(len, key.length)
+    var k = 0
+    while(k<n){
+      val c = charAt(i,k) - key.charAt(k)
+      if(c!=0) return c
+      k+=1
+    }
+    len - key.length
+  }
+
+  private def startsWith(i:Int, key:String):Boolean = {
+    if(length(i)<key.length) return false
+    var k = 0
+    while(k<key.length){
+      if(charAt(i,k)!=key.charAt(k)) return false
+      k+=1
+    }
+    true
+  }
+
+  /** @return index of first name equal or greater than key */
+  private def lowerBound(key:String):Int = {
+    var lo = 0
+    var hi = size
+    while(lo<hi){
+      val mid = (lo+hi)>>>1
+      if(compare(mid,key)<0) lo = mid+1
+      else hi = mid
+    }
+    lo
+  }
+
+  /** @return recids of objects with given name */
+  def exact(name:String):Iterator[Long] = {
+    val key = normalize(name)
+    val i = lowerBound(key)
+    if(i<size && compare(i,key)==0) recidsAt(i)
+    else Iterator.empty
+  }
+
+  /** @return recids of objects which have name starting with given prefix */
+  def prefix(prefix:String):Iterator[Long] = {
+    val key = normalize(prefix)
+    Iterator.range(lowerBound(key),size)
+      .takeWhile(startsWith(_,key))
+      .flatMap(recidsAt(_))
+  }
+
+  /**
+   * Same semantic as old B-tree lookup: name ending with '%' is prefix query, otherwise exact match
+   */
+  def recidsByName(name:String):Iterator[Long] =
+    if(name.endsWith("%")) prefix(name.substring(0,name.length-1))
+    else exact(name)
+
+  /**
+   * Finds names within given Levenshtein distance.
+   * Trie is walked depth first and branch is skipped
+   * once its minimal distance is bigger than `maxDistance`.
+   *
+   * @return list of (normalized name, recid, distance), sorted by distance
+   */
+  def fuzzy(name:String, maxDistance:Int):List[(String,Long,Int)] = {
+    val key = normalize(name)
+    val found = new ArrayBuffer[(Int,Int)]
+
+    //row(k) is edit distance between current trie prefix and first k chars of key
+    def visit(depth:Int, from:Int, to:Int, row:Array[Int]){
+      var i = from
+      //shortest name is first in range, it ends at this node
+      if(length(i)==depth){
+        if(row(key.length)<=maxDistance) found += ((i,row(key.length)))
+        i+=1
+      }
+      while(i<to){
+        val c = charAt(i,depth)
+        //end of range with same char at this depth
+        var lo = i+1
+        var hi = to
+        while(lo<hi){
+          val mid = (lo+hi)>>>1
+          if(charAt(mid,depth)<=c) lo = mid+1
+          else hi = mid
+        }
+        val row2 = new Array[Int](row.length)
+        row2(0) = row(0)+1
+        var min = row2(0)
+        for(k<-1 to key.length){
+          val cost = if(key.charAt(k-1)==c) 0 else 1
+          row2(k) = math.min(math.min(row2(k-1)+1, row(k)+1), row(k-1)+cost)
+          min = math.min(min,row2(k))
+        }
+        if(min<=maxDistance) visit(depth+1, i, lo, row2)
+        i = lo
+      }
+    }
+
+    if(size>0) visit(0, 0, size, Array.range(0,key.length+1))
+    found.sortBy(_._2).toList
+      .flatMap{case (i,dist)=> recidsAt(i).map(r=>(name(i),r,dist))}
+  }
+
+  /** write index as four arrays with length prefix, it is read back by `NameIndex.read` */
+  def write(out:java.io.DataOutput){
+    out.writeInt(chars.length)
+    chars.foreach(out.writeChar(_))
+    out.writeInt(starts.length)
+    starts.foreach(out.writeInt(_))
+    out.writeInt(offsets.length)
+    offsets.foreach(out.writeInt(_))
+    out.writeInt(recids.length)
+    recids.foreach(out.writeLong(_))
+  }
+
+}
+
+object NameIndex{
+
+  /** same normalization as Nomenclature.comparableForm */
+  def normalize(name:String) = name.replace(" ","").toUpperCase
+
+  /**
+   * Builds index from JDBM name map, map is scanned only once
+   */
+  def build(map:java.util.Map[Nomenclature,java.lang.Iterable[JLong]]):NameIndex =
+    build(map.entrySet.iterator.map(e=>(e.getKey.toString, e.getValue.map(_.longValue))))
+
+  /** read index written by `write`, arrays are copied from buffer in bulk */
+  def read(buf:java.nio.ByteBuffer):NameIndex = {
+    val b = buf.duplicate()
+    val chars = new Array[Char](b.getInt)
+    b.asCharBuffer.get(chars)
+    b.position(b.position + chars.length*2)
+    val starts = new Array[Int](b.getInt)
+    b.asIntBuffer.get(starts)
+    b.position(b.position + starts.length*4)
+    val offsets = new Array[Int](b.getInt)
+    b.asIntBuffer.get(offsets)
+    b.position(b.position + offsets.length*4)
+    val recids = new Array[Long](b.getInt)
+    b.asLongBuffer.get(recids)
+    new NameIndex(chars, starts, offsets, recids)
+  }
+
+  def build(entries:Iterator[(String,Iterable[Long])]):NameIndex = {
+    val sorted = entries.map(e=>(normalize(e._1),e._2.toArray)).toArray.sortBy(_._1)
+
+    val chars = new StringBuilder
+    val starts = new ArrayBuffer[Int]
+    val offsets = new ArrayBuffer[Int]
+    val recids = new ArrayBuffer[Long]
+    var last:String = null
+    for((name,ids)<-sorted){
+      //names which differ only by spaces or case are merged
+      if(name!=last){
+        starts += chars.length
+        offsets += recids.size
+        chars.append(name)
+        last = name
+      }
+      recids ++= ids
+    }
+    starts += chars.length
+    offsets += recids.size
+
+    new NameIndex(chars.toString.toCharArray, starts.toArray, offsets.toArray, recids.toArray)
+  }
+
+}
@@ -2,35 +2,156 @@ package org.asterope.data
 
 import org.asterope.util._
 import org.apache.commons.math.geometry.Vector3D
+import java.util.concurrent.{ExecutionException, Executors, Future, ThreadFactory}
 
+/**
+ * Resolves object name into position. Deep sky objects and stars are queried concurrently.
+ * Recent lookups, including names which were not found, are kept in bounded LRU cache,
+ * so type-ahead in search dialog does not hit database again.
+ *
+ * @param cacheSize maximal number of names in cache
+ */
+class NameResolver(ds:DeepSkySource, stars:LiteStarSource, cacheSize:Int = 1000) {
+  import NameResolver._
 
-class NameResolver(ds:DeepSkyDao, stars:LiteStarDao) {
+  /** maximal number of objects taken from single source */
+  val SOURCE_LIMIT = 100
 
+  /** time spent in deep sky lookup */
+  val deepSkyLatency = new LatencyHistogram("deepSky")
+  /** time spent in star lookup */
+  val starLatency = new LatencyHistogram("star")
+  /** time of whole resolve, without cache hits */
+  val resolveLatency = new LatencyHistogram("resolve")
 
-  def resolve(name:String):NameResolverResult = {
+  /** recently resolved names, empty list is name which was not found */
+  private val cache = new java.util.LinkedHashMap[String,List[NameResolverResult]](16, 0.75f, true){
+    override def removeEldestEntry(e:java.util.Map.Entry[String,List[NameResolverResult]]) = size > cacheSize
+  }
 
-    var r = List[NameResolverResult]()
+  private val _cacheHits = new java.util.concurrent.atomic.AtomicLong
+  def cacheHits = _cacheHits.get
 
-    //deepsky
-    r ++= ds.objectsByName(name).map{n=>
-      val desc = DeepSky.resourceMap.getString(n.deepSkyType.toString)
-      new NameResolverResult(Some(n.vector),Some(desc),name)
+  //names added to DAO would not be found while negative result is cached
+  stars match{
+    case dao:LiteStarDao => dao.onNamesModified{_=> clearCache()}
+    case _ => //read-only source, names never change
+  }
+  ds match{
+    case dao:DeepSkyDao => dao.onNamesModified{_=> clearCache()}
+    case _ =>
+  }
+
+  def resolve(name:String):NameResolverResult =
+    resolveAll(name).headOption.getOrElse(new NameResolverResult(queryString = name))
+
+  /**
+   * Resolve name outside of EDT.
+   * Requests run one by one in resolver thread, not in shared pool used by chart refresh.
+   * Request cancelled before it starts is never executed.
+   * @param callback is called on EDT with result
+   */
+  def resolveAsync(name:String)(callback:NameResolverResult=>Unit):Future[NameResolverResult] =
+    asyncExecutor.submit(Callable{
+      val r = resolve(name)
+      onEDT(callback(r))
+      r
+    })
+
+  /** @return result from cache, if name was already resolved */
+  def cached(name:String):Option[List[NameResolverResult]] = cache.synchronized{
+    Option(cache.get(NameIndex.normalize(name))).map(_.map(_.copy(queryString = name)))
+  }
+
+  def clearCache(){
+    cache.synchronized{ cache.clear() }
+  }
+
+  /**
+   * All objects with given name. Deep sky objects go first, then stars sorted by magnitude.
+   */
+  def resolveAll(name:String):List[NameResolverResult] = {
+    val c = cached(name)
+    if(c.isDefined){
+      _cacheHits.incrementAndGet()
+      return c.get
     }
-    //stars
-    r ++= stars.objectsByName(name).map(n=>new NameResolverResult(Some(n.vector),Some("Star"),name))
 
-    //TODO seq versus option
-    r.foreach{s=>
-      return s
+    val ret = resolveLatency.time{
+      //lookup thread only runs leaf tasks, so waiting on it from async request can not deadlock
+      val deepSky = lookupExecutor.submit(Callable{
+        deepSkyLatency.time{
+          ds.objectsByName(name).take(SOURCE_LIMIT).map{n=>
+            val desc = DeepSky.resourceMap.getString(n.deepSkyType.toString)
+            (0, n.mag.map(_.mag).getOrElse(Double.MaxValue), new NameResolverResult(Some(n.vector),Some(desc),name))
+          }.toList
+        }
+      })
+      val star = starLatency.time{
+        stars.objectsByName(name).take(SOURCE_LIMIT).map{n=>
+          (1, n.mag.mag, new NameResolverResult(Some(n.vector),Some("Star"),name))
+        }.toList
+      }
+      waitOrInterrupt(List(deepSky))
+      val deepSky2 = try{
+        deepSky.get
+      }catch{
+        case e:ExecutionException => throw e.getCause
+      }
+      //deepsky objects first, brighter objects first
+      (deepSky2 ++ star).sortBy(r=>(r._1,r._2)).map(_._3)
     }
-    new NameResolverResult(queryString = name)
+
+    cache.synchronized{
+      cache.put(NameIndex.normalize(name), ret)
+    }
+    ret
+  }
+
+  /**
+   * Objects with similar name, is used when `resolve` finds nothing (for example typo in name).
+   * Allowed edit distance grows with name length.
+   *
+   * @return results sorted by edit distance, `queryString` is matched name
+   */
+  def suggest(name:String, limit:Int = 10):List[NameResolverResult] = {
+    val maxDistance = if(NameIndex.normalize(name).length<=4) 1 else 2
+    def displayName(names:List[Nomenclature], matched:String) =
+      names.find(_.comparableForm == matched).map(_.toString).getOrElse(matched)
+
+    val deepSky = ds.objectsByNameFuzzy(name,maxDistance).map{case (matched,n,dist)=>
+      val desc = DeepSky.resourceMap.getString(n.deepSkyType.toString)
+      (dist, new NameResolverResult(Some(n.vector),Some(desc),displayName(n.names,matched)))
+    }
+    val star = stars.objectsByNameFuzzy(name,maxDistance).map{case (matched,n,dist)=>
+      (dist, new NameResolverResult(Some(n.vector),Some("Star"),displayName(n.names,matched)))
+    }
+    //sort is stable, so deepsky objects are first for same distance
+    (deepSky ++ star).sortBy(_._1).map(_._2).take(limit)
   }
 
 
 }
 
 
+object NameResolver{
+
+  private def daemonThreads(name:String) = new ThreadFactory{
+    def newThread(r:Runnable) = {
+      val t = new Thread(r,name)
+      t.setDaemon(true)
+      t
+    }
+  }
+
+  /** runs `resolveAsync` requests */
+  private val asyncExecutor = Executors.newSingleThreadExecutor(daemonThreads("asterope-name-resolver"))
+
+  /** runs deep sky lookups, which are done concurrently with star lookup */
+  private val lookupExecutor = Executors.newSingleThreadExecutor(daemonThreads("asterope-name-lookup"))
+}
+
 case class NameResolverResult(pos:Option[Vector3D]=None,description:Option[String]=None, queryString:String){
 
   def constel = Constel.constelOnPosition(pos.get)
-}
\ No newline at end of file
+}
@@ -1,6 +1,5 @@
 package org.asterope.data
 
-import java.lang.{Long => JLong}
 
 import java.util.ArrayList
 import jdbm._
@@ -11,8 +10,21 @@ import util.parsing.combinator.RegexParsers
 
 import java.io.{ByteArrayInputStream, ByteArrayOutputStream}
 
-case class Nomenclature( v:String, formatId:Int )
+/**
+ * Object name such as 'NGC 7000' or 'Vega'.
+ * <p>
+ * Names with known format are kept in compact form: format id and its encoded elements
+ * (numbers are written as packed ints), so millions of catalog names take only small part of heap.
+ * String is decoded only when needed, comparable form and catalog prefix are cached.
+ */
+class Nomenclature private (str:String, val formatId:Int, private val body:Array[Byte])
         extends Ordered[Nomenclature]{
+
+  def this(v:String, formatId:Int) = this(v,formatId,null)
+
+  /** name as string, compact name is decoded on each call */
+  def v:String = if(str!=null) str else Nomenclature.decode(formatId,body)
+
   override def toString = v
 
   /**
@@ -21,7 +33,7 @@ case class Nomenclature( v:String, formatId:Int )
    *
    * Is lazy to save CPU  on deserialization
    */
-  protected[data] lazy val comparableForm = toString.replace(" ","").toUpperCase
+  protected[data] lazy val comparableForm = NameIndex.normalize(toString)
 
 	override def compare(n2:Nomenclature) =
     comparableForm.compareToIgnoreCase(n2.comparableForm)
@@ -29,7 +41,11 @@ case class Nomenclature( v:String, formatId:Int )
 	override def equals(n2:Any) =
 		n2.isInstanceOf[Nomenclature] && n2.asInstanceOf[Nomenclature].comparableForm == comparableForm
 
-  def catalogPrefix = toString.split(" ")(0)
+  override def hashCode = comparableForm.hashCode
+
+  /** catalog prefix such as 'NGC', is shared (interned) string for names with known format */
+  lazy val catalogPrefix:String =
+    Nomenclature.FormatParser.prefixByFormat.getOrElse(formatId, toString.split(" ")(0))
 
   //TODO formatId should be protected
   //TODO add some assertions if format is defined in nomenclature parser
@@ -44,6 +60,8 @@ case class Nomenclature( v:String, formatId:Int )
  */
 object Nomenclature  {
 
+  def apply(v:String, formatId:Int) = new Nomenclature(v,formatId)
+
   /**
    * Map of known formarts. Key is ID used in JDBM storage,
    * value is formart itself.
@@ -288,6 +306,15 @@ object Nomenclature  {
     }
 
 
+    /**
+     * Catalog prefix for formats which start with fixed word, such as 'NGC ' in 'NGC NNNN'.
+     * Strings are interned, so all names share single instance.
+     */
+    lazy val prefixByFormat:Map[Int,String] =
+      formatElems.collect{
+        case (id, FixedElem(prefix) :: FixedElem("_") :: _) => (id, prefix.intern)
+      }
+
     /**
      * Grammars for each format
      */
@@ -531,18 +558,51 @@ object Nomenclature  {
     }
   }
 
+  /** decode compact name into string */
+  private def decode(id:Int, body:Array[Byte]):String = {
+    val in = new SerializerInput(new ByteArrayInputStream(body))
+    val sb = new StringBuilder()
+    FormatParser.formatElems(id).foreach{e=>
+      sb.append(e.deserialize(in))
+    }
+    sb.toString
+  }
+
+  /** encode name elements, result is stored in compact name */
+  private def encode(nom:Nomenclature):Array[Byte] = {
+    val id = nom.formatId
+    val elems = FormatParser.formatElems(id)
+    val buf = new ByteArrayOutputStream()
+    val out = new SerializerOutput(buf)
+
+    var str = nom.v.replace(' ','_')
+
+    elems.foreach{n=>
+      val result = FormatParser.parse(n.parser,  str).get.replace('_',' ')
+      n.serialize(out,result)
+      //remove already consumed chunk
+      str = str.drop(result.size)
+    }
+
+    //entire string should be consumed
+    assert(str == "","string not fully consumed :"+nom+", rem:'"+str+"', format: "+elems)
+    buf.toByteArray
+  }
+
+  /**
+   * Name with known format is written as format id and size prefixed encoded elements.
+   * Deserialized name keeps encoded bytes, without parsing them.
+   * Format is stored in JDBM, any incompatible change must increase `CatalogDao.SCHEMA_VERSION`.
+   */
   object serializer extends Serializer[Nomenclature]{
     override def  deserialize(in:SerializerInput):Nomenclature = {
       val id = in.readPackedInt
       if(id == 0){
         return new Nomenclature(in.readUTF,id)
       }
-      val elems = FormatParser.formatElems(id)
-      var sb = new StringBuilder();
-      elems.foreach{e=>
-        sb = sb.append(e.deserialize(in))
-      }
-      return new Nomenclature(sb.toString,id)
+      val body = new Array[Byte](in.readPackedInt)
+      in.readFully(body)
+      new Nomenclature(null,id,body)
     }
     override def serialize(out:SerializerOutput,nom:Nomenclature ){
       val id = nom.formatId;
@@ -556,24 +616,13 @@ object Nomenclature  {
         return
       }
 
-      val elems = FormatParser.formatElems(id)
-      val grammar = FormatParser.formatGrammars(id)
-
-      var str = nom.v.replace(' ','_')
-
-      elems.foreach{n=>
-        val result = FormatParser.parse(n.parser,  str).get.replace('_',' ')
-        n.serialize(out,result)
-        //remove already consumed chunk
-        str = str.drop(result.size)
-      }
-
-      //entire string should be consumed
-      assert(str == "","string not fully consumed :"+nom+", rem:'"+str+"', format: "+elems)
+      //compact name is already encoded
+      val body = if(nom.body!=null) nom.body else encode(nom)
+      out.writePackedInt(body.length)
+      out.write(body)
     }
   }
 
-
   object arrayListSerializer extends Serializer[ArrayList[Nomenclature]]{
     override def  deserialize(in:SerializerInput):ArrayList[Nomenclature] = {
       val ret = new ArrayList[Nomenclature](in.readPackedInt)
@@ -603,6 +652,33 @@ object Nomenclature  {
     }
   }
 
+  /**
+   * Write list prefixed by its size in bytes.
+   * Reader can then copy bytes without parsing and decode them only when needed.
+   */
+  def writeLazyList(out:SerializerOutput, names:List[Nomenclature]){
+    if(names.isEmpty){
+      out.writePackedInt(0)
+      return
+    }
+    val buf = new ByteArrayOutputStream()
+    listSerializer.serialize(new SerializerOutput(buf),names)
+    out.writePackedInt(buf.size)
+    buf.writeTo(out)
+  }
+
+  /**
+   * Read list written by `writeLazyList`.
+   * @return function which decodes list
+   */
+  def readLazyList(in:SerializerInput):()=>List[Nomenclature] = {
+    val size = in.readPackedInt
+    if(size == 0) return ()=>Nil
+    val bytes = new Array[Byte](size)
+    in.readFully(bytes)
+    ()=>listSerializer.deserialize(new SerializerInput(new ByteArrayInputStream(bytes)))
+  }
+
   def parseWithID(v:String,id:Int):Nomenclature = {
     val ret = FormatParser.parseNomenclature(v,id).getOrElse{
       throw new Error("Nomenclature could not be parsed: '"+v+"'")
@@ -672,28 +748,6 @@ object Nomenclature  {
     serializer.deserialize(new SerializerInput(in))
   }
 
-
-  def recidsByMame(name2:String, map:java.util.SortedMap[Nomenclature,java.lang.Iterable[JLong]]):Iterator[JLong]={
-    val nameNom = new Nomenclature(name2,-1)
-		val name = nameNom.comparableForm
-		if(!name2.endsWith("%")){
-
-			val ret = map.get(nameNom)
-			if(ret == null) Nil.iterator
-			else ret.iterator
-		}else{
-      assert(name.endsWith("%"))
-			val namePrefix = name.substring(0, name.length -1)
-			val name2 = Nomenclature.parse(namePrefix);
-			//get subset which start at given prefix
-			val subIter = map.tailMap(name2).entrySet.iterator;
-
-			subIter
-				.takeWhile(_.getKey.comparableForm.startsWith(namePrefix))
-				.flatMap(_.getValue.iterator) //translate from Map.Entry to bunch of Longs
-		}
-  }
-
 }
 
 trait HasNomenclature{
@@ -0,0 +1,214 @@
+package org.asterope.data
+
+import org.asterope.util._
+import org.asterope.healpix._
+import org.apache.commons.math.geometry.Vector3D
+import collection.mutable.ArrayBuffer
+import java.io.DataOutputStream
+import java.nio.{ByteBuffer, IntBuffer, DoubleBuffer}
+
+/**
+ * Immutable spatial index of sky lines.
+ * Each line is tessellated into short segments and segments are bucketed
+ * by Healpix cells at `ORDER` they cross. Vertices, segments and buckets are
+ * stored in flat arrays, so query is only walk over cells in area without any DB access.
+ * Arrays are NIO buffers, so index can be read directly from memory-mapped file.
+ * <p>
+ * Segments of one line have continuous ids, so segments found in area
+ * are joined back into polylines.
+ *
+ * @tparam E object which owns line (constellation line, boundary line..)
+ * @author Jan Kotek
+ */
+class SegmentIndex[E] protected[data](
+    /** owners of lines */
+    val items:IndexedSeq[E],
+    /** xyz of all vertices, vertices of one line are continuous */
+    vertices:DoubleBuffer,
+    /** index of item for each segment */
+    segmentItem:IntBuffer,
+    /** index of first vertex for each segment, second vertex follows */
+    segmentVertex:IntBuffer,
+    /** sorted numbers of cells which contain at least one segment */
+    cells:IntBuffer,
+    /** segments in `cells(i)` are `cellSegments(cellStarts(i))` until `cellSegments(cellStarts(i+1))` */
+    cellStarts:IntBuffer,
+    cellSegments:IntBuffer){
+
+  import SegmentIndex._
+
+  /** total number of segments */
+  def segmentCount = segmentItem.limit
+
+  def vertex(i:Int) = new Vector3D(vertices.get(i*3), vertices.get(i*3+1), vertices.get(i*3+2))
+
+  /** @return position of cell in `cells`, or -1 if cell has no segments */
+  private def findCell(cell:Int):Int = {
+    var lo = 0
+    var hi = cells.limit - 1
+    while(lo<=hi){
+      val mid = (lo+hi)>>>1
+      val c = cells.get(mid)
+      if(c<cell) lo = mid+1
+      else if(c>cell) hi = mid-1
+      else return mid
+    }
+    -1
+  }
+
+  /** @return ids of segments which are in cells overlapping with area */
+  def segmentsByArea(area:LongRangeSet):java.util.BitSet = {
+    val ret = new java.util.BitSet(segmentCount)
+    for(cell <- Pixelization.cellsInArea(area, ORDER)){
+      val i = findCell(cell.toInt)
+      if(i>=0){
+        var j = cellStarts.get(i)
+        while(j<cellStarts.get(i+1)){
+          ret.set(cellSegments.get(j))
+          j+=1
+        }
+      }
+    }
+    ret
+  }
+
+  /** @return items which have at least one segment in area */
+  def itemsByArea(area:LongRangeSet):Iterator[E] = {
+    val segments = segmentsByArea(area)
+    val ret = new ArrayBuffer[E]
+    var lastItem = -1
+    var s = segments.nextSetBit(0)
+    while(s>=0){
+      //segments are ordered by item
+      if(segmentItem.get(s)!=lastItem){
+        lastItem = segmentItem.get(s)
+        ret += items(lastItem)
+      }
+      s = segments.nextSetBit(s+1)
+    }
+    ret.iterator
+  }
+
+  /**
+   * Parts of lines in area. Continuous segments of same line are joined into single polyline.
+   * @return owner of line and part of line in area
+   */
+  def polylinesByArea(area:LongRangeSet):Iterator[(E,PolySkyLine)] = {
+    val segments = segmentsByArea(area)
+    val ret = new ArrayBuffer[(E,PolySkyLine)]
+    var s = segments.nextSetBit(0)
+    while(s>=0){
+      val first = s
+      while(segments.get(s+1) && segmentItem.get(s+1) == segmentItem.get(first))
+        s+=1
+      val points = (segmentVertex.get(first) to segmentVertex.get(s)+1).map(vertex(_))
+      ret += ((items(segmentItem.get(first)), PolySkyLine(points)))
+      s = segments.nextSetBit(s+1)
+    }
+    ret.iterator
+  }
+
+  /**
+   * Write flat arrays of index, items are not written.
+   * Index can be read back by `SegmentIndex.read`.
+   */
+  def write(out:DataOutputStream){
+    val ints = List(segmentItem, segmentVertex, cells, cellStarts, cellSegments)
+    out.writeInt(items.size)
+    out.writeInt(vertices.limit)
+    ints.foreach(b=>out.writeInt(b.limit))
+    ints.foreach{b=>
+      for(i<-0 until b.limit) out.writeInt(b.get(i))
+    }
+    for(i<-0 until vertices.limit) out.writeDouble(vertices.get(i))
+  }
+
+}
+
+object SegmentIndex{
+
+  /** Healpix order of cells used as buckets, cells are about 2 degrees */
+  val ORDER = math.min(5, Pixelization.NORDER)
+
+  /** maximal length of segment, it is shorter than cell */
+  val SEGMENT_LENGTH = 0.5.degree
+
+  /** number of points checked on each segment when cells are assigned */
+  protected val SAMPLES = 8
+
+  /**
+   * Tessellates lines and builds index
+   * @param items owners of lines
+   * @param line gets line from owner
+   */
+  def build[E](items:Seq[E])(line:E=>SkyLine):SegmentIndex[E] = {
+    val vertices = new ArrayBuffer[Double]
+    val segmentItem = new ArrayBuffer[Int]
+    val segmentVertex = new ArrayBuffer[Int]
+    //pairs of cell and segment
+    val buckets = new ArrayBuffer[(Int,Int)]
+
+    def addVertex(v:Vector3D){
+      vertices += v.getX
+      vertices += v.getY
+      vertices += v.getZ
+    }
+
+    for((item,itemIndex) <- items.zipWithIndex){
+      val l = line(item)
+      //small tolerance, so rounding errors do not add extra segment
+      val count = math.max(1, math.ceil(l.length.toRadian / SEGMENT_LENGTH.toRadian - 1e-6).toInt)
+      var prev = l.skyLineIteration(0)
+      addVertex(prev)
+      for(k <- 1 to count){
+        val next = if(k==count) l.skyLineIteration(1) else l.skyLineIteration(1d * k / count)
+        val segment = segmentItem.size
+        segmentItem += itemIndex
+        segmentVertex += vertices.size/3 - 1
+        addVertex(next)
+        val segmentCells = (0 to SAMPLES).map{i=>
+          val t = 1d * i / SAMPLES
+          Pixelization.vector2Cell(new Vector3D(1-t, prev, t, next).normalize, ORDER).toInt
+        }.distinct
+        segmentCells.foreach(c=> buckets += ((c,segment)))
+        prev = next
+      }
+    }
+
+    val sorted = buckets.sorted
+    val cells = new ArrayBuffer[Int]
+    val cellStarts = new ArrayBuffer[Int]
+    for(((cell,_),i) <- sorted.zipWithIndex; if(cells.isEmpty || cells.last != cell)){
+      cells += cell
+      cellStarts += i
+    }
+    cellStarts += sorted.size
+
+    new SegmentIndex(items.toIndexedSeq, DoubleBuffer.wrap(vertices.toArray),
+      IntBuffer.wrap(segmentItem.toArray), IntBuffer.wrap(segmentVertex.toArray),
+      IntBuffer.wrap(cells.toArray), IntBuffer.wrap(cellStarts.toArray), IntBuffer.wrap(sorted.map(_._2).toArray))
+  }
+
+  /**
+   * Read index written by `write`. Arrays are views of given buffer, they are not copied.
+   * @param buf with index, position zero is start of index
+   * @param items gets owners of lines, parameter is number of items stored in index
+   */
+  def read[E](buf:ByteBuffer)(items:Int=>IndexedSeq[E]):SegmentIndex[E] = {
+    val itemCount = buf.getInt(0)
+    val vertexCount = buf.getInt(4)
+    val sizes = (0 until 5).map(i=>buf.getInt(8 + i*4))
+    var offset = 8 + sizes.size*4
+    def view(size:Int, bytesPerValue:Int):ByteBuffer = {
+      val b = buf.duplicate()
+      b.position(offset)
+      b.limit(offset + size*bytesPerValue)
+      offset += size*bytesPerValue
+      b.slice().order(buf.order)
+    }
+    val ints = sizes.map(view(_,4).asIntBuffer)
+    val vertices = view(vertexCount,8).asDoubleBuffer
+    new SegmentIndex(items(itemCount), vertices, ints(0), ints(1), ints(2), ints(3), ints(4))
+  }
+
+}
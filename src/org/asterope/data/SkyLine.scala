@@ -135,3 +135,34 @@ case class TwoPointSkyLine(v1:Vector3D, v2:Vector3D) extends SkyLine{
 	override def end = v2
 	override def length = Vector3D.angle(v1,v2).radian
 }
+
+/**
+ * Line connecting points with short great circle segments.
+ * Is used for parts of tessellated lines returned by `SegmentIndex`.
+ * Points inside segment are interpolated linearly and normalized,
+ * so segments should be only few degrees long.
+ */
+case class PolySkyLine(points:IndexedSeq[Vector3D]) extends SkyLine{
+	assert(points.size>=2, "line needs at least two points")
+
+	/** length from start to each point in radians */
+	private val lengths = points.indices.scanLeft(0d){(l,i)=>
+		if(i==0) l else l + Vector3D.angle(points(i-1),points(i))
+	}.tail.toArray
+
+	override def skyLineIteration(zeroToOne:Double): Vector3D = {
+		val l = zeroToOne * lengths.last
+		var i = java.util.Arrays.binarySearch(lengths, l)
+		if(i<0) i = -i - 2 //segment which contains l
+		if(i<0) return points.head
+		if(i>=points.size-1) return points.last
+		val segment = lengths(i+1) - lengths(i)
+		if(segment == 0) return points(i)
+		val t = (l - lengths(i)) / segment
+		new Vector3D(1-t, points(i), t, points(i+1)).normalize
+	}
+
+	override def start = points.head
+	override def end = points.last
+	override def length = lengths.last.radian
+}
@@ -0,0 +1,134 @@
+package org.asterope.data
+
+import org.asterope.util._
+
+/**
+ * Stars stored in parallel primitive arrays.
+ * It is filled by LiteStarDao and painted by chart without creating object for each star.
+ * Full LiteStar is created only on demand, for example for labels or double star decoration.
+ *
+ * @param loader creates LiteStar from reference stored with star (recid or index in tile store)
+ * @param initialCapacity size of arrays, they grow if needed
+ *
+ * @author Jan Kotek
+ */
+class StarBatch(loader:Long=>LiteStar, initialCapacity:Int = 1024){
+  import StarBatch._
+
+  private var _size = 0
+  private var _ra = new Array[Int](initialCapacity)
+  private var _de = new Array[Int](initialCapacity)
+  private var _mag = new Array[Double](initialCapacity)
+  private var _flags = new Array[Byte](initialCapacity)
+  private var _x = new Array[Double](initialCapacity)
+  private var _y = new Array[Double](initialCapacity)
+  private var _z = new Array[Double](initialCapacity)
+  private var _refs = new Array[Long](initialCapacity)
+
+  /** number of stars in batch */
+  def size = _size
+
+  /** RA in miliarcseconds */
+  def ra = _ra
+  /** declination in miliarcseconds */
+  def de = _de
+  /** magnitude */
+  def mag = _mag
+  /** combination of FLAG_VARIABLE and FLAG_BINARY */
+  def flags = _flags
+  /** unit vector with star position */
+  def x = _x
+  def y = _y
+  def z = _z
+
+  def isVariable(i:Int) = (_flags(i) & FLAG_VARIABLE) != 0
+  def isBinary(i:Int) = (_flags(i) & FLAG_BINARY) != 0
+
+  /** add star into batch */
+  def add(raMas:Int, deMas:Int, mag:Double, flags:Byte, ref:Long){
+    if(_size == _ra.length) grow()
+    _ra(_size) = raMas
+    _de(_size) = deMas
+    _mag(_size) = mag
+    _flags(_size) = flags
+    //same as rade2Vector
+    val raRad = raMas * Angle.Mas2R
+    val deRad = deMas * Angle.Mas2R
+    val cosDe = math.cos(deRad)
+    _x(_size) = cosDe * math.cos(raRad)
+    _y(_size) = cosDe * math.sin(raRad)
+    _z(_size) = math.sin(deRad)
+    _refs(_size) = ref
+    _size+=1
+  }
+
+  /** add star into batch, is used when star is already deserialized */
+  def add(s:LiteStar, ref:Long){
+    val isVariable = s.minMag.isDefined
+    val isBinary = s.separation.isDefined && s.posAngle.isDefined
+    add(s.ra.toMas.toInt, s.de.toMas.toInt, s.mag.mag,
+      ((if(isVariable) FLAG_VARIABLE else 0) | (if(isBinary) FLAG_BINARY else 0)).toByte, ref)
+  }
+
+  /** copy star from other batch, position vector is not calculated again */
+  def addFrom(b:StarBatch, i:Int){
+    if(_size == _ra.length) grow()
+    _ra(_size) = b._ra(i)
+    _de(_size) = b._de(i)
+    _mag(_size) = b._mag(i)
+    _flags(_size) = b._flags(i)
+    _x(_size) = b._x(i)
+    _y(_size) = b._y(i)
+    _z(_size) = b._z(i)
+    _refs(_size) = b._refs(i)
+    _size+=1
+  }
+
+  /** create full LiteStar for star at given index */
+  def star(i:Int):LiteStar = loader(_refs(i))
+
+  /** @return lightweight reference to star at given index */
+  def ref(i:Int) = new StarRef(this,i)
+
+  private def grow(){
+    val size2 = math.max(16, _ra.length * 2)
+    _ra = java.util.Arrays.copyOf(_ra, size2)
+    _de = java.util.Arrays.copyOf(_de, size2)
+    _mag = java.util.Arrays.copyOf(_mag, size2)
+    _flags = java.util.Arrays.copyOf(_flags, size2)
+    _x = java.util.Arrays.copyOf(_x, size2)
+    _y = java.util.Arrays.copyOf(_y, size2)
+    _z = java.util.Arrays.copyOf(_z, size2)
+    _refs = java.util.Arrays.copyOf(_refs, size2)
+  }
+
+}
+
+object StarBatch{
+  val FLAG_VARIABLE = 1
+  val FLAG_BINARY = 2
+}
+
+/**
+ * Reference to star in batch, is used as chart object instead of LiteStar.
+ * Equality is given by position and magnitude, so same star is equal in next chart refresh.
+ */
+class StarRef(val batch:StarBatch, val index:Int){
+
+  def mag:Double = batch.mag(index)
+
+  /** full star, created on first access */
+  lazy val star:LiteStar = batch.star(index)
+
+  override def equals(o:Any) = o match{
+    case r:StarRef =>
+      batch.ra(index) == r.batch.ra(r.index) &&
+      batch.de(index) == r.batch.de(r.index) &&
+      mag == r.mag
+    case _ => false
+  }
+
+  override def hashCode = batch.ra(index) * 31 + batch.de(index)
+
+  override def toString = "StarRef("+star+")"
+}
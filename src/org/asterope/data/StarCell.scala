@@ -0,0 +1,79 @@
+package org.asterope.data
+
+import jdbm.{Serializer, SerializerInput, SerializerOutput}
+
+/**
+ * Content of one Healpix cell in LiteStarDao Mag/Healpix index.
+ * Recids are sorted by magnitude and parallel array of magnitudes (in milimag)
+ * serves as small directory, so query can stop reading cell at limiting magnitude.
+ *
+ * @author Jan Kotek
+ */
+protected[data] class StarCell(val recids:Array[Long], val mags:Array[Short]){
+  assert(recids.size == mags.size)
+
+  def size = recids.size
+
+  /** @return number of stars brighter than given limit, those are at start of cell */
+  def countBrighter(limitMilimag:Double):Int = StarCell.lowerBound(mags, 0, size, limitMilimag)
+
+  /** @return new cell with added star, star is placed after stars with same magnitude */
+  def add(recid:Long, mag:Short):StarCell =
+    merge(new StarCell(Array(recid),Array(mag)))
+
+  /** @return new cell which contains stars from both cells, sorted by magnitude */
+  def merge(cell:StarCell):StarCell = {
+    val recids2 = new Array[Long](size + cell.size)
+    val mags2 = new Array[Short](size + cell.size)
+    var i = 0
+    var j = 0
+    while(i+j<recids2.size){
+      val takeThis = j>=cell.size || (i<size && mags(i)<=cell.mags(j))
+      if(takeThis){
+        recids2(i+j) = recids(i)
+        mags2(i+j) = mags(i)
+        i+=1
+      }else{
+        recids2(i+j) = cell.recids(j)
+        mags2(i+j) = cell.mags(j)
+        j+=1
+      }
+    }
+    new StarCell(recids2,mags2)
+  }
+
+}
+
+protected[data] object StarCell{
+
+  val EMPTY = new StarCell(new Array[Long](0), new Array[Short](0))
+
+  /** @return index of first item in range with magnitude equal or bigger than limit */
+  def lowerBound(mags:Int=>Short, from:Int, to:Int, limitMilimag:Double):Int = {
+    var lo = from
+    var hi = to
+    while(lo<hi){
+      val mid = (lo+hi)>>>1
+      if(mags(mid)<limitMilimag) lo = mid+1
+      else hi = mid
+    }
+    lo
+  }
+
+  object serializer extends Serializer[StarCell]{
+    def serialize(out:SerializerOutput, cell:StarCell){
+      out.writePackedInt(cell.size)
+      cell.mags.foreach(out.writeShort(_))
+      cell.recids.foreach(out.writeLong(_))
+    }
+
+    def deserialize(in:SerializerInput):StarCell = {
+      val size = in.readPackedInt
+      val mags = new Array[Short](size)
+      for(i<-0 until size) mags(i) = in.readShort
+      val recids = new Array[Long](size)
+      for(i<-0 until size) recids(i) = in.readLong
+      new StarCell(recids,mags)
+    }
+  }
+}
@@ -0,0 +1,329 @@
+package org.asterope.data
+
+import java.io._
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import org.asterope.util._
+import org.asterope.healpix._
+import jdbm.{SerializerInput, SerializerOutput}
+
+/**
+ * Read-only storage for LiteStars, organized in tiles by magnitude bucket and Healpix ipix.
+ * It is built by CompileDb from already imported stars and memory-mapped at runtime,
+ * so chart query reads few sequential slices instead of fetching each star from JDBM.
+ * <p>
+ * Stars are stored as packed primitive columns (ra, de, mag, flags...) sorted by
+ * (magnitude bucket, ipix, magnitude). Tile directory maps each tile to index of its first star.
+ * Magnitude column is sorted inside each tile, so query reads tile only until limiting magnitude.
+ * Names are stored in separate block and decoded lazily, only for stars which are labeled.
+ * <p>
+ * File is mapped with single MappedByteBuffer, so its size is limited to 2GB.
+ * Store can also be section of bigger file, such as DistributionSnapshot.
+ *
+ * @author Jan Kotek
+ */
+class StarTileStore(buf:ByteBuffer, name:String){
+  import StarTileStore._
+
+  /** map whole file */
+  def this(file:File) = this(StarTileStore.map(file), file.getPath)
+
+  if(buf.getInt(0) != MAGIC) throw new IOException("Not an star tile file: "+name)
+  if(buf.getInt(4) != VERSION) throw new IOException("Unsupported star tile file version: "+buf.getInt(4))
+
+  val tileCount = buf.getInt(8)
+  val starCount = buf.getInt(12)
+
+  /* offsets of columns in file */
+  private val dirOff = HEADER_SIZE
+  private val raOff = dirOff + tileCount * 12
+  private val deOff = raOff + starCount * 4
+  private val magOff = deOff + starCount * 4
+  private val flagsOff = magOff + starCount * 2
+  private val posAngleOff = flagsOff + starCount
+  private val separationOff = posAngleOff + starCount * 4
+  private val maxMagOff = separationOff + starCount * 4
+  private val minMagOff = maxMagOff + starCount * 2
+  private val nameOffsetOff = minMagOff + starCount * 2
+  private val namesOff = nameOffsetOff + (starCount+1) * 4
+
+  /** tile keys (see `tileKey`), sorted, directory is small so it is loaded on heap */
+  private val tileKeys = new Array[Long](tileCount)
+  /** index of first star in tile, last item is `starCount` */
+  private val tileFirstStar = new Array[Int](tileCount+1)
+
+  {
+    var i = 0
+    while(i<tileCount){
+      tileKeys(i) = buf.getLong(dirOff + i*12)
+      tileFirstStar(i) = buf.getInt(dirOff + i*12 + 8)
+      i+=1
+    }
+    tileFirstStar(tileCount) = starCount
+  }
+
+  /**
+   * Query stars by given area and limiting magnitude.
+   *
+   * @param area limit
+   * @param buckets magnitude buckets to read, all stars in buckets before last one must be brighter than limit
+   * @param limitMag limiting magnitude, stars in last bucket are filtered by it
+   * @return iterator over matching stars
+   */
+  def starsByAreaMag(area:LongRangeSet, buckets:Seq[Int], limitMag:Magnitude):Iterator[LiteStar] =
+    ranges(area,buckets,limitMag)
+      .flatMap{case (from,to) => (from until to).iterator}
+      .map(star(_))
+
+  /**
+   * Same as `starsByAreaMag`, but stars are copied into primitive batch.
+   * LiteStar is decoded only when batch asks for it.
+   */
+  def starBatchByAreaMag(area:LongRangeSet, buckets:Seq[Int], limitMag:Magnitude):StarBatch = {
+    val batch = new StarBatch(i=>star(i.toInt))
+    ranges(area,buckets,limitMag).foreach{case (from,to) =>
+      var i = from
+      while(i<to){
+        batch.add(buf.getInt(raOff + i*4), buf.getInt(deOff + i*4), mag(i)/1000D, buf.get(flagsOff + i), i)
+        i+=1
+      }
+    }
+    batch
+  }
+
+  /**
+   * @return ranges of star indexes which match query, (from,to) where `to` is exclusive
+   */
+  protected def ranges(area:LongRangeSet, buckets:Seq[Int], limitMag:Magnitude):Iterator[(Int,Int)] = {
+    if(buckets.isEmpty) return Iterator.empty
+    val limitMilimag = limitMag.toMilimag
+    val lastBucket = buckets.last
+    slices(area,buckets).iterator
+      .flatMap{case (bucket,lo,hi) =>
+        if(bucket != lastBucket)
+          Iterator((tileFirstStar(lo), tileFirstStar(hi)))
+        else //stars in tile are sorted by magnitude, so stop reading tile at limit
+          (lo until hi).iterator.map{t=>
+            val from = tileFirstStar(t)
+            (from, StarCell.lowerBound(mag(_), from, tileFirstStar(t+1), limitMilimag))
+          }
+      }
+  }
+
+  /**
+   * Translate area into slices of tiles.
+   * Tiles are sorted by (bucket,ipix), so each range in area is one continuous slice.
+   * @return sequence of (bucket,lo,hi) tile indexes, `hi` is exclusive
+   */
+  protected def slices(area:LongRangeSet, buckets:Seq[Int]):Seq[(Int,Int,Int)] = {
+    val areaSeq = Pixelization.rangeSetToSeq(area)
+    for(
+      bucket <- buckets;
+      (first,last) <- areaSeq;
+      first2 = math.max(0L, first);
+      last2 = math.min(MAX_IPIX, last);
+      if(first2<=last2);
+      lo = lowerBound(tileKey(bucket,first2));
+      hi = lowerBound(tileKey(bucket,last2+1));
+      if(lo<hi)
+    ) yield (bucket, lo, hi)
+  }
+
+  private def lowerBound(key:Long):Int = {
+    val i = java.util.Arrays.binarySearch(tileKeys,key)
+    if(i>=0) i else -i-1
+  }
+
+  /** magnitude of star at given index in milimag */
+  protected def mag(i:Int):Short = buf.getShort(magOff + i*2)
+
+  /** decode star at given index */
+  protected[data] def star(i:Int):LiteStar = {
+    val flags = buf.get(flagsOff + i)
+    val isVariable = (flags & FLAG_VARIABLE)!=0
+    val isBinary = (flags & FLAG_BINARY)!=0
+    new LiteStar(
+      ra = buf.getInt(raOff + i*4).mas,
+      de = buf.getInt(deOff + i*4).mas,
+      mag = Magnitude(mag(i)/1000D),
+      posAngle = if(isBinary) Some(buf.getInt(posAngleOff + i*4).mas) else None,
+      separation = if(isBinary) Some(buf.getInt(separationOff + i*4).mas) else None,
+      maxMag = if(isVariable) Some(Magnitude(buf.getShort(maxMagOff + i*2)/1000D)) else None,
+      minMag = if(isVariable) Some(Magnitude(buf.getShort(minMagOff + i*2)/1000D)) else None
+    )(()=>names(i))
+  }
+
+  /** decode names of star at given index */
+  protected def names(i:Int):List[Nomenclature] = {
+    val from = buf.getInt(nameOffsetOff + i*4)
+    val to = buf.getInt(nameOffsetOff + (i+1)*4)
+    val b = buf.duplicate()
+    b.position(namesOff + from)
+    b.limit(namesOff + to)
+    Nomenclature.listSerializer.deserialize(new SerializerInput(new ByteBufferInputStream(b)))
+  }
+
+}
+
+object StarTileStore{
+
+  protected[data] val MAGIC = 0x41535431 //'AST1'
+  protected[data] val VERSION = 3
+  protected[data] val HEADER_SIZE = 16
+
+  val FLAG_VARIABLE = StarBatch.FLAG_VARIABLE
+  val FLAG_BINARY = StarBatch.FLAG_BINARY
+
+  /** biggest ipix for Healpix NSIDE used in Asterope */
+  protected[data] val MAX_IPIX = PixTools.Nside2Npix(Pixelization.NSIDE) - 1
+
+  /** combine magnitude bucket and ipix into single sortable key */
+  def tileKey(bucket:Int, ipix:Long):Long = (bucket.toLong << 40) | ipix
+
+  /** map file read-only */
+  protected[data] def map(file:File):ByteBuffer = {
+    val raf = new RandomAccessFile(file,"r")
+    try{
+      assert(raf.length < Int.MaxValue, "File is too big to be mapped: "+raf.length)
+      raf.getChannel.map(FileChannel.MapMode.READ_ONLY, 0, raf.length)
+    }finally{
+      raf.close()
+    }
+  }
+
+  /** @return true if file exists and starts with given magic and version */
+  protected[data] def hasHeader(file:File, magic:Int, version:Int):Boolean = {
+    if(!file.exists) return false
+    val in = new DataInputStream(new FileInputStream(file))
+    try{
+      in.readInt == magic && in.readInt == version
+    }catch{
+      case e:EOFException => false
+    }finally{
+      in.close()
+    }
+  }
+
+  /** @return true if file exists and was written by current version */
+  def isCurrent(file:File) = hasHeader(file, MAGIC, VERSION)
+
+  /**
+   * @return store for given file, or None if file does not exist or was written by other version.
+   * In that case LiteStarDao reads stars from JDBM.
+   */
+  def open(file:File):Option[StarTileStore] = {
+    if(!file.exists) return None
+    if(!isCurrent(file)){
+      Log.warning("Star tile file "+file+" is not current version and is ignored, run CompileDb to rebuild it")
+      return None
+    }
+    try{
+      Some(new StarTileStore(file))
+    }catch{
+      case e:IOException =>
+        Log.warning("Could not open star tile file "+file, e)
+        None
+    }
+  }
+
+  /**
+   * Write stars into new tile file.
+   * Columns are first written into temporary files, and concatenated at end.
+   *
+   * @param file to write into, is replaced if exists
+   * @param stars pairs of (magnitude bucket, star), must be sorted by bucket, ipix and magnitude
+   */
+  def write(file:File, stars:Iterator[(Int,LiteStar)]){
+    file.getParentFile.mkdirs()
+    def column(name:String) = {
+      val f = new File(file.getPath+"."+name+".tmp")
+      (f, new SerializerOutput(new BufferedOutputStream(new FileOutputStream(f))))
+    }
+    val dir = column("dir")
+    val ra = column("ra")
+    val de = column("de")
+    val mag = column("mag")
+    val flags = column("flags")
+    val posAngle = column("pa")
+    val separation = column("sep")
+    val maxMag = column("maxMag")
+    val minMag = column("minMag")
+    val nameOffset = column("nameOffset")
+    val names = column("names")
+    val columns = List(dir,ra,de,mag,flags,posAngle,separation,maxMag,minMag,nameOffset,names)
+
+    var tileCount = 0
+    var starCount = 0
+    var lastKey = -1L
+    var lastMag = Short.MinValue
+    try{
+      stars.foreach{case (bucket,s) =>
+        val key = tileKey(bucket,s.ipix)
+        val milimag = s.mag.toMilimag.toShort
+        assert(key>=lastKey, "stars are not sorted by bucket and ipix")
+        if(key!=lastKey){
+          dir._2.writeLong(key)
+          dir._2.writeInt(starCount)
+          tileCount+=1
+          lastKey = key
+        }else
+          assert(milimag>=lastMag, "stars in tile are not sorted by magnitude")
+        lastMag = milimag
+        val isVariable = s.minMag.isDefined
+        val isBinary = s.separation.isDefined && s.posAngle.isDefined
+        ra._2.writeInt(s.ra.toMas.toInt)
+        de._2.writeInt(s.de.toMas.toInt)
+        mag._2.writeShort(milimag)
+        flags._2.writeByte((if(isVariable) FLAG_VARIABLE else 0) | (if(isBinary) FLAG_BINARY else 0))
+        posAngle._2.writeInt(if(isBinary) s.posAngle.get.toMas.toInt else 0)
+        separation._2.writeInt(if(isBinary) s.separation.get.toMas.toInt else 0)
+        maxMag._2.writeShort(if(isVariable) s.maxMag.get.toMilimag.toShort else 0)
+        minMag._2.writeShort(if(isVariable) s.minMag.get.toMilimag.toShort else 0)
+        nameOffset._2.writeInt(names._2.size)
+        Nomenclature.listSerializer.serialize(names._2,s.names)
+        starCount+=1
+      }
+      nameOffset._2.writeInt(names._2.size)
+      columns.foreach(_._2.close())
+
+      //concatenate header and columns into single file
+      val tmpFile = new File(file.getPath+".tmp")
+      val out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))
+      out.writeInt(MAGIC)
+      out.writeInt(VERSION)
+      out.writeInt(tileCount)
+      out.writeInt(starCount)
+      columns.foreach{c=>
+        val in = new FileInputStream(c._1)
+        IOUtil.copy(in,out,32768)
+        in.close()
+      }
+      out.close()
+      file.delete()
+      if(!tmpFile.renameTo(file))
+        throw new IOException("Could not rename "+tmpFile+" to "+file)
+    }finally{
+      columns.foreach{c=>
+        c._2.close()
+        c._1.delete()
+      }
+    }
+    Log.info("Star tiles written, "+starCount+" stars in "+tileCount+" tiles")
+  }
+
+}
+
+/** InputStream which reads from ByteBuffer, is used to deserialize data from memory mapped files */
+protected[data] class ByteBufferInputStream(b:ByteBuffer) extends InputStream{
+
+  override def read():Int = if(b.hasRemaining) b.get() & 0xFF else -1
+
+  override def read(bytes:Array[Byte], off:Int, len:Int):Int = {
+    if(!b.hasRemaining) return -1
+    val len2 = math.min(len, b.remaining)
+    b.get(bytes,off,len2)
+    len2
+  }
+
+  override def available = b.remaining
+}
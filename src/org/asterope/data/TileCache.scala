@@ -0,0 +1,132 @@
+package org.asterope.data
+
+import java.util.concurrent.atomic.AtomicLong
+import org.asterope.util._
+import org.asterope.healpix.LongRangeSet
+
+/**
+ * Size bounded LRU cache of decoded tiles.
+ * Chart is often refreshed with area which overlaps previous one (panning, zooming),
+ * so most tiles are reused without reading and deserializing them again.
+ * <p>
+ * Size of each tile is estimated by `weight` function (roughly in bytes),
+ * least recently used tiles are evicted when total weight exceeds `budget`.
+ *
+ * @param budget maximal total weight of cached tiles, 0 disables cache
+ * @param weight estimated size of tile
+ *
+ * @author Jan Kotek
+ */
+class TileCache[V](val budget:Long, weight:V=>Long){
+
+  private val map = new java.util.LinkedHashMap[java.lang.Long,V](16, 0.75f, true)
+  private var used = 0L
+
+  private val _hits = new AtomicLong
+  private val _misses = new AtomicLong
+  private val _evictions = new AtomicLong
+
+  /**
+   * Returns cached tile, or loads it and puts into cache.
+   * Loading is done outside of lock, so concurrent queries are not blocked by slow read.
+   */
+  def get(key:Long)(load: =>V):V = {
+    val cached = synchronized{ map.get(key) }
+    if(cached!=null){
+      _hits.incrementAndGet
+      return cached
+    }
+    _misses.incrementAndGet
+    val tile = load
+    put(key,tile)
+    tile
+  }
+
+  def put(key:Long, tile:V) = synchronized{
+    val w = weight(tile)
+    if(w<=budget){
+      val old = map.put(key,tile)
+      if(old!=null) used -= weight(old)
+      used += w
+      evict()
+    }
+  }
+
+  private def evict(){
+    val iter = map.values.iterator
+    while(used>budget && iter.hasNext){
+      used -= weight(iter.next)
+      iter.remove()
+      _evictions.incrementAndGet
+    }
+  }
+
+  /** remove all tiles, is called when underlying data are modified */
+  def clear() = synchronized{
+    map.clear()
+    used = 0
+  }
+
+  def hits = _hits.get
+  def misses = _misses.get
+  def evictions = _evictions.get
+  /** number of cached tiles */
+  def size = synchronized{ map.size }
+  /** total weight of cached tiles */
+  def usedWeight = synchronized{ used }
+
+  override def toString = "TileCache(size="+size+", used="+usedWeight+"/"+budget+
+      ", hits="+hits+", misses="+misses+", evictions="+evictions+")"
+}
+
+/**
+ * Tile cache for objects indexed by Healpix.
+ * Tile is cell at `order`, it contains (fine ipix, object) pairs sorted by ipix.
+ * <p>
+ * Only narrow fields are cached. Wide area would be split into thousands of tiles
+ * and flush whole cache, so it is loaded directly by ranges of area.
+ *
+ * @param order Healpix order of tiles
+ * @param itemWeight estimated size of single object
+ * @param maxTiles areas with more tiles than this are not cached
+ */
+class AreaTileCache[E](val order:Int, budget:Long, itemWeight:Long, val maxTiles:Int = AreaTileCache.MAX_TILES)
+    extends TileCache[Array[(Long,E)]](budget, tile=> 64 + tile.length * (itemWeight+32)){
+
+  /**
+   * Query objects in area.
+   * Tiles fully inside area are returned whole, others are filtered by ipix.
+   *
+   * @param load loads pairs in range of fine ipix (inclusive)
+   */
+  def byArea(area:LongRangeSet)(load:(Long,Long)=>Iterator[(Long,E)]):Iterator[E] = {
+    val cells = Pixelization.cellsInArea(area,order)
+    if(cells.size>maxTiles)
+      return Pixelization.rangeSetToSeq(area).iterator.flatMap{case (lo,hi)=> load(lo,hi).map(_._2)}
+
+    cells.iterator.flatMap{cell=>
+      val (lo,hi) = Pixelization.cellRange(order,cell)
+      val tile = get(cell)(load(lo,hi).toArray)
+      if(area.containsAll(lo,hi)) tile.iterator.map(_._2)
+      else tile.iterator.filter(p=>area.contains(p._1)).map(_._2)
+    }
+  }
+
+  /** load tiles for area into cache, stops when thread is interrupted */
+  def prefetch(area:LongRangeSet)(load:(Long,Long)=>Iterator[(Long,E)]){
+    val cells = Pixelization.cellsInArea(area,order)
+    //wide area is not cached, see `byArea`
+    if(cells.size>maxTiles) return
+    cells.foreach{cell=>
+      checkInterrupted()
+      val (lo,hi) = Pixelization.cellRange(order,cell)
+      get(cell)(load(lo,hi).toArray)
+    }
+  }
+
+}
+
+object AreaTileCache{
+  /** about 15 degrees wide field at order 5 */
+  val MAX_TILES = 128
+}
@@ -113,6 +113,314 @@ case class FixedWidthLineParser(
 	/** used for rade2Vector tests
 	 * @return column definition which corresponds to given name */
 	def getCol(colName:String):FixedWidthColumn = cols.find(_.colName == colName).get
+
+	/** @return column plan which parses lines of this format without creating `DataRow` */
+	def compile:ColumnPlan = new ColumnPlan(cols)
+}
+
+/**
+ * Fixed width format compiled into column plan.
+ * Column positions and units are resolved once, values are then parsed straight
+ * from line characters into primitive types.
+ * So no substrings, `DataItem`s or BigDecimals are created for each line,
+ * which matters when catalog with milions of lines is imported.
+ * <p>
+ * Columns are referenced by index returned from `column`. Getters throw NumberFormatException
+ * if value is empty, use `isEmpty` for optional columns. Decimal values are parsed as fixed point
+ * numbers, so results are same as from `DataRow` which uses BigDecimal.
+ * <p>
+ * Plan is immutable and thread safe. Line is any CharSequence, `AsciiLine` wraps bytes without decoding.
+ */
+class ColumnPlan(cols:Seq[FixedWidthColumn]){
+	import ColumnPlan._
+
+	private val starts = cols.map(_.start).toArray
+	private val ends = cols.map(_.end).toArray
+	private val names = cols.map(_.colName).toArray
+	/** microarcseconds in one unit of column, zero if column is not angle */
+	private val uas = cols.map(_.unit.flatMap(uasPerUnit(_)).getOrElse(0L)).toArray
+
+	private val raJ2000 = indexOf("_RAJ2000")
+	private val deJ2000 = indexOf("_DEJ2000")
+	private val raH = indexOf("RAh")
+	private val raM = indexOf("RAm")
+	private val raS = indexOf("RAs")
+	private val deSign = indexOf("DE-")
+	private val deD = indexOf("DEd")
+	private val deM = indexOf("DEm")
+	private val deS = indexOf("DEs")
+
+	/** @return index of column with given name, or -1 if column is not defined */
+	def indexOf(colName:String):Int = names.indexOf(colName)
+
+	/** @return index of column with given name, throws IllegalArgumentException if column is not defined */
+	def column(colName:String):Int = {
+		val i = indexOf(colName)
+		if(i == -1)
+			throw new IllegalArgumentException("Column '"+colName+"' was not found, known columns:"+names.mkString(", "))
+		i
+	}
+
+	/** @return false for lines skipped by `FixedWidthLineParser`: empty, comments and separators */
+	def isData(line:CharSequence):Boolean =
+		line != null && line.length > 0 && line.charAt(0) != '#' && line.charAt(0) != '|'
+
+	private def check(col:Int, colName:String):Int = {
+		if(col == -1) column(colName) //throws exception
+		col
+	}
+
+	/** first non blank char in column */
+	private def from(line:CharSequence, col:Int):Int = {
+		val e = until(line,col)
+		var i = math.min(starts(col), line.length)
+		while(i<e && line.charAt(i) <= ' ') i+=1
+		i
+	}
+
+	/** end of column without trailing blank chars */
+	private def to(line:CharSequence, col:Int):Int = {
+		val s = math.min(starts(col), line.length)
+		var e = until(line,col)
+		while(e>s && line.charAt(e-1) <= ' ') e-=1
+		e
+	}
+
+	private def until(line:CharSequence, col:Int) =
+		if(ends(col) == -1) line.length //-1 means till end of line
+		else math.min(ends(col), line.length)
+
+	private def value(line:CharSequence, col:Int) = line.subSequence(from(line,col), to(line,col)).toString
+
+	private def notNumber(line:CharSequence, col:Int) =
+		new NumberFormatException("Can not convert value '"+value(line,col)+"' in column '"+names(col)+"' to number")
+
+	/** @return true if column is blank on given line */
+	def isEmpty(line:CharSequence, col:Int):Boolean = from(line,col) >= to(line,col)
+
+	/** @return trimmed value, or None if column is empty. This is only getter which allocates. */
+	def getString(line:CharSequence, col:Int):Option[String] =
+		if(isEmpty(line,col)) None
+		else Some(value(line,col))
+
+	/**
+	 * @return number of digits after decimal point, or -1 if number has exponent
+	 */
+	private def fraction(line:CharSequence, col:Int):Int = {
+		val e = to(line,col)
+		var i = from(line,col)
+		var ret = 0
+		var point = false
+		while(i<e){
+			val c = line.charAt(i)
+			if(c == 'e' || c == 'E') return -1
+			if(point && c>='0' && c<='9') ret+=1
+			if(c == '.') point = true
+			i+=1
+		}
+		ret
+	}
+
+	/**
+	 * Parses decimal number in column as fixed point Long with `scale` digits after decimal point.
+	 * Spaces inside number are ignored, same as in `DataRow`.
+	 *
+	 * @param exact if true, digits beyond scale must be zero, otherwise value is rounded half up
+	 * @throws ArithmeticException if value is not exact
+	 */
+	def getFixed(line:CharSequence, col:Int, scale:Int, exact:Boolean = false):Long = {
+		var i = from(line,col)
+		val e = to(line,col)
+		if(i>=e) throw new NumberFormatException("Column '"+names(col)+"' is empty")
+		var negative = false
+		if(line.charAt(i) == '-' || line.charAt(i) == '+'){
+			negative = line.charAt(i) == '-'
+			i+=1
+		}
+		var ret = 0L
+		var digits = 0
+		var frac = -1 //digits after decimal point, -1 before decimal point
+		var roundUp = false
+		while(i<e){
+			val c = line.charAt(i)
+			if(c>='0' && c<='9'){
+				if(frac<scale){
+					ret = ret * 10 + (c - '0')
+					if(frac != -1) frac+=1
+				}else{
+					//digit beyond scale
+					if(exact && c!='0')
+						throw new ArithmeticException("Value '"+value(line,col)+"' in column '"+names(col)+"' has more than "+scale+" decimal digits")
+					if(frac == scale && c>='5') roundUp = true
+					frac+=1
+				}
+				digits+=1
+			}else if(c == '.' && frac == -1){
+				frac = 0
+			}else if(c != ' '){
+				throw notNumber(line,col)
+			}
+			i+=1
+		}
+		if(digits == 0) throw notNumber(line,col)
+		var s = math.max(frac,0)
+		while(s<scale){
+			ret *= 10
+			s+=1
+		}
+		if(roundUp) ret+=1
+		if(negative) -ret else ret
+	}
+
+	/** @return integer value, spaces inside number are ignored */
+	def getInt(line:CharSequence, col:Int):Int = {
+		if(fraction(line,col) != 0) throw notNumber(line,col)
+		getFixed(line,col,0,true).toInt
+	}
+
+	def getLong(line:CharSequence, col:Int):Long = {
+		if(fraction(line,col) != 0) throw notNumber(line,col)
+		getFixed(line,col,0,true)
+	}
+
+	/**
+	 * Parses double. Values with up to 15 chars are computed from exact fixed point value,
+	 * which gives same result as `String.toDouble`. Longer values and exponents fall back to `String.toDouble`
+	 */
+	def getDouble(line:CharSequence, col:Int):Double = {
+		val f = fraction(line,col)
+		if(f == -1 || f >= POW10.length || to(line,col) - from(line,col) > 15){
+			try{
+				return value(line,col).replaceAll(" ","").toDouble
+			}catch{
+				case e:NumberFormatException => throw notNumber(line,col)
+			}
+		}
+		getFixed(line,col,f,true) / POW10(f)
+	}
+
+	/** @return magnitude in milimagnitudes, rounded */
+	def getMilimag(line:CharSequence, col:Int):Int = getFixed(line,col,3).toInt
+
+	/** @return magnitude as double, same value as `DataRow.getMag` */
+	def getMag(line:CharSequence, col:Int):Double = getDouble(line,col)
+
+	/** multiplies value in column by factor, result must be whole number*/
+	private def multiply(line:CharSequence, col:Int, factor:Long):Long = {
+		var f = fraction(line,col)
+		if(f == -1) throw notNumber(line,col)
+		val fixed = getFixed(line,col,f,true)
+		//remove powers of ten from factor first, so multiplication does not overflow
+		var factor2 = factor
+		while(f>0 && factor2 % 10 == 0){
+			factor2 /= 10
+			f-=1
+		}
+		val ret = fixed * factor2
+		if(f == 0) return ret
+		val div = POW10L(f)
+		if(ret % div != 0)
+			throw new ArithmeticException("Value '"+value(line,col)+"' in column '"+names(col)+"' is not whole number of microarcseconds")
+		ret / div
+	}
+
+	/**
+	 * Reads value and returns it converted to microarcseconds, same as `DataRow.getAngle`
+	 */
+	def getAngleUas(line:CharSequence, col:Int):Long = {
+		if(uas(col) == 0L)
+			throw new NumberFormatException("Can not convert column '"+names(col)+"' to angle, unknown unit")
+		multiply(line,col,uas(col))
+	}
+
+	/** @return true if all columns with RA are filled */
+	def hasRa(line:CharSequence):Boolean =
+		if(raJ2000 != -1) !isEmpty(line,raJ2000)
+		else !isEmpty(line,check(raH,"RAh")) && !isEmpty(line,check(raM,"RAm")) && !isEmpty(line,check(raS,"RAs"))
+
+	/** @return true if all columns with DE are filled */
+	def hasDe(line:CharSequence):Boolean =
+		if(deJ2000 != -1) !isEmpty(line,deJ2000)
+		else !isEmpty(line,check(deSign,"DE-")) && !isEmpty(line,check(deD,"DEd")) &&
+			!isEmpty(line,check(deM,"DEm")) && !isEmpty(line,check(deS,"DEs"))
+
+	/**
+	 * Parses RA in microarcseconds from '_RAJ2000' or 'RAh', 'RAm' and 'RAs' columns,
+	 * same as `DataRow.getRa`
+	 */
+	def getRaUas(line:CharSequence):Long = {
+		if(raJ2000 != -1) return getAngleUas(line,raJ2000)
+		val h = multiply(line,check(raH,"RAh"),Angle.H2Uas)
+		if(h<0 || h>23 * Angle.H2Uas) throw new IllegalArgumentException("Invalid raHour: "+value(line,raH))
+		val m = multiply(line,check(raM,"RAm"),Angle.HMin2Uas)
+		if(m<0 || m>=60 * Angle.HMin2Uas) throw new IllegalArgumentException("Invalid raMin: "+value(line,raM))
+		val s = multiply(line,check(raS,"RAs"),Angle.HSec2Uas)
+		if(s<0 || s>=60 * Angle.HSec2Uas) throw new IllegalArgumentException("Invalid raSec: "+value(line,raS))
+		h + m + s
+	}
+
+	/**
+	 * Parses DE in microarcseconds from '_DEJ2000' or 'DE-', 'DEd', 'DEm' and 'DEs' columns,
+	 * same as `DataRow.getDe`
+	 */
+	def getDeUas(line:CharSequence):Long = {
+		if(deJ2000 != -1) return getAngleUas(line,deJ2000)
+		val signCol = check(deSign,"DE-")
+		if(isEmpty(line,signCol)) throw new NumberFormatException("Column 'DE-' is empty")
+		val sign = if(line.charAt(from(line,signCol)) == '-') -1 else 1
+		val d = multiply(line,check(deD,"DEd"),Angle.D2Uas)
+		if(d<0 || d>89 * Angle.D2Uas) throw new IllegalArgumentException("Invalid deDegree: "+value(line,deD))
+		val m = multiply(line,check(deM,"DEm"),Angle.M2Uas)
+		if(m<0 || m>=60 * Angle.M2Uas) throw new IllegalArgumentException("Invalid deMin: "+value(line,deM))
+		val s = multiply(line,check(deS,"DEs"),Angle.S2Uas)
+		if(s<0 || s>=60 * Angle.S2Uas) throw new IllegalArgumentException("Invalid deSec: "+value(line,deS))
+		sign * (d + m + s)
+	}
+
+}
+
+object ColumnPlan{
+
+	private val POW10 = Array.iterate(1d,23)(_ * 10)
+	private val POW10L = Array.iterate(1L,19)(_ * 10)
+
+	/** @return microarcseconds in one unit, or None if unit is not angle */
+	def uasPerUnit(unit:String):Option[Long] = unit match{
+		case "deg" => Some(Angle.D2Uas)
+		case "arcmin" => Some(Angle.M2Uas)
+		case "arcsec" | "s/a" | "arcsec/a" => Some(1000L*1000L)
+		case "h" => Some(Angle.H2Uas)
+		case "min" => Some(Angle.HMin2Uas)
+		case "s" => Some(Angle.HSec2Uas)
+		case "mas" | "mas/yr" => Some(1000L)
+		case _ => None
+	}
+}
+
+/**
+ * ASCII text in byte array presented as CharSequence, so `ColumnPlan` can parse records
+ * without decoding them into String. It is mutable and should be reused for all lines.
+ */
+class AsciiLine extends CharSequence{
+	private var bytes:Array[Byte] = Array()
+	private var offset = 0
+	private var len = 0
+
+	/** points this line to given part of byte array */
+	def set(bytes:Array[Byte], offset:Int, length:Int):AsciiLine = {
+		this.bytes = bytes
+		this.offset = offset
+		this.len = length
+		this
+	}
+
+	def length = len
+
+	def charAt(index:Int) = (bytes(offset + index) & 0xFF).toChar
+
+	def subSequence(start:Int, end:Int):CharSequence = new AsciiLine().set(bytes, offset + start, end - start)
+
+	override def toString = new String(bytes, offset, len, "ISO-8859-1")
 }
 
 /**
@@ -228,25 +536,7 @@ case class DataRow(items: List[DataItem]){
         	throw new NumberFormatException("Can not convert to angle, column  '" + colName + "' does not have rade2Vector defined");
         val unit = getItem(colName).unit.get;
 
-        val ret:Long = if ("deg".equals(unit)) {
-            d.*(BigDecimal.valueOf(Angle.D2Uas)).toLongExact;
-        } else if ("arcmin".equals(unit)) {
-            d.*(BigDecimal.valueOf(Angle.M2Uas)).toLongExact;
-        } else if ("arcsec".equals(unit)) {
-            d.*(BigDecimal.valueOf(1000*1000)).toLongExact;
-        } else if ("h".equals(unit)) {
-            d.*(BigDecimal.valueOf(Angle.H2Uas)).toLongExact;
-        } else if ("min".equals(unit)) {
-            d.*(BigDecimal.valueOf(Angle.HMin2Uas)).toLongExact;
-        } else if ("s".equals(unit)) {
-            d.*(BigDecimal.valueOf(Angle.HSec2Uas)).toLongExact;
-        } else if ("s/a".equals(unit) || "arcsec/a".equals(unit)) {
-            d.*(BigDecimal.valueOf(1000*1000)).toLongExact;
-        } else if ("mas/yr".equals(unit)) {
-            d.*(BigDecimal.valueOf(1000)).toLongExact;
-        } else if ("mas".equals(unit)) {
-            d.*(BigDecimal.valueOf(1000)).toLongExact;
-        } else {
+        val ret:Long = ColumnPlan.uasPerUnit(unit).map(f=> d.*(BigDecimal.valueOf(f)).toLongExact).getOrElse{
             throw new NumberFormatException("Can not convert column '" + colName + "', unknown rade2Vector: '" + unit + "'");
         }
         return Some(Angle(ret));
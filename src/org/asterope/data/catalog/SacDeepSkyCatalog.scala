@@ -67,7 +67,7 @@ class SacDeepSkyCatalog extends DataRowTranslateCatalog[DeepSky]{
          }
 
 
-       return Some(new DeepSky(ra=ra2,de=de2, deepSkyType=dstype2, sizeMax=sizeMax2, sizeMin=sizeMin2,
+       return Some(DeepSky(ra=ra2,de=de2, deepSkyType=dstype2, sizeMax=sizeMax2, sizeMin=sizeMin2,
           posAngle=pa2, mag = mag2,names = names2.toList))
      }
 
@@ -36,39 +36,39 @@ class Sky2000Catalog extends LineTranslateCatalog[LiteStar]{
     if (line.length < 4)
       return None;
 
-    val l = parser.parseLine(line).get
+    def str(col:Int) = plan.getString(line, col)
 
     //position
-    val ra = l.getRa().get
-    val de = l.getDe().get
-
-    val mag = l.getMag("Vmag").getOrElse{
-          l.getMag("Vder").getOrElse{
-            Log.warning("Magnitude not defined, skipping star: "+line)
-            return None
-          }
-        }
+    val ra = Angle(plan.getRaUas(line))
+    val de = Angle(plan.getDeUas(line))
+
+    val mag =
+      if(!plan.isEmpty(line, colVmag)) Magnitude(plan.getMag(line, colVmag))
+      else if(!plan.isEmpty(line, colVder)) Magnitude(plan.getMag(line, colVder))
+      else{
+        Log.warning("Magnitude not defined, skipping star: "+line)
+        return None
+      }
 
     val nom = new ListBuffer[Nomenclature]();
 
 
-    nom += Nomenclature.parseWithID("SKY2000 "+l.getString("SKY2000").get,sky2000FormatId)
+    nom += Nomenclature.parseWithID("SKY2000 "+str(colSky2000).get,sky2000FormatId)
 
-    l.getString( "HD").foreach{ hd =>
+    str(colHD).foreach{ hd =>
      nom += Nomenclature("HD "+hd,hdFormatId)
     }
     //TODO handle HD uncertain and duplication flags
     //      42  A1    ---   m_HD      *[1239]? HD duplicity indication
     //        43  A1    ---   u_HD       HD identification uncertain
-    if (l.getString( "SAO").isDefined) {
-      var sao =	l.getString( "SAO").get
-      if (l.getString("m_SAO").isDefined)
-        sao += l.getString( "m_SAO").get
+    str(colSAO).foreach{ s =>
+      var sao = s
+      str(colMSAO).foreach(sao += _)
       sao = "SAO " + sao;
       nom += Nomenclature(sao.replace(":",""), saoFormatId);
     }
 
-    l.getString( "DM").foreach{ dm=>
+    str(colDM).foreach{ dm=>
 //      var dmComponent = 0;
 //      if (l.getString( "m_DM") != null)
 //        dmComponent = CatalogUtils.letterToInt(l.getString("m_DM"));
@@ -76,17 +76,17 @@ class Sky2000Catalog extends LineTranslateCatalog[LiteStar]{
           .replaceAll("([A-Z]{2}[\\-+][0-9]{2})([0-9]+)","$1 $2") /*+ dmComponent * 100*/);
     }
 
-    l.getString( "HR").foreach{hr=>
+    str(colHR).foreach{hr=>
       nom+=Nomenclature.parseWithID("HR " + hr,hrFormatId); //TODO component number was removed here for star name import, what is it?
     }
 
 
-    l.getString("PPM").foreach{ ppm =>
+    str(colPPM).foreach{ ppm =>
       nom+=Nomenclature.parseWithID("PPM "+ ppm,ppmFormatId )
     }
 
 
-    l.getString("Name").map(_.replaceAll("[ ]+", " ").trim()). foreach{name =>
+    str(colName).map(_.replaceAll("[ ]+", " ").trim()). foreach{name =>
       if (name.startsWith("AG"))
         nom+=Nomenclature.parse(name);
       else {
@@ -121,8 +121,8 @@ class Sky2000Catalog extends LineTranslateCatalog[LiteStar]{
     }
 
 
-    val posAngle = l.getAngle("PA")
-    val separation = l.getAngle("sep")
+    val posAngle = if(plan.isEmpty(line, colPA)) None else Some(Angle(plan.getAngleUas(line, colPA)))
+    val separation = if(plan.isEmpty(line, colSep)) None else Some(Angle(plan.getAngleUas(line, colSep)))
 
     //TODO handle VName and variability
     //  99-108  A10   ---     Name     Star name (or AGK3 number)
@@ -258,4 +258,19 @@ class Sky2000Catalog extends LineTranslateCatalog[LiteStar]{
 
   lazy val parser = DataParserAdc.ADCLineParser(DEF);
 
+  /** compiled parser, columns are resolved only once */
+  protected lazy val plan = parser.compile
+  protected lazy val colVmag = plan.column("Vmag")
+  protected lazy val colVder = plan.column("Vder")
+  protected lazy val colSky2000 = plan.column("SKY2000")
+  protected lazy val colHD = plan.column("HD")
+  protected lazy val colSAO = plan.column("SAO")
+  protected lazy val colMSAO = plan.column("m_SAO")
+  protected lazy val colDM = plan.column("DM")
+  protected lazy val colHR = plan.column("HR")
+  protected lazy val colPPM = plan.column("PPM")
+  protected lazy val colName = plan.column("Name")
+  protected lazy val colPA = plan.column("PA")
+  protected lazy val colSep = plan.column("sep")
+
 }
\ No newline at end of file
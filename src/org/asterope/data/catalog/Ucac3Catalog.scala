@@ -1,10 +1,12 @@
 package org.asterope.data.catalog
 
 import java.io._
-import org.asterope.data.{Nomenclature, LiteStar}
+import org.asterope.data.{Nomenclature, LiteStar, StarBatch}
 import org.asterope.util._
 import java.net.URL
 import org.apache.commons.math.geometry.Vector3D
+import java.nio.{ByteOrder, ByteBuffer}
+import scala.concurrent.forkjoin.{ForkJoinTask, ForkJoinPool, ForkJoinWorkerThread}
 
 /**
  * Catalog which reads UCAC3 catalog
@@ -55,56 +57,196 @@ class Ucac3Catalog extends Catalog[LiteStar]{
 
 
 
-    def queryForAll():Iterator[LiteStar] = {       		
-        for(
-            zone <- (1 to 360).iterator;
-            url = makeURL(zone);
-            in = new DataIS(GetURL(url, decompress=true));
-            
-            zoneStartIndex = (zone-1) * 240;
-            raOffset <- 0 until 240;
-            starOffset = index(zoneStartIndex);
-            numberOfRecordsToRead = index(zoneStartIndex+raOffset+1);
-            i <- 0 until numberOfRecordsToRead;
-            binary = new Ucac3BinaryEntry(in);
-            name = Nomenclature("UCAC3 "+zone+"-"+(i+starOffset+1),ucacNomenclatureFormatId);
-            star = parseBinary(binary,name)
-        )
-          yield star         
+    /**
+     * (first star, star count) for each RA bin in zone
+     * @param zone from 1 to 360
+     */
+    protected def zoneBins(zone:Int):Seq[(Int,Int)] = (0 until 240).map{bin=>
+      val pos = ((zone-1) * 240 + bin) * 2
+      (index(pos), index(pos+1))
     }
 
+    /**
+     * Folder with zones converted into seekable block format, see `Ucac3ZoneStore`.
+     * Zones are converted on first use by `queryByDisc`.
+     */
+    val storeFolder = new File(GetURL.cacheFolder, "ucac3-blocks")
+
+    protected def storeFile(zone:Int) = new File(storeFolder, "z"+(1000+zone).toString.substring(1)+".blk")
+
+    private val stores = collection.mutable.Map[Int,Ucac3ZoneStore]()
+
+    /** opens zone store, zone is converted from original file if it does not exist yet */
+    protected def zoneStore(zone:Int):Ucac3ZoneStore = stores.synchronized{
+      stores.getOrElseUpdate(zone,{
+        val f = storeFile(zone)
+        if(!f.exists){
+          Log.debug("Converting UCAC3 zone "+zone+" into block format")
+          val in = GetURL(makeURL(zone), decompress=true)
+          try{
+            Ucac3ZoneStore.convert(in, zoneBins(zone), recordSize, f)
+          }finally{
+            in.close()
+          }
+        }
+        new Ucac3ZoneStore(f)
+      })
+    }
+
+    /** read all stars from single bin in zone store */
+    protected def readBin(zone:Int, store:Ucac3ZoneStore, bin:Int):Iterator[LiteStar] =
+      batchStars(decodeBin(zone, store.firstStar(bin), store.starCount(bin),
+        ByteBuffer.wrap(store.readBin(bin, recordSize))))
+
+    protected def batchStars(b:StarBatch):Iterator[LiteStar] = (0 until b.size).iterator.map(b.star(_))
+
+    /**
+     * Decodes records from buffer into primitive batch.
+     * Only needed fields are read at fixed offsets, no object is created per record.
+     * Star name is created only when star is materialized from batch.
+     *
+     * @param buf with `count` records at its current position, position is moved after them
+     */
+    protected def decodeBin(zone:Int, firstStar:Int, count:Int, buf:ByteBuffer):StarBatch = {
+      buf.order(ByteOrder.LITTLE_ENDIAN)
+      //ref is zone and star number, batch is for single bin, so index is given by star number
+      var batch:StarBatch = null
+      batch = new StarBatch(ref=>liteStar(batch, (ref & 0xFFFFFFFFL).toInt - firstStar - 1, ref), math.max(count,1))
+      val start = buf.position
+      var i = 0
+      while(i<count){
+        val pos = start + i * recordSize
+        val ra = buf.getInt(pos)          //mas, RA at epoch J2000.0
+        val spd = buf.getInt(pos + 4)     //mas, south pole distance
+        val im2 = buf.getShort(pos + 10)  //milimag, aperture magnitude
+        batch.add(ra, spd - 90 * 3600 * 1000, 1e-3 * im2, 0, (zone.toLong << 32) | (firstStar + i + 1))
+        i+=1
+      }
+      buf.position(start + count * recordSize)
+      batch
+    }
+
+    protected def liteStar(b:StarBatch, i:Int, ref:Long):LiteStar = {
+      val zone = (ref >>> 32).toInt
+      val number = (ref & 0xFFFFFFFFL).toInt
+      new LiteStar(b.ra(i).mas, b.de(i).mas, new Magnitude(b.mag(i)), None, None, None, None)(
+        ()=>List(Nomenclature("UCAC3 "+zone+"-"+number,ucacNomenclatureFormatId)))
+    }
+
+    /** decode all bins in zone, converted zone store is used if it exists */
+    protected def decodeZone(zone:Int):Seq[StarBatch] = {
+      if(storeFile(zone).exists){
+        val store = zoneStore(zone)
+        (0 until store.binCount).map{bin=>
+          decodeBin(zone, store.firstStar(bin), store.starCount(bin),ByteBuffer.wrap(store.readBin(bin, recordSize)))
+        }
+      }else{
+        val in = new DataInputStream(GetURL(makeURL(zone), decompress=true))
+        try{
+          //single buffer is reused for all bins in zone
+          val bins = zoneBins(zone)
+          val buf = ByteBuffer.allocate(bins.map(_._2).max * recordSize)
+          bins.map{case (firstStar,count)=>
+            buf.clear()
+            in.readFully(buf.array, 0, count * recordSize)
+            decodeBin(zone, firstStar, count, buf)
+          }
+        }finally{
+          in.close()
+        }
+      }
+    }
+
+    /**
+     * Decodes zones in parallel on fork-join pool, one batch per RA bin.
+     * Batches are returned in catalog order, number of zones decoded ahead is limited.
+     * Pool is shut down after last batch is read. Caller which stops reading earlier
+     * should call `close`, so pending zones are cancelled.
+     *
+     * @param parallelism number of zones decoded at the same time
+     */
+    def queryBatches(parallelism:Int = Runtime.getRuntime.availableProcessors):BatchIterator =
+      new BatchIterator(parallelism)
+
+    class BatchIterator(parallelism:Int) extends Iterator[StarBatch]{
+      //workers are daemon threads, so abandoned iterator does not block JVM exit
+      private val pool = new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory{
+        def newThread(p:ForkJoinPool) = {
+          val t = new ForkJoinWorkerThread(p){}
+          t.setDaemon(true)
+          t
+        }
+      }, null, false)
+      private val zones = (1 to 360).iterator
+      private val pending = new collection.mutable.Queue[ForkJoinTask[Seq[StarBatch]]]
+      private var current:Iterator[StarBatch] = Iterator.empty
+
+      private def submit(){
+        while(pending.size < parallelism * 2 && zones.hasNext){
+          val zone = zones.next
+          pending += pool.submit(Callable(decodeZone(zone)))
+        }
+      }
+      submit()
+
+      def hasNext = {
+        try{
+          while(!current.hasNext && !pending.isEmpty){
+            current = pending.dequeue().get.iterator
+            submit()
+          }
+        }catch{
+          case e:Throwable =>
+            close()
+            throw e
+        }
+        if(!current.hasNext) close()
+        current.hasNext
+      }
+
+      def next() = {
+        if(!hasNext) throw new NoSuchElementException
+        current.next()
+      }
+
+      /** cancel zones which are decoded ahead and shut down pool */
+      def close(){
+        pending.foreach(_.cancel(true))
+        pending.clear()
+        pool.shutdownNow()
+      }
+    }
+
+    /**
+     * Reads all zones. Zones already converted into block format are read from it,
+     * other zones are read from original files. Zones are decoded in parallel.
+     */
+    def queryForAll():Iterator[LiteStar] = queryBatches().flatMap(batchStars(_))
+
+    /**
+     * Reads stars near given disc. Only RA bins near disc are read,
+     * reader seeks straight to them in zone stores.
+     */
     def queryByDisc(center:Vector3D, radius:Angle):Iterator[LiteStar] = {
-       val startZone = math.max(0, (center.getDe - radius - 2.degree + 90.degree).toDegree * 2).toInt
-       val stopZone = math.min(360, (center.getDe + radius + 2.degree + 90.degree).toDegree * 2).toInt
+       //zone 1 starts at south pole, each zone is 0.5 degree high
+       def zoneOf(de:Angle) = math.min(360, math.max(1, ((de + 90.degree).toDegree * 2).toInt + 1))
+       val startZone = zoneOf(center.getDe - radius - 2.degree)
+       val stopZone = zoneOf(center.getDe + radius + 2.degree)
        for{
-          zone <- (startZone until stopZone).iterator;
-          url = makeURL(zone);          
-          de = -90.degree + (0.5 * zone).degree
-          zoneRa <- 0 until 240;
-          ra = (0.1 * 15 * zoneRa).degree;
-          pos = rade2Vector(ra,de);
-          //only continue if zone is near enought to center
-          if(Vector3D.angle(center,pos)<radius.toRadian + Angle.D2R * 2);
-
-          //lets dive into file
-          indexOffset = (zone * 240 + zoneRa) * 2;
-          starOffset = index(indexOffset)
-          numberOfRecordsToRead = index(indexOffset +1) ;
-          //open resource to read
-          in = {
-            val in = new DataIS(GetURL(url, decompress=true));
-            //skip to position we are interested in
-            in.skip(starOffset*recordSize)
-            in
+          zone <- (startZone to stopZone).iterator;
+          //center of bins in this zone
+          de = -90.degree + (0.5 * (zone-1) + 0.25).degree
+          bins = (0 until 240).filter{bin=>
+            val ra = (1.5 * bin + 0.75).degree
+            //only continue if bin is near enought to center
+            Vector3D.angle(center,rade2Vector(ra,de))<radius.toRadian + Angle.D2R * 2
           }
-          i<- 0 until numberOfRecordsToRead;
-          binary = new Ucac3BinaryEntry(in);
-          name = Nomenclature("UCAC3 "+zone+"-"+(starOffset+i+1),ucacNomenclatureFormatId);
-          star = parseBinary(binary,name)
+          if(!bins.isEmpty);
+          store = zoneStore(zone);
+          bin <- bins.iterator;
+          star <- readBin(zone,store,bin)
        }
-          yield star         
-
-          
+          yield star
     }
     
     def catalogSize:Int = 100766420;
@@ -0,0 +1,150 @@
+package org.asterope.data.catalog
+
+import java.io._
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.zip.{Deflater, Inflater}
+
+/**
+ * Local copy of one UCAC3 zone in seekable block format.
+ * Original zone is single bz2 stream, so reading one RA bin means decompressing zone from its start.
+ * In this format each RA bin is compressed separately and file starts with index of bins,
+ * so reader seeks straight to bins it needs.
+ * <p>
+ * File layout: magic, version, number of bins, then for each bin
+ * (first star number, star count, file offset, compressed size), then compressed bins.
+ * Records inside bins are unchanged UCAC3 records, so they are parsed by `Ucac3BinaryEntry`.
+ *
+ * @author Jan Kotek
+ */
+class Ucac3ZoneStore(val file:File){
+  import Ucac3ZoneStore._
+
+  private val channel = new RandomAccessFile(file,"r").getChannel
+
+  private val (firstStars, counts, offsets, sizes) = {
+    val in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))
+    try{
+      if(in.readInt != MAGIC) throw new IOException("Not an UCAC3 zone store: "+file)
+      if(in.readInt != VERSION) throw new IOException("Unknown version of UCAC3 zone store: "+file)
+      val binCount = in.readInt
+      val firstStars = new Array[Int](binCount)
+      val counts = new Array[Int](binCount)
+      val offsets = new Array[Long](binCount)
+      val sizes = new Array[Int](binCount)
+      for(i<-0 until binCount){
+        firstStars(i) = in.readInt
+        counts(i) = in.readInt
+        offsets(i) = in.readLong
+        sizes(i) = in.readInt
+      }
+      (firstStars, counts, offsets, sizes)
+    }finally{
+      in.close()
+    }
+  }
+
+  def binCount = counts.length
+
+  /** number of first star in bin, star name is zone plus (this number + index in bin + 1) */
+  def firstStar(bin:Int) = firstStars(bin)
+
+  def starCount(bin:Int) = counts(bin)
+
+  /**
+   * Reads and decompresses single bin. It uses positional read, so it is thread safe.
+   * @return records of all stars in bin
+   */
+  def readBin(bin:Int, recordSize:Int):Array[Byte] = {
+    val compressed = ByteBuffer.allocate(sizes(bin))
+    while(compressed.hasRemaining){
+      val read = channel.read(compressed, offsets(bin) + compressed.position)
+      if(read<0) throw new EOFException("Unexpected end of file: "+file)
+    }
+    val inflater = new Inflater()
+    try{
+      inflater.setInput(compressed.array)
+      val ret = new Array[Byte](counts(bin) * recordSize)
+      var pos = 0
+      while(pos<ret.length){
+        val n = inflater.inflate(ret,pos,ret.length-pos)
+        if(n==0 && (inflater.finished || inflater.needsInput))
+          throw new IOException("Corrupted bin "+bin+" in "+file)
+        pos+=n
+      }
+      ret
+    }finally{
+      inflater.end()
+    }
+  }
+
+  def close(){
+    channel.close()
+  }
+}
+
+object Ucac3ZoneStore{
+
+  val MAGIC = 0x55434233 //'UCB3'
+  val VERSION = 1
+
+  private val HEADER_SIZE = 12
+  private val BIN_HEADER_SIZE = 20
+
+  /**
+   * Converts zone from original stream.
+   * Zone is written into temporary file which is renamed at end,
+   * so interrupted conversion does not leave broken file behind.
+   *
+   * @param in uncompressed original zone
+   * @param bins (first star, star count) for each RA bin, bins are stored in zone in this order
+   * @param recordSize size of single record in bytes
+   * @param file where zone store is written
+   */
+  def convert(in:InputStream, bins:Seq[(Int,Int)], recordSize:Int, file:File){
+    val tmp = new File(file.getPath+"_TEMP")
+    file.getParentFile.mkdirs()
+    val raf = new RandomAccessFile(tmp,"rw")
+    val din = new DataInputStream(in)
+    val deflater = new Deflater(Deflater.BEST_SPEED)
+    var done = false
+    try{
+      val offsets = new Array[Long](bins.size)
+      val sizes = new Array[Int](bins.size)
+      //bins are written after header
+      raf.seek(HEADER_SIZE + BIN_HEADER_SIZE * bins.size)
+      val buf = new Array[Byte](65536)
+      for(((_,count),i) <- bins.zipWithIndex){
+        val records = new Array[Byte](count*recordSize)
+        din.readFully(records)
+        deflater.reset()
+        deflater.setInput(records)
+        deflater.finish()
+        offsets(i) = raf.getFilePointer
+        while(!deflater.finished){
+          val n = deflater.deflate(buf)
+          raf.write(buf,0,n)
+        }
+        sizes(i) = (raf.getFilePointer - offsets(i)).toInt
+      }
+
+      raf.seek(0)
+      raf.writeInt(MAGIC)
+      raf.writeInt(VERSION)
+      raf.writeInt(bins.size)
+      for(((first,count),i) <- bins.zipWithIndex){
+        raf.writeInt(first)
+        raf.writeInt(count)
+        raf.writeLong(offsets(i))
+        raf.writeInt(sizes(i))
+      }
+      done = true
+    }finally{
+      deflater.end()
+      raf.close()
+      if(!done) tmp.delete()
+    }
+    if(!tmp.renameTo(file))
+      throw new IOException("Could not rename "+tmp+" to "+file)
+  }
+}
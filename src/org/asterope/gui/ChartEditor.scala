@@ -8,6 +8,7 @@ import java.awt.event._
 import edu.umd.cs.piccolo.util.PBounds
 import nodes.PPath
 import org.asterope.chart._
+import org.asterope.data.{HasNomenclature, StarRef}
 import java.util.concurrent._
 import collection.mutable.ArrayBuffer
 import org.apache.commons.math.geometry.Vector3D
@@ -46,8 +47,8 @@ class ChartEditor(
         //change selection with mid button
         if(event.isMouseEvent && event.getClickCount == 1 && event.getButton == 1){
           event.setHandled(true)
-          val node = event.getPickedNode
-          val obj = if(node==null) None else chartBase.getObjectForNode(node)
+          //find object in chart hit index, Piccolo picking would go over all nodes
+          val obj = chartBase.objectAt(event.getPosition.getX, event.getPosition.getY)
           selectObject(obj)
         } else if (event.isMouseEvent && event.getClickCount == 1 && event.getButton == 2) {
           //center on new position with mid mouse button
@@ -64,6 +65,11 @@ class ChartEditor(
           refresh()
        }
       }
+      override def mouseMoved(event: PInputEvent) {
+        //show name of object under mouse
+        val obj = chartBase.objectAt(event.getPosition.getX, event.getPosition.getY)
+        setToolTipText(obj.flatMap(toolTipText(_)).orNull)
+      }
       override def mouseWheelRotated(event: PInputEvent) {
         //zoom with mouse wheel
         if (event.isMouseWheelEvent) {
@@ -132,6 +138,10 @@ class ChartEditor(
     if(refreshWorker!=null ){
       refreshWorker.cancel(true);
     }
+    //view changes, so prediction is no longer valid
+    if(prefetchWorker!=null){
+      prefetchWorker.cancel(true)
+    }
 
     refreshWorker = future[Unit]{
       refreshLock.synchronized{
@@ -167,19 +177,20 @@ class ChartEditor(
 
       val futures = new ArrayBuffer[Future[Unit]];
 
+      //each feature builds its nodes off EDT and commits them with single swap
       futures+=future{
-        stars.updateChart(chart,starsConfig)
+        chart.buildScene("stars"){ stars.updateChart(chart,starsConfig) }
       }
       futures+=future{
-        deepSky.updateChart(chart,deepSkyConfig)
+        chart.buildScene("deepSky"){ deepSky.updateChart(chart,deepSkyConfig) }
       }
 
       if(showConstelBounds) futures+=future{
-         constelBoundary.updateChart(chart)
+         chart.buildScene("constelBoundary"){ constelBoundary.updateChart(chart) }
       }
 
       if(showConstelLines) futures+=future{
-         constelLine.updateChart(chart)
+         chart.buildScene("constelLine"){ constelLine.updateChart(chart) }
       }
 
 
@@ -189,7 +200,7 @@ class ChartEditor(
 
 
       futures+=future{
-        CoordinateGrid.updateChart(chart,coordGridConfig)
+        chart.buildScene("coordinateGrid"){ CoordinateGrid.updateChart(chart,coordGridConfig) }
       }
 
       if(showLegend) futures+=future{
@@ -203,11 +214,12 @@ class ChartEditor(
       //now wait for all futures to finish
       waitOrInterrupt(futures)
 
+      //labels must be last, placement depends on objects painted by other features
+      //they are placed off EDT, chart is not on screen yet
+      Labels.updateChart(chart)
+
       //good now perform final tasks on EDT
       onEDTWait{
-        //labels must be last,
-        // placement algorithm depends on graphic created by other features
-        Labels.updateChart(chart)
         chartBase = chart;
         getCamera.removeAllChildren();
         if(getInteracting)
@@ -226,6 +238,9 @@ class ChartEditor(
 //        }
       }
       Log.debug("Refresh finished hash:"+System.identityHashCode(chart));
+
+      prefetch(if(lastRefreshedChart!=null) lastRefreshedChart else chart, chart)
+      lastRefreshedChart = chart
       }catch{
           case e:InterruptedException => { /* can be ignored */}
           case e:Throwable => {
@@ -239,6 +254,57 @@ class ChartEditor(
   }
 
 
+  /** written by refresh worker, read and cancelled by `refresh` on EDT */
+  @volatile private var prefetchWorker:Future[Unit] = null
+  @volatile private var lastRefreshedChart:Chart = null
+
+  /**
+   * Warms DAO caches for area where user is likely to move next,
+   * so next refresh is served mostly from memory.
+   * Runs in low priority thread and is cancelled by next refresh.
+   * <p>
+   * Stars are only prefetched when they are read from JDBM. Star tiles and snapshot
+   * are memory mapped, so in usual setup prediction warms deep sky cache only.
+   */
+  protected def prefetch(prev:Chart, chart:Chart){
+    if(prefetchWorker!=null){
+      prefetchWorker.cancel(true)
+    }
+    prefetchWorker = lowPriorityFuture[Unit]{
+      try{
+        val next = predictNextChart(prev,chart)
+        val limitMag = List(stars.calculateLimitStarMag(next,starsConfig),stars.calculateLimitStarMag(chart,starsConfig))
+          .maxBy(_.mag)
+        stars.prefetch(next.area, limitMag)
+        deepSky.prefetch(next.area)
+      }catch{
+        case e:InterruptedException => { /* can be ignored */}
+        case e:Throwable => Log.error("Prefetch failed",e)
+      }
+    }
+  }
+
+  /**
+   * Extrapolates pan and zoom from two last charts.
+   * Pan continues along great circle by same angle, zoom continues with same ratio.
+   * If view did not change (or jumped far away), area around current view is returned.
+   */
+  protected def predictNextChart(prev:Chart, chart:Chart):Chart = {
+    val panAngle = Vector3D.angle(prev.position,chart.position)
+    val fovRatio = chart.fieldOfView.toRadian / prev.fieldOfView.toRadian
+    val isPan = panAngle > 1e-6 && panAngle < chart.fieldOfView.toRadian
+    val isZoom = math.abs(fovRatio-1) > 1e-3 && fovRatio > 0.25 && fovRatio < 4
+
+    if(!isPan && !isZoom)
+      return chart.copy(fieldOfView = chart.fieldOfView * 1.5)
+
+    //reflection of previous position over current position, stays on great circle
+    val position = if(!isPan) chart.position
+      else chart.position.scalarMultiply(2 * Vector3D.dotProduct(chart.position,prev.position)).subtract(prev.position).normalize
+    val fov = if(!isZoom) chart.fieldOfView else chart.fieldOfView * fovRatio
+    chart.copy(position = position, fieldOfView = fov)
+  }
+
   def centerOnPosition(pos:Vector3D){
     chartBase = chartBase.copy(position = pos)
     refresh()
@@ -252,6 +318,13 @@ class ChartEditor(
 
   val onSelectionChanged = new Publisher[Chart]()
 
+  /** name shown in tooltip for object on chart */
+  protected def toolTipText(obj:Any):Option[String] = obj match{
+    case r:StarRef => toolTipText(r.star)
+    case o:HasNomenclature if !o.names.isEmpty => Some(Labels.selectName(o))
+    case _ => None
+  }
+
   def selectObject(obj:Option[Any], selectionAfterRefresh:Boolean = false){
 
     def createPointer(node:PNode):PNode = {
@@ -317,9 +390,11 @@ class ChartEditor(
         height =getHeight,
         colors = detailChart.colors
       )
-      stars.updateChart(_chart)
-      constelBoundary.updateChart(_chart)
-      constelLine.updateChart(_chart)
+      _chart.buildScene("overview"){
+        stars.updateChart(_chart)
+        constelBoundary.updateChart(_chart)
+        constelLine.updateChart(_chart)
+      }
 
       updatePointer(detailChart,false);
 
@@ -16,10 +16,10 @@ class SearchDialog(resolver:NameResolver, resmap:ResourceMap)
 
   add(new JLabel().withName("SearchDialog.id"))
   val idText = new JTextField().withName("idText");
-  //delayed action which updates result label
+  //delayed action which updates result label, name is resolved outside of EDT
   val delayedUpdate = Bind.delayed(200,true,{
     okAction.enabled = false;
-    updateResult()
+    updateResultAsync()
   })
   Bind.change(idText, delayedUpdate.run())
   add(idText,"w 100%,wrap")
@@ -44,7 +44,23 @@ class SearchDialog(resolver:NameResolver, resmap:ResourceMap)
 
   okAction.enabled = false
   def updateResult(){
-    lastResult = resolver.resolve(idText.getText)
+    showResult(resolver.resolve(idText.getText))
+  }
+
+  private var pending:java.util.concurrent.Future[_] = null
+
+  /** resolve name in background, so typing is not blocked by database lookup */
+  def updateResultAsync(){
+    val text = idText.getText
+    if(pending!=null) pending.cancel(false)
+    pending = resolver.resolveAsync(text){r=>
+      //text was changed while name was resolved, newer result will follow
+      if(idText.getText == text) showResult(r)
+    }
+  }
+
+  private def showResult(r:NameResolverResult){
+    lastResult = r
     okAction.enabled = lastResult.pos.isDefined
     resultLabel.setText(
       if(lastResult.pos.isEmpty) resmap.getString("SearchDialog.notFound")
@@ -126,6 +126,32 @@ Constel extends Enumeration{
 
 
 
+	/**
+	 * Return the constellation name corresponding to a given position.
+	 * <P>
+	 * Most positions are resolved by single lookup in Healpix table,
+	 * only cells which cross constellation boundary fall back to `constelOnPositionExact`.
+	 */
+  def constelOnPosition(pos:Vector3D):Constel.Value = {
+    val id = lookupTable(Pixelization.vector2Cell(pos, LOOKUP_ORDER).toInt)
+    if(id != BOUNDARY) Constel(id)
+    else constelOnPositionExact(pos)
+  }
+
+  /**
+   * Return constellations for many positions at once.
+   * @return array with constellation for each position
+   */
+  def constelOf(positions:Array[Vector3D]):Array[Constel.Value] = {
+    val ret = new Array[Constel.Value](positions.length)
+    var i = 0
+    while(i<positions.length){
+      ret(i) = constelOnPosition(positions(i))
+      i+=1
+    }
+    ret
+  }
+
 	/**
 	 * Return the constellation name corresponding to a given position.
 	 * <P>
@@ -135,11 +161,17 @@ Constel extends Enumeration{
 	 * This method comes from software by S. L. Moshier, taken from JParsec
 	 *
 	 */
-  def constelOnPosition(pos:Vector3D):Constel.Value = {
+  def constelOnPositionExact(pos:Vector3D):Constel.Value = {
     val pos1875:Vector3D = j1875rotater.transform(pos)
     val ra0 = pos1875.getRa.toArcSec.toInt
     val de0 = pos1875.getDe.toArcSec.toInt
+    Constel(spatialBounds(boundsRow(ra0,de0) * 4 + 3))
+  }
 
+  /**
+   * @return row in `spatialBounds` for B1875 position in arc seconds
+   */
+  private def boundsRow(ra0:Int, de0:Int):Int = {
 		/*
 		 * FIND CONSTELLATION SUCH THAT THE DECLINATION ENTERED IS HIGHER THAN
 		 * THE LOWER BOUNDARY OF THE CONSTELLATION WHEN THE UPPER AND LOWER
@@ -152,13 +184,95 @@ Constel extends Enumeration{
       val raHi = spatialBounds(i+1)
       val de = spatialBounds(i+2)
       if (ra0 >= raLow && ra0 < raHi && de0 > de)
-        return Constel(spatialBounds(i+3))
+        return i/4
       i+=4
     }
-    throw new Error("Constel not found for position: "+pos)
+    throw new Error("Constel not found for position: "+ra0+" "+de0)
+  }
+
+  /** Healpix order of lookup table, cells are about 14 arc minutes */
+  val LOOKUP_ORDER = math.min(8, Pixelization.NORDER)
+
+  /** marks cell which crosses constellation boundary */
+  private val BOUNDARY = -1
+
+  /**
+   * Constellation id for each nested cell at `LOOKUP_ORDER`, or `BOUNDARY`.
+   * Cells are refined from order 0 and refinement stops once cell is inside single constellation.
+   */
+  lazy private val lookupTable:Array[Byte] = {
+    val ret = new Array[Byte](12 << (2 * LOOKUP_ORDER))
+    def visit(order:Int, cell:Long){
+      val center = j1875rotater.transform(Pixelization.cellCenter(order,cell))
+      val id = constelInCap(center, Pixelization.cellRadius(order))
+      if(id != BOUNDARY || order == LOOKUP_ORDER){
+        val shift = 2 * (LOOKUP_ORDER - order)
+        java.util.Arrays.fill(ret, (cell << shift).toInt, ((cell+1) << shift).toInt, id.toByte)
+      }else{
+        for(child <- 0 until 4) visit(order+1, cell*4+child)
+      }
+    }
+    for(base <- 0 until 12) visit(0, base)
+    ret
+  }
+
+  /** all RA values where constellation can change, sorted */
+  lazy private val boundsRa:Array[Int] =
+    (0 until spatialBounds.size/4).flatMap(i=>List(spatialBounds(i*4),spatialBounds(i*4+1))).distinct.sorted.toArray
+
+  /**
+   * Finds if spherical cap is inside single constellation.
+   * Cap is converted to box in B1875 RA and DE. Table is sorted by declination,
+   * so between two RA values from table row only decreases with declination.
+   * Box is then inside single row, if bottom and top of box give same row for each RA interval.
+   *
+   * @param center of cap in B1875
+   * @param radius of cap in radians
+   * @return constellation id, or `BOUNDARY` if cap may contain more constellations
+   */
+  private def constelInCap(center:Vector3D, radius:Double):Int = {
+    def arcSec(rad:Double) = rad * Angle.R2S
+    val ra = center.getRaRadian
+    val de = center.getDeRadian
+    //one arc second is added to each side, because positions are truncated to whole arc seconds
+    val de1 = math.max(-323999, math.floor(arcSec(de - radius)).toInt - 1)
+    val de2 = math.min(324000, math.ceil(arcSec(de + radius)).toInt + 1)
+
+    val intervals:List[(Int,Int)] =
+      if(de + radius >= math.Pi/2 || de - radius <= -math.Pi/2 || math.cos(de) <= math.sin(radius)){
+        //cap contains pole
+        List((0,1295999))
+      }else{
+        val halfWidth = math.asin(math.sin(radius) / math.cos(de))
+        val ra1 = math.floor(arcSec(ra - halfWidth)).toInt - 1
+        val ra2 = math.ceil(arcSec(ra + halfWidth)).toInt + 1
+        if(ra1 < 0) List((ra1 + 1296000, 1295999), (0, ra2))
+        else if(ra2 > 1295999) List((ra1, 1295999), (0, ra2 - 1296000))
+        else List((ra1, ra2))
+      }
+
+    var id = BOUNDARY
+    //same row on bottom and top of box for given RA interval
+    def check(ra0:Int):Boolean = {
+      val row = boundsRow(ra0, de1)
+      if(row != boundsRow(ra0, de2)) return false
+      val id2 = spatialBounds(row * 4 + 3)
+      if(id == BOUNDARY) id = id2
+      id == id2
+    }
+
+    for((lo,hi) <- intervals){
+      if(!check(lo)) return BOUNDARY
+      var i = java.util.Arrays.binarySearch(boundsRa, lo + 1)
+      if(i<0) i = -i - 1
+      while(i<boundsRa.length && boundsRa(i) <= hi){
+        if(!check(boundsRa(i))) return BOUNDARY
+        i+=1
+      }
+    }
+    id
   }
 
-  
   /** rotater to transform vector2Rade from J2000 to B1875 */
   lazy private val j1875rotater = CoordinateSystem.factory("J1875").getRotater
   /** rotater to transform vector2Rade from J1875 to J2000 */
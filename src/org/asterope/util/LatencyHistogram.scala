@@ -0,0 +1,67 @@
+package org.asterope.util
+
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Histogram of operation latencies with logarithmic buckets.
+ * Bucket `i` counts operations which took from 2^i to 2^(i+1) microseconds.
+ * It is lock free, so it can be updated from many threads.
+ *
+ * @author Jan Kotek
+ */
+class LatencyHistogram(val name:String){
+  import LatencyHistogram._
+
+  private val buckets = new AtomicLongArray(BUCKETS)
+
+  /** record single operation which took given time */
+  def record(nanos:Long){
+    val micros = math.max(1L, nanos/1000)
+    val bucket = math.min(BUCKETS-1, 63 - java.lang.Long.numberOfLeadingZeros(micros))
+    buckets.incrementAndGet(bucket)
+  }
+
+  /** execute block and record its time */
+  def time[E](block: =>E):E = {
+    val start = System.nanoTime
+    try{
+      block
+    }finally{
+      record(System.nanoTime - start)
+    }
+  }
+
+  /** number of operations in given bucket */
+  def bucketCount(bucket:Int):Long = buckets.get(bucket)
+
+  /** total number of recorded operations */
+  def count:Long = (0 until BUCKETS).map(buckets.get(_)).sum
+
+  /**
+   * @param p percentile from 0 to 100
+   * @return upper bound of bucket where percentile falls, in microseconds. Zero if nothing was recorded
+   */
+  def percentile(p:Double):Long = {
+    val total = count
+    if(total == 0) return 0
+    val limit = math.max(1L, math.ceil(total * p / 100).toLong)
+    var sum = 0L
+    for(i <- 0 until BUCKETS){
+      sum += buckets.get(i)
+      if(sum >= limit) return 2L << i
+    }
+    2L << (BUCKETS-1)
+  }
+
+  def reset(){
+    for(i <- 0 until BUCKETS) buckets.set(i, 0)
+  }
+
+  override def toString =
+    name+"(count="+count+", p50<"+percentile(50)+"us, p90<"+percentile(90)+"us, p99<"+percentile(99)+"us)"
+}
+
+object LatencyHistogram{
+  /** last bucket also holds everything slower than about half hour */
+  val BUCKETS = 32
+}
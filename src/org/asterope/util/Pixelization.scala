@@ -7,6 +7,11 @@ import org.asterope.healpix._
 
 /**
  * Utilities related to Healpix sky pixelization
+ * <p>
+ * Pixels are numbered in NESTED scheme. Each coarse cell is then continuous range
+ * of fine pixels, so area can be described as multi-order coverage (MOC):
+ * big coarse cells inside and fine cells only at edges, both as few ranges of fine ipix.
+ * Indexes keyed by fine ipix can be queried with one subMap per range.
  * 
  * @author Jan Kotek
  */
@@ -31,9 +36,9 @@ object Pixelization {
   val tools = new PixTools(NSIDE);
 
 	/**
-	 * Maximal pix number, ie pixel number of south pole
+	 * Maximal pix number
 	 */
-	val maxPixNumber = vector2Ipix(Vector3D.MINUS_K)
+	val maxPixNumber = PixTools.Nside2Npix(NSIDE) - 1
 	
 	/**
 	 * Set of pixels which contains the entire sky. 
@@ -41,19 +46,26 @@ object Pixelization {
 	 */
 	val FULL_SKY: LongRangeSet = new LongRangeSet(Array(0,Long.MaxValue -1),2);
 	
+	/** @return nested ipix for given vector */
 	def vector2Ipix(v:Vector3D):Long = {
 		v.assertNormalized
-		tools.vect2pix(v);
+		PixToolsNested.ring2nest(NSIDE, tools.vect2pix(v));
 	}
 	
 	def rade2Ipix(ra:Angle, de:Angle):Long = vector2Ipix(rade2Vector(ra.toRadian,de.toRadian))
 
-	def ipix2Vector(ipix:Long):Vector3D = tools.pix2vect(ipix)
+	def ipix2Vector(ipix:Long):Vector3D = tools.pix2vect(PixToolsNested.nest2ring(NSIDE,ipix))
 	
 
-	
-	def queryDisc(centralPoint:Vector3D, radius:Angle) =
-		tools.query_disc(centralPoint, radius.toRadian, true)
+	/**
+	 * Query pixels in disc. Result is multi-order coverage, its finest order
+	 * depends on radius, so wide discs are covered by coarse cells even on edges.
+	 * Result may contain some pixels outside of disc, but never misses pixel inside.
+	 *
+	 * @return set of nested ipix at NSIDE
+	 */
+	def queryDisc(centralPoint:Vector3D, radius:Angle):LongRangeSet =
+		queryDisc(centralPoint, radius, orderForRadius(radius))
 		
 	def rangeSetToSeq(rangeSet:LongRangeSet):Seq[(Long,Long)] = {
 	    val buffer = Buffer[(Long,Long)]()
@@ -79,5 +91,93 @@ object Pixelization {
     nsidelist(norder.toInt)
   }
 
-	
-}
\ No newline at end of file
+  /** Healpix order of NSIDE used in Asterope, the finest order in MOC */
+  lazy val NORDER = nside2norder(NSIDE)
+
+  /** tools for each order up to NORDER */
+  protected lazy val orderTools = (0 to NORDER).map(o=>new PixTools(norder2nside(o))).toArray
+
+  /**
+   * Upper bound of angular distance between cell center and its border at given order.
+   * Healpix cells are not regular, so mean resolution is doubled to be safe
+   */
+  protected lazy val orderPixRadius = (0 to NORDER).map{o=>
+    2 * PixTools.PixRes(norder2nside(o)) * Angle.S2R
+  }.toArray
+
+  /**
+   * Finest order used on edges of disc with given radius.
+   * Edge cells are roughly 1/32 of radius, so number of ranges does not grow with field of view.
+   */
+  def orderForRadius(radius:Angle):Int = {
+    val maxRes = radius.toArcSec / 32
+    (0 to NORDER).find(o=>PixTools.PixRes(norder2nside(o)) <= maxRes).getOrElse(NORDER)
+  }
+
+  /**
+   * Query pixels in disc, cells are refined only on edges of disc and only up to `maxOrder`.
+   * Cells are visited in nested order, so ranges are appended sorted and adjacent cells are merged.
+   *
+   * @return set of nested ipix at NSIDE
+   */
+  def queryDisc(centralPoint:Vector3D, radius:Angle, maxOrder:Int):LongRangeSet = {
+    assert(maxOrder>=0 && maxOrder<=NORDER, "wrong order: "+maxOrder)
+    val r = radius.toRadian
+    val b = new LongRangeSetBuilder()
+    def visit(order:Int, nested:Long){
+      val center = orderTools(order).pix2vect(PixToolsNested.nest2ring(norder2nside(order),nested))
+      val dist = Vector3D.angle(center,centralPoint)
+      val pixRadius = orderPixRadius(order)
+      if(dist - pixRadius > r){
+        //cell is outside
+      }else if(dist + pixRadius <= r || order == maxOrder){
+        //cell is inside or on edge at finest order, add all its fine pixels
+        val shift = 2 * (NORDER - order)
+        b.appendRange(nested << shift, ((nested+1) << shift) - 1)
+      }else{
+        //cell is on edge, refine
+        for(child <- 0 until 4) visit(order+1, nested*4+child)
+      }
+    }
+    for(base <- 0 until 12) visit(0, base)
+    b.build
+  }
+
+  /**
+   * Cells at given order which overlap with area
+   *
+   * @return cell numbers at given order, sorted
+   */
+  def cellsInArea(area:LongRangeSet, order:Int):Seq[Long] = {
+    val shift = 2 * (NORDER - order)
+    val maxCell = maxPixNumber >> shift
+    val ret = Buffer[Long]()
+    rangeSetToSeq(area).foreach{case (first,last)=>
+      //ranges are sorted, but neighbours may share cell
+      var cell = if(ret.isEmpty) first >> shift else math.max(first >> shift, ret.last+1)
+      val lastCell = math.min(last >> shift, maxCell)
+      while(cell<=lastCell){
+        ret += cell
+        cell+=1
+      }
+    }
+    ret
+  }
+
+  /** @return first and last fine ipix of cell at given order */
+  def cellRange(order:Int, cell:Long):(Long,Long) = {
+    val shift = 2 * (NORDER - order)
+    (cell << shift, ((cell+1) << shift) - 1)
+  }
+
+  /** @return upper bound of angular distance between center and border of cell at given order, in radians */
+  def cellRadius(order:Int):Double = orderPixRadius(order)
+
+  /** @return cell at given order which contains vector */
+  def vector2Cell(v:Vector3D, order:Int):Long = vector2Ipix(v) >> (2 * (NORDER - order))
+
+  /** @return center of cell at given order */
+  def cellCenter(order:Int, cell:Long):Vector3D =
+    orderTools(order).pix2vect(PixToolsNested.nest2ring(norder2nside(order),cell))
+
+}
@@ -25,6 +25,21 @@ package object util{
     executor.submit(Callable(t));
   }
 
+  /** single thread with minimal priority, for speculative tasks which may be cancelled any time */
+  private val lowPriorityExecutor = Executors.newSingleThreadExecutor(new ThreadFactory{
+    def newThread(r:Runnable) = {
+      val t = new Thread(r,"asterope-low-priority")
+      t.setPriority(Thread.MIN_PRIORITY)
+      t.setDaemon(true)
+      t
+    }
+  })
+
+  /** run task in low priority thread, it should check `checkInterrupted` often */
+  def lowPriorityFuture[E](t: =>E):Future[E] = {
+    lowPriorityExecutor.submit(Callable(t));
+  }
+
   def waitOrInterrupt(futures:Iterable[Future[_]]){
     try{
       futures.foreach(_.get)
@@ -73,6 +73,98 @@ class ChartTest extends ScalaTestCase{
     }
   }
   
+  def testAddChildrenSorted{
+    val layer = new Layer(Layer.fg)
+    for(z <- List(1D,3D,5D))
+      layer.addChildWithZorder(new PText(z.toString), z)
+    val batch = List(0D,3D,4D,6D).map(z=>(new PText(z.toString):PNode, z))
+    layer.addChildrenSorted(batch)
+
+    val texts = layer.getChildrenIterator.map(_.asInstanceOf[PText].getText).toList
+    assert(texts === List("0.0","1.0","3.0","3.0","4.0","5.0","6.0"))
+    //existing node goes first for the same z-order
+    assert(layer.getChild(2) !== batch(1)._1)
+    assert(layer.getChild(3) === batch(1)._1)
+    assert((0 until layer.getChildrenCount).map(layer.zorderAt(_)).toList === List(0D,1D,3D,3D,4D,5D,6D))
+
+    layer.removeChild(0)
+    layer.addChildWithZorder(new PText("2.0"), 2)
+    assert(layer.getChildrenIterator.map(_.asInstanceOf[PText].getText).toList ===
+      List("1.0","2.0","3.0","3.0","4.0","5.0","6.0"))
+
+    intercept[IllegalArgumentException]{
+      layer.addChildrenSorted(List((new PNode,2D),(new PNode,1D)))
+    }
+
+    layer.removeAllChildren()
+    assert(layer.getChildrenCount === 0)
+    layer.addChildWithZorder(new PText("1.0"), 1)
+    assert(layer.zorderAt(0) === 1D)
+  }
+
+  def testAddNodes{
+    val chart = new Chart()
+    val inside = new PText("inside")
+    inside.setGlobalTranslation(Point2d(10,10))
+    val outside = new PText("outside")
+    outside.setGlobalTranslation(Point2d(-1000,-1000))
+    chart.addNodes(Layer.label, List((inside,"a",2D),(outside,"b",1D)))
+    assert(chart.getLayer(Layer.label).getChildrenCount === 1)
+    assert(chart.getNodeForObject("a") === Some(inside))
+    assert(chart.getNodeForObject("b") === None)
+  }
+
+  def testBuildScene{
+    val chart = new Chart()
+    val layer = chart.getLayer(Layer.label)
+    val swaps = Chart.sceneSwapLatency.count
+    chart.buildScene("test"){
+      for(z <- List(3D,1D,2D)){
+        val node = new PText(z.toString)
+        node.setGlobalTranslation(Point2d(10,10))
+        chart.addNode(Layer.label, node, z.toString, z)
+      }
+      //nodes are not attached until block finishes
+      assert(layer.getChildrenCount === 0)
+      assert(chart.getNodeForObject("1.0") === None)
+    }
+    assert(layer.getChildrenIterator.map(_.asInstanceOf[PText].getText).toList === List("1.0","2.0","3.0"))
+    assert(chart.getNodeForObject("1.0").isDefined)
+    assert(Chart.sceneSwapLatency.count === swaps + 1)
+
+    //failed block does not change chart
+    intercept[IllegalStateException]{
+      chart.buildScene("failed"){
+        chart.addNode(Layer.label, new PText("failed"), "failed")
+        throw new IllegalStateException()
+      }
+    }
+    assert(layer.getChildrenCount === 3)
+    assert(chart.getNodeForObject("failed") === None)
+
+    //outside of block nodes go directly to chart
+    chart.addNode(Layer.label, new PText("0.0"), "0.0", 0)
+    assert(layer.getChildrenCount === 4)
+  }
+
+  def testObjectAt{
+    val chart = new Chart()
+    val node = new PText("node")
+    node.setGlobalTranslation(Point2d(100,100))
+    chart.addNode(Layer.label, node, "node")
+    chart.addNode(Layer.label, new PText("none"))
+    val batch = new StarBatchNode(chart.colors)
+    batch.add(300, 300, 4, 0, 0, "star", 1)
+    chart.addBatch(Layer.star, batch)
+
+    assert(chart.getObjectForNode(node) === Some("node"))
+    assert(chart.getObjectForNode(new PText("node")) === None)
+    assert(chart.objectAt(101,101) === Some("node"))
+    assert(chart.objectAt(301,300) === Some("star"))
+    assert(chart.objectAt(200,200) === None)
+    assert(chart.objectsInRect(new java.awt.geom.Rectangle2D.Double(250,250,100,100)) === Seq("star"))
+  }
+
   def testAngleSizeOnChart{
 	  val chart = new Chart(position = Vector3D.PLUS_I,
 	 		  fieldOfView = 10.degree, width = 10, height=10)
@@ -108,8 +200,8 @@ class ChartTest extends ScalaTestCase{
 	  val config2 = new StarsConfig(starDiscMultiply = 2)
 	  val ra = chart.position.getRaRadian.radian
 	  val de = chart.position.getDeRadian.radian
-	  val star1 = new LiteStar(ra,de, Magnitude(1))
-	  val star2 = new LiteStar(ra,de, Magnitude(2))
+	  val star1 = LiteStar(ra,de, Magnitude(1))
+	  val star2 = LiteStar(ra,de, Magnitude(2))
 	   
 	  val config = stars.defaultConfig
 	  
@@ -66,4 +66,68 @@ class LabelsTest extends ScalaTestCase{
 		
 	}
 
+	def testTopK{
+		val items = List(5D,3D,9D,1D,7D,3D,8D)
+		assert(Labels.topK[Double](items.iterator, 3, d=>d) === List(1D,3D,3D))
+		assert(Labels.topK[Double](items.iterator, 10, d=>d) === items.sorted)
+		assert(Labels.topK[Double](items.iterator, 0, d=>d) === Nil)
+		//filter is applied before element gets into result
+		assert(Labels.topK[Double](items.iterator, 2, d=>d, _ != 3D) === List(1D,5D))
+	}
+
+	def testFindLabelPosition{
+		val chart = new Chart(width = 200, height = 200)
+		val occupied = new OccupancyGrid(200,200)
+		val placed = new OccupancyGrid(200,200)
+		val bounds = new java.awt.geom.Rectangle2D.Double(100,100,10,10)
+
+		//right is preferred
+		assert(Labels.findLabelPosition(chart, bounds, 20, 10, occupied, placed) === Some(Point2d(113,100)))
+
+		//object on right, go left
+		occupied.mark(113,100,133,110)
+		assert(Labels.findLabelPosition(chart, bounds, 20, 10, occupied, placed) === Some(Point2d(77,100)))
+
+		//label on left, it must not overlap, go top
+		placed.mark(77,100,97,110)
+		assert(Labels.findLabelPosition(chart, bounds, 20, 10, occupied, placed) === Some(Point2d(95,87)))
+
+		//no space around object
+		placed.mark(0,0,200,200)
+		assert(Labels.findLabelPosition(chart, bounds, 20, 10, occupied, placed) === None)
+	}
+
+	def testLabelsDoNotOverlap{
+		val chart = new Chart(width = 400, height = 300)
+		val names = List("M 1","M 2","M 3","M 4","M 5")
+		for((name,i) <- names.zipWithIndex){
+			val ds = DeepSky(ra = 0.degree, de = 0.degree, mag = Some(Magnitude(i)), sizeMax = Some(1.degree), sizeMin = None,
+				posAngle = None, deepSkyType = DeepSkyType.GALXY, names = List(Nomenclature.parse(name)))
+			val node = new edu.umd.cs.piccolo.PNode
+			//objects are close together, so labels compete for space
+			node.setBounds(200 + i*6, 150, 4, 4)
+			chart.addNode(Layer.deepsky, node, ds, 0)
+		}
+		Labels.updateChart(chart, Labels.defaultConfig.copy(showStarLabels = false))
+
+		val labels = chart.getLayer(Layer.label).getChildrenReference.toArray.map(_.asInstanceOf[edu.umd.cs.piccolo.PNode])
+		assert(labels.size ?> 0)
+		for(l1<-labels; l2<-labels; if(l1 ne l2))
+			assert(!l1.getGlobalFullBounds.intersects(l2.getGlobalFullBounds))
+	}
+
+	def testBrightObjectOutsideCanvasNotLabeled{
+		val chart = new Chart(width = 400, height = 300)
+		val outside = LiteStar(ra = 0.degree, de = 0.degree, mag = Magnitude(1))
+		val inside = LiteStar(ra = 1.degree, de = 1.degree, mag = Magnitude(5))
+		//batch registers all its stars, including those in margin outside of canvas
+		val batch = new StarBatchNode(chart.colors)
+		batch.add(-20, 150, 4, 0, 0, outside, 1)
+		batch.add(200, 150, 4, 0, 0, inside, 5)
+		chart.addBatch(Layer.star, batch)
+
+		val labeled = Labels.findStarsToLabel(chart, Labels.defaultConfig.copy(numberOfStarLabels = 1))
+		assert(labeled.map(_._1) === List(inside))
+	}
+
 }
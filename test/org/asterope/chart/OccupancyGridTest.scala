@@ -0,0 +1,28 @@
+package org.asterope.chart
+
+import org.asterope.util._
+
+class OccupancyGridTest extends ScalaTestCase{
+
+  def testMarkAndCount{
+    val grid = new OccupancyGrid(100,100,4)
+    assert(grid.isFree(0,0,99,99))
+    grid.mark(10,10,17,17)
+    assert(grid.count(10,10,17,17) === 4)
+    assert(grid.count(0,0,99,99) === 4)
+    assert(!grid.isFree(0,0,12,12))
+    assert(grid.isFree(20,20,30,30))
+    assert(grid.isFree(0,20,99,30))
+  }
+
+  def testOutsideCanvas{
+    val grid = new OccupancyGrid(100,100,4)
+    grid.mark(-50,-50,-10,-10)
+    assert(grid.isFree(0,0,99,99))
+    //partially outside is clamped to border
+    grid.mark(90,90,150,150)
+    assert(!grid.isFree(98,98,99,99))
+    assert(grid.isFree(200,200,300,300))
+  }
+
+}
@@ -0,0 +1,60 @@
+package org.asterope.chart
+
+import org.asterope.util._
+import java.awt.geom.Rectangle2D
+
+class SpatialIndexTest extends ScalaTestCase{
+
+  def testNearest{
+    val index = new SpatialIndex(100,100,10)
+    index.add("a", 10, 10, 14, 14)
+    index.add("b", 50, 50, 52, 52)
+    assert(index.size === 2)
+    assert(index.nearest(12,12) === Some("a"))
+    assert(index.nearest(16,12) === Some("a"))
+    assert(index.nearest(20,20) === None)
+    assert(index.nearest(20,20,10) === Some("a"))
+    assert(index.nearest(49,51) === Some("b"))
+  }
+
+  def testNearestPrefersSmallest{
+    val index = new SpatialIndex(100,100,10)
+    index.add("galaxy", 0, 0, 80, 80)
+    index.add("star", 30, 30, 32, 32)
+    assert(index.nearest(31,31) === Some("star"))
+    assert(index.nearest(60,60) === Some("galaxy"))
+  }
+
+  def testQuery{
+    val index = new SpatialIndex(100,100,10)
+    index.add("a", 10, 10, 14, 14)
+    index.add("b", 50, 50, 52, 52)
+    //spans many cells, but is returned only once
+    index.add("c", 0, 0, 99, 99)
+    assert(index.query(new Rectangle2D.Double(0,0,20,20)).toSet === Set("a","c"))
+    assert(index.query(new Rectangle2D.Double(0,0,100,100)).size === 3)
+    assert(index.query(new Rectangle2D.Double(30,30,5,5)) === IndexedSeq("c"))
+  }
+
+  def testOutsideCanvas{
+    val index = new SpatialIndex(100,100,10)
+    index.add("a", -20, -20, -10, -10)
+    index.add("b", 150, 150, 160, 160)
+    assert(index.nearest(-15,-15) === Some("a"))
+    assert(index.nearest(155,155) === Some("b"))
+    assert(index.nearest(0,0) === None)
+  }
+
+  def testManyObjects{
+    val index = new SpatialIndex(1000,1000)
+    for(i <- 0 until 10000)
+      index.add(i, i%100*10, i/100*10, i%100*10+2, i/100*10+2)
+    assert(index.size === 10000)
+    assert(index.nearest(501,301) === Some(3050))
+    assert(index.query(new Rectangle2D.Double(0,0,15,15)).toSet === Set(0,1,100,101))
+    index.clear()
+    assert(index.size === 0)
+    assert(index.nearest(501,301) === None)
+  }
+
+}
@@ -0,0 +1,54 @@
+package org.asterope.chart
+
+import org.asterope.util._
+
+class StarBatchNodeTest extends ScalaTestCase{
+
+  def batch = {
+    val b = new StarBatchNode(DarkBlueColors)
+    b.add(100, 100, 10, 0, 0, "A", 1)
+    b.add(300, 200, 4, StarBatchNode.FLAG_BINARY, 0, "B", 3)
+    b.add(500, 400, 8, StarBatchNode.FLAG_VARIABLE, 0, "C", 2)
+    b
+  }
+
+  def testBounds{
+    val b = batch
+    b.finish()
+    val bounds = b.getBounds
+    assert(bounds.getMinX ?< 95)
+    assert(bounds.getMaxX ?> 504)
+    assert(b.maxDiameter === 10)
+    intercept[IllegalStateException]{
+      b.add(0,0,1,0,0,"D",0)
+    }
+  }
+
+  def testPick{
+    val b = batch
+    b.finish()
+    assert(b.objectAt(101, 99) === Some("A"))
+    assert(b.objectAt(500, 400) === Some("C"))
+    assert(b.objectAt(200, 200) === None)
+    assert(b.intersects(new java.awt.geom.Rectangle2D.Double(98,98,2,2)))
+    assert(!b.intersects(new java.awt.geom.Rectangle2D.Double(200,200,2,2)))
+  }
+
+  def testChartLookup{
+    val chart = new Chart()
+    chart.addBatch(Layer.star, batch)
+    assert(chart.getLayer(Layer.star).getChildrenCount === 1)
+    assert(chart.objects.toSet === Set("A","B","C"))
+    val node = chart.getNodeForObject("A").get
+    assert(node.getFullBounds.getCenterX ~== 100)
+    assert(chart.getObjectForNode(node) === Some("A"))
+  }
+
+  def testPaint{
+    val chart = new Chart()
+    chart.addBatch(Layer.star, batch)
+    val img = chart.toBufferedImage
+    assert(img.getRGB(100,100) === chart.colors.star.getRGB)
+    assert(img.getRGB(200,200) === chart.colors.bg.getRGB)
+  }
+}
@@ -8,13 +8,13 @@ class StarsTest extends ScalaTestCase {
 	lazy val chart = new Chart()
 	lazy val chartStars = new Stars(null)
 	
-	lazy val star = new LiteStar(mag = Magnitude(1.0),
+	lazy val star = LiteStar(mag = Magnitude(1.0),
 				ra= chart.position.getRaRadian.radian, de= chart.position.getDeRadian.radian)
 
 	
 	def testStarDiameterBigger{
 		val s1 = star
-		val s2 = new LiteStar(mag = Magnitude(2.0),
+		val s2 = LiteStar(mag = Magnitude(2.0),
 				ra= chart.position.getRaRadian.radian, de= chart.position.getDeRadian.radian)
 		val config = chartStars.defaultConfig
 		val node1 = chartStars.paintObject(chart,config,s1).get
@@ -39,7 +39,7 @@ class StarsTest extends ScalaTestCase {
 		val pos = Point2d(100,100)
 		val starPos = chart.wcs.deproject(pos).get
 		//test if there is white pixel at position of star
-		val star2 = new LiteStar(mag = Magnitude(1.0),
+		val star2 = LiteStar(mag = Magnitude(1.0),
 				ra= starPos.getRaRadian.radian, de= starPos.getDeRadian.radian)
 		val config = chartStars.defaultConfig
 		val node = chartStars.paintObject(chart, config, star2).get
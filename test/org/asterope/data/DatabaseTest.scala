@@ -88,6 +88,13 @@ class DatabaseTest extends BeansTestCase{
 		
 	}
 	
+	def testMilkyWayRaster{
+		val raster = beans.milkyWayDao.raster
+		assert(raster.maxOrder === MilkyWayRaster.MAX_ORDER)
+		assert(raster.gray(Vector3D_galaxyCentre, raster.maxOrder) ?> 10)
+		assert(raster.gray(Vector3D_galaxyCentre, 3) ?> 10)
+	}
+
 	def testDeepSky{
 		assert(beans.deepSkyDao.objectsByName("M13").hasNext)
 		assert(beans.deepSkyDao.objectsByName("M31").hasNext)
@@ -0,0 +1,98 @@
+package org.asterope.data
+
+import jdbm.RecordManagerFactory
+import java.io.File
+import org.asterope.util._
+
+class DistributionSnapshotTest extends ScalaTestCase{
+
+  lazy val dbFile = File.createTempFile("asterope","dbtest")
+  lazy val recman = RecordManagerFactory.createRecordManager(dbFile.getPath)
+  lazy val file = File.createTempFile("asterope","snapshot")
+
+  val stars = List(
+    LiteStar(ra=10.degree, de=20.degree, mag=Magnitude(3.5), names=List(Nomenclature.parse("HIP 11"))),
+    LiteStar(ra=10.5.degree, de=20.degree, mag=Magnitude(7.3), names=List(Nomenclature.parse("HIP 12"))),
+    LiteStar(ra=200.degree, de=-40.degree, mag=Magnitude(5), minMag=Some(Magnitude(6)), maxMag=Some(Magnitude(5)))
+  )
+  val deepSkies = List(
+    DeepSky(ra=10.degree, de=21.degree, mag=Some(Magnitude(8)), sizeMax=Some(1.degree), sizeMin=None,
+      posAngle=None, deepSkyType=DeepSkyType.GALXY, names=List(Nomenclature.parse("M 31"))),
+    DeepSky(ra=100.degree, de=-10.degree, mag=None, sizeMax=None, sizeMin=None,
+      posAngle=None, deepSkyType=DeepSkyType.OPNCL, names=List(Nomenclature.parse("NGC 2000")))
+  )
+  val line = ConstelLine(rade2Vector(10.degree,20.degree), rade2Vector(12.degree,25.degree), 11, 12, "And", 1)
+  val bound = TwoPointSkyLine(rade2Vector(100.degree,-10.degree), rade2Vector(101.degree,-11.degree))
+
+  lazy val snapshot = {
+    val starDao = new LiteStarDao(recman)
+    starDao.addStars(stars.iterator)
+    val deepSkyDao = new DeepSkyDao(recman)
+    deepSkies.foreach(deepSkyDao.addDeepSky(_))
+    val milkyWayDao = new MilkyWayDao(recman)
+    milkyWayDao.addMilkyWayPixel(MilkyWayPixel(rade2Vector(10.degree,20.degree), 200))
+    val lineDao = new ConstelLineDao(recman)
+    lineDao.add(line)
+    val boundDao = new ConstelBoundaryDao(recman)
+    boundDao.add(bound)
+    DistributionSnapshot.write(file, starDao, deepSkyDao, milkyWayDao, lineDao, boundDao)
+    new DistributionSnapshot(file)
+  }
+
+  val area = Pixelization.queryDisc(rade2Vector(10.degree,20.degree), 3.degree)
+
+  def testSections{
+    assert(snapshot.sectionNames.contains(DistributionSnapshot.STARS))
+    for(name <- snapshot.sectionNames)
+      assert(snapshot.section(name).capacity ?> 0)
+    intercept[java.io.IOException]{
+      snapshot.section("noSuchSection")
+    }
+  }
+
+  def testStars{
+    val dao = snapshot.liteStarDao
+    assert(dao.starsByAreaMag(Pixelization.FULL_SKY, Magnitude(30)).toSet === stars.toSet)
+    //names are not part of star equality
+    assert(dao.starsByAreaMag(Pixelization.FULL_SKY, Magnitude(30)).map(s=>(s,s.names)).toSet === stars.map(s=>(s,s.names)).toSet)
+    assert(dao.starsByAreaMag(area, Magnitude(6)).toList === List(stars(0)))
+    assert(dao.starBatchByAreaMag(area, Magnitude(30)).size === 2)
+    assert(dao.objectsByName("HIP 12").next === stars(1))
+    assert(dao.objectsByName("HIP 12").next.names === stars(1).names)
+    assert(!dao.objectsByName("HIP 13").hasNext)
+    assert(dao.objectsByNameFuzzy("HIP 13", 1).map(_._2).toSet === Set(stars(0),stars(1)))
+  }
+
+  def testDeepSky{
+    val dao = snapshot.deepSkyDao
+    assert(dao.deepSkyByArea(area).toList === List(deepSkies(0)))
+    assert(dao.deepSkyByArea(Pixelization.FULL_SKY).toSet === deepSkies.toSet)
+    assert(dao.objectsByName("ngc2000").next === deepSkies(1))
+    assert(!dao.outlines.isEmpty)
+  }
+
+  def testMilkyWayAndLines{
+    val raster = snapshot.milkyWayDao.raster
+    assert(raster.gray(rade2Vector(10.degree,20.degree), raster.maxOrder) ?> 100)
+    assert(snapshot.constelLineDao.constellationLineByArea(area).toList === List(line))
+    val bounds = snapshot.constelBoundaryDao.constelBoundsByArea(
+      Pixelization.queryDisc(rade2Vector(100.5.degree,-10.5.degree), 1.degree)).toList
+    assert(bounds.size === 1)
+  }
+
+  def testOpenOldVersion{
+    snapshot
+    assert(DistributionSnapshot.isCurrent(file))
+    assert(DistributionSnapshot.open(file).isDefined)
+    assert(DistributionSnapshot.open(new File("nonexisting-snapshot")) === None)
+
+    val old = File.createTempFile("asterope","snapshot")
+    val out = new java.io.DataOutputStream(new java.io.FileOutputStream(old))
+    out.writeInt(DistributionSnapshot.MAGIC)
+    out.writeInt(DistributionSnapshot.VERSION + 1)
+    out.close()
+    assert(!DistributionSnapshot.isCurrent(old))
+    assert(DistributionSnapshot.open(old) === None)
+  }
+
+}
@@ -0,0 +1,28 @@
+package org.asterope.data
+
+import org.asterope.util._
+import jdbm.{Serializer, SerializerInput, SerializerOutput}
+
+class ExternalSortTest extends ScalaTestCase{
+
+  object intSerializer extends Serializer[Int]{
+    def serialize(out:SerializerOutput, i:Int) = out.writeInt(i)
+    def deserialize(in:SerializerInput):Int = in.readInt
+  }
+
+  def testInMemory{
+    val sorter = new ExternalSort[Int](intSerializer, Ordering.Int, chunkSize = 100)
+    assert(sorter.sort(List(3,1,2).iterator).toList === List(1,2,3))
+  }
+
+  def testWithSpills{
+    val items = (0 until 10000).map(i=> (i * 7919) % 10000)
+    val sorter = new ExternalSort[Int](intSerializer, Ordering.Int, chunkSize = 333)
+    assert(sorter.sort(items.iterator).toList === (0 until 10000).toList)
+  }
+
+  def testEmpty{
+    val sorter = new ExternalSort[Int](intSerializer, Ordering.Int)
+    assert(!sorter.sort(Iterator.empty).hasNext)
+  }
+}
@@ -10,11 +10,11 @@ class LiteStarDaoTest extends ScalaTestCase{
   lazy val dao = new LiteStarDao(recman)
 
   def testByName{
-    val star = new LiteStar(ra=0.degree,de=0.degree,mag=Magnitude(1), names=List(Nomenclature.parse("HIP 11")));
+    val star = LiteStar(ra=0.degree,de=0.degree,mag=Magnitude(1), names=List(Nomenclature.parse("HIP 11")));
 
     assert(star.names === List(Nomenclature.parse("HIP 11")) )
     dao.addStar(star);
-
+    dao.flush()
 
     val star2 = dao.objectsByName("HIP 11").next
     assert(star === star2)
@@ -26,4 +26,79 @@ class LiteStarDaoTest extends ScalaTestCase{
 
 
   }
-}
\ No newline at end of file
+
+  def testAddStars{
+    val stars = (0 until 100).map{i=>
+      LiteStar(ra=(i*3.6).degree, de=(i*0.5).degree, mag=Magnitude(2+i%10), names=List(Nomenclature.parse("HIP "+(1000+i))))
+    }
+    assert(dao.addStars(stars.iterator) === 100)
+    assert(dao.objectsByName("HIP 1050").hasNext)
+    val found = dao.starsByAreaMag(Pixelization.FULL_SKY, Magnitude(30)).filter(_.names.head.toString.startsWith("HIP 1")).toSet
+    assert(stars.toSet.subsetOf(found))
+  }
+
+  def testLimitMag{
+    val mags = List(9.5, 8.9, 9.2, 9.29, 3.0, 9.31)
+    dao.addStars(mags.map(m=>LiteStar(ra=5.degree, de=5.degree, mag=Magnitude(m))).iterator)
+    dao.addStar(LiteStar(ra=5.degree, de=5.degree, mag=Magnitude(9.1)))
+    val found = dao.starsByAreaMag(Pixelization.FULL_SKY, Magnitude(9.3)).map(_.mag.mag).toList
+    assert(found.sorted === List(3.0, 8.9, 9.1, 9.2, 9.29))
+  }
+
+  def testAddNames{
+    val stars = (0 until 10).map{i=>
+      LiteStar(ra=(i*10).degree, de=0.degree, mag=Magnitude(5), names=List(Nomenclature.parse("HIP "+(2000+i))))
+    }
+    dao.addStars(stars.iterator)
+
+    //shuffled order, two names for one star
+    val names = List(
+      ("HIP 2005", Nomenclature.parse("HIP 3005")),
+      ("HIP 2001", Nomenclature.parse("HIP 3001")),
+      ("HIP 2005", Nomenclature.justName("Five")),
+      ("HIP 2009", Nomenclature.parse("HIP 3009"))
+    )
+    assert(dao.addNames(names.iterator) === 4)
+
+    val star5 = dao.objectsByName("HIP 3005").next
+    assert(star5.names.toSet === Set(Nomenclature.parse("HIP 2005"),Nomenclature.parse("HIP 3005"),Nomenclature.justName("Five")))
+    assert(dao.objectsByName("Five").next === star5)
+    assert(dao.objectsByName("HIP 3001").next.names.size === 2)
+    assert(dao.objectsByName("HIP 2002").next.names.size === 1)
+  }
+
+  def testTileCache{
+    val stars = (0 until 20).map(i=>LiteStar(ra=(100+i*0.1).degree, de=30.degree, mag=Magnitude(4+i*0.2)))
+    dao.addStars(stars.iterator)
+    val area = Pixelization.queryDisc(rade2Vector(101.degree,30.degree), 2.degree)
+    val batch1 = dao.starBatchByAreaMag(area, Magnitude(6))
+    val misses = dao.tileCache.misses
+    val batch2 = dao.starBatchByAreaMag(area, Magnitude(6))
+    assert(dao.tileCache.misses === misses)
+    assert(dao.tileCache.hits > 0)
+    assert(batch1.size === batch2.size)
+    assert(batch1.size === stars.filter(_.mag.mag<6).size)
+
+    //cache is cleared after modification
+    dao.addStar(LiteStar(ra=101.degree, de=30.degree, mag=Magnitude(5)))
+    dao.flush()
+    assert(dao.starBatchByAreaMag(area, Magnitude(6)).size === batch1.size+1)
+  }
+
+  def testPrefetch{
+    dao.addStars((0 until 20).map(i=>LiteStar(ra=(200+i*0.1).degree, de=-10.degree, mag=Magnitude(5))).iterator)
+    val area = Pixelization.queryDisc(rade2Vector(201.degree,-10.degree), 2.degree)
+    dao.prefetchByAreaMag(area, Magnitude(7))
+    val misses = dao.tileCache.misses
+    assert(dao.starBatchByAreaMag(area, Magnitude(7)).size === 20)
+    assert(dao.tileCache.misses === misses)
+  }
+
+  def testWideAreaNotCached{
+    dao.addStars((0 until 10).map(i=>LiteStar(ra=(300+i).degree, de=50.degree, mag=Magnitude(3))).iterator)
+    val size = dao.tileCache.size
+    assert(dao.starBatchByAreaMag(Pixelization.FULL_SKY, Magnitude(4)).size ?>= 10)
+    dao.prefetchByAreaMag(Pixelization.FULL_SKY, Magnitude(4))
+    assert(dao.tileCache.size === size)
+  }
+}
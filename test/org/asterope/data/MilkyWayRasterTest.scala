@@ -0,0 +1,32 @@
+package org.asterope.data
+
+import org.asterope.util._
+
+class MilkyWayRasterTest extends ScalaTestCase{
+
+  val pos = rade2Vector(10.degree, 20.degree)
+  lazy val raster = MilkyWayRaster.build(Iterator(MilkyWayPixel(pos, 200)))
+
+  def testBuild{
+    val order = raster.maxOrder
+    assert(raster.levels.size === MilkyWayRaster.MAX_ORDER + 1)
+    assert(raster.gray(pos, order) ?> 100)
+    assert(raster.gray(pos, order) ?<= 200)
+    //outside of pixel radius
+    assert(raster.gray(rade2Vector(10.degree, 22.degree), order) === 0)
+    assert(raster.gray(rade2Vector(180.degree, -20.degree), order) === 0)
+  }
+
+  def testCoarseLevels{
+    //coarse cell is average of its children
+    val cell = Pixelization.vector2Cell(pos, raster.maxOrder - 1)
+    val children = (0 until 4).map(i=>raster.levels(raster.maxOrder)((cell*4+i).toInt) & 0xFF)
+    assert(raster.gray(pos, raster.maxOrder - 1) === (children.sum + 2) / 4)
+    assert(raster.levels(0).size === 12)
+  }
+
+  def testOrderForResolution{
+    assert(raster.orderForResolution(60.degree) === 0)
+    assert(raster.orderForResolution(1.arcSec) === raster.maxOrder)
+  }
+}
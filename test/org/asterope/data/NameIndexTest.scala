@@ -0,0 +1,67 @@
+package org.asterope.data
+
+import org.asterope.util.ScalaTestCase
+
+class NameIndexTest extends ScalaTestCase{
+
+  lazy val index = NameIndex.build(List(
+    ("M 13", List(1L)),
+    ("M 31", List(2L)),
+    ("M 3", List(3L)),
+    ("NGC 7000", List(4L)),
+    ("Alcor", List(5L)),
+    ("Algol", List(6L)),
+    ("Mizar", List(7L,8L))
+  ).iterator)
+
+  def testExact{
+    assert(index.exact("M 13").toList === List(1L))
+    assert(index.exact("m13").toList === List(1L))
+    assert(index.exact("ngc7000").toList === List(4L))
+    assert(index.exact("Mizar").toList === List(7L,8L))
+    assert(index.exact("M 1").toList === Nil)
+    assert(index.exact("Zeta").toList === Nil)
+  }
+
+  def testPrefix{
+    assert(index.prefix("M3").toSet === Set(2L,3L))
+    assert(index.prefix("al").toSet === Set(5L,6L))
+    assert(index.prefix("").size === 8)
+    assert(index.recidsByName("M%").toSet === Set(1L,2L,3L))
+    assert(index.recidsByName("M3").toSet === Set(3L))
+  }
+
+  def testFuzzy{
+    assert(index.fuzzy("Alkor",1).map(_._2) === List(5L))
+    assert(index.fuzzy("Alcor",0) === List(("ALCOR",5L,0)))
+    assert(index.fuzzy("Algor",1).map(_._2).toSet === Set(5L,6L))
+    assert(index.fuzzy("Mizzar",1).map(_._2) === List(7L,8L))
+    assert(index.fuzzy("Xyz",1) === Nil)
+    //exact match is first
+    assert(index.fuzzy("M31",1).head === ("M31",2L,0))
+  }
+
+  def testDuplicateNames{
+    val index2 = NameIndex.build(List(("HIP 1",List(1L)),("hip1",List(2L))).iterator)
+    assert(index2.size === 1)
+    assert(index2.exact("HIP 1").toList === List(1L,2L))
+  }
+
+  def testEmpty{
+    val index2 = NameIndex.build(Iterator.empty)
+    assert(index2.exact("M13").isEmpty)
+    assert(index2.fuzzy("M13",2) === Nil)
+  }
+
+  def testWriteRead{
+    val bytes = new java.io.ByteArrayOutputStream
+    val out = new java.io.DataOutputStream(bytes)
+    index.write(out)
+    out.flush()
+    val index2 = NameIndex.read(java.nio.ByteBuffer.wrap(bytes.toByteArray))
+    assert(index2.size === index.size)
+    assert((0 until index.size).map(index2.name(_)) === (0 until index.size).map(index.name(_)))
+    assert(index2.exact("Mizar").toList === List(7L,8L))
+    assert(index2.prefix("M3").toSet === Set(2L,3L))
+  }
+}
@@ -38,4 +38,76 @@ class NameResolverTest extends BeansTestCase{
     assert(Constel.constelOnPosition(ss.pos.get) === Constel.And)
 
   }
-}
\ No newline at end of file
+
+  def testSuggest(){
+    assert(!beans.nameResolver.resolve("Asterpe").pos.isDefined)
+    val s = beans.nameResolver.suggest("Asterpe")
+    assert(s.head.queryString === "Asterope")
+    assert(Vector3D.angle(s.head.pos.get,Vector3D_asterope) < 1 * Angle.D2R)
+  }
+
+  def testCache(){
+    val r = beans.nameResolver
+    r.resolve("M 42")
+    val hits = r.cacheHits
+    val count = r.resolveLatency.count
+    //different spacing and case is same name
+    val m42 = r.resolve("m42")
+    assert(m42.pos.isDefined)
+    assert(m42.queryString === "m42")
+    assert(r.cacheHits === hits+1)
+    assert(r.resolveLatency.count === count)
+
+    //negative results are cached as well
+    assert(r.resolve("NoSuchObject123").pos.isEmpty)
+    assert(r.cached("NoSuchObject123") === Some(Nil))
+    assert(r.resolve("NoSuchObject123").pos.isEmpty)
+    assert(r.cacheHits === hits+2)
+  }
+
+  def testResolveAll(){
+    val r = beans.nameResolver
+    val all = r.resolveAll("M45")
+    assert(!all.isEmpty)
+    assert(all.head === r.resolve("M45"))
+    assert(r.deepSkyLatency.count > 0)
+    assert(r.starLatency.count > 0)
+  }
+
+  def testResolveAsync(){
+    var result:NameResolverResult = null
+    val f = beans.nameResolver.resolveAsync("M13"){ r=> result = r }
+    assert(f.get.pos.isDefined)
+    //wait until callback on EDT finishes
+    onEDTWait{}
+    assert(result === f.get)
+  }
+
+  def testCacheClearedWhenNamesAdded(){
+    val recman = jdbm.RecordManagerFactory.createRecordManager(java.io.File.createTempFile("asterope","dbtest").getPath)
+    val starDao = new LiteStarDao(recman)
+    starDao.addStar(LiteStar(ra=10.degree, de=20.degree, mag=Magnitude(3), names=List(Nomenclature.parse("HIP 11"))))
+    starDao.flush()
+    val resolver = new NameResolver(new DeepSkyDao(recman), starDao)
+
+    assert(resolver.resolve("HIP 23").pos === None)
+    assert(resolver.cached("HIP 23") === Some(Nil))
+    starDao.addName("HIP 11", Nomenclature.parse("HIP 23"))
+    assert(resolver.cached("HIP 23") === None)
+    assert(resolver.resolve("HIP 23").pos.isDefined)
+  }
+
+  def testCacheClearedWhenDeepSkyAdded(){
+    val recman = jdbm.RecordManagerFactory.createRecordManager(java.io.File.createTempFile("asterope","dbtest").getPath)
+    val deepSkyDao = new DeepSkyDao(recman)
+    val resolver = new NameResolver(deepSkyDao, new LiteStarDao(recman))
+
+    assert(resolver.resolve("NGC 7000").pos === None)
+    assert(resolver.cached("NGC 7000") === Some(Nil))
+    deepSkyDao.addDeepSky(DeepSky(ra = 10.degree, de = 20.degree, mag = Some(Magnitude(4)), sizeMax = None, sizeMin = None,
+      posAngle = None, deepSkyType = DeepSkyType.GALXY, names = List(Nomenclature.parse("NGC 7000"))))
+    assert(resolver.cached("NGC 7000") === None)
+    assert(resolver.resolve("NGC 7000").pos.isDefined)
+  }
+
+}
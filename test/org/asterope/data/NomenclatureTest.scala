@@ -78,4 +78,39 @@ class NomenclatureTest extends ScalaTestCase{
     assert(n1 !== n2)
     assert(n1 ?< n2)
   }
-}
\ No newline at end of file
+
+  def testLazyList{
+    val names = List(parse("HIP 11"),justName("Vega"))
+    val buf = new ByteArrayOutputStream()
+    val out = new SerializerOutput(buf)
+    writeLazyList(out,names)
+    writeLazyList(out,Nil)
+    out.writeInt(1111)
+    out.close()
+
+    val in = new SerializerInput(new ByteArrayInputStream(buf.toByteArray))
+    val names2 = readLazyList(in)
+    val empty = readLazyList(in)
+    //name blocks are skipped without decoding
+    assert(in.readInt === 1111)
+    assert(names2() === names)
+    assert(empty() === Nil)
+  }
+
+  def testCompactForm{
+    val n = parse("UCAC3 123-456789")
+    assert(n.toString === "UCAC3 123-456789")
+    assert(n === Nomenclature("UCAC3 123-456789",formatIdByPrefix("UCAC3")))
+    assert(n.hashCode === Nomenclature("UCAC3 123-456789",formatIdByPrefix("UCAC3")).hashCode)
+    assert(normalize(n).toString === "UCAC3 123-456789")
+  }
+
+  def testCatalogPrefix{
+    assert(parse("NGC 7000").catalogPrefix === "NGC")
+    assert(parse("M 13").catalogPrefix === "M")
+    //prefixes are shared
+    assert(parse("NGC 7000").catalogPrefix eq parse("NGC 7001").catalogPrefix)
+    assert(parse("BD+12 1234").catalogPrefix === "BD+12")
+    assert(justName("Andromeda Galaxy").catalogPrefix === "Andromeda")
+  }
+}
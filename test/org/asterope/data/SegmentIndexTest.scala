@@ -0,0 +1,54 @@
+package org.asterope.data
+
+import org.asterope.util._
+import org.apache.commons.math.geometry.Vector3D
+
+class SegmentIndexTest extends ScalaTestCase{
+
+  val equator = RotatingSkyLine(Vector3D.PLUS_I, Vector3D.PLUS_K, 360.degree)
+  val meridian = TwoPointSkyLine(rade2Vector(90.degree,-10.degree), rade2Vector(90.degree,10.degree))
+  lazy val index = SegmentIndex.build(List("equator","meridian"))(Map("equator"->equator, "meridian"->meridian))
+
+  def testSegments{
+    //equator is 360 degrees long, meridian 20 degrees
+    assert(index.segmentCount === 720 + 40)
+  }
+
+  def testItemsByArea{
+    val area = Pixelization.queryDisc(rade2Vector(90.degree,0.degree), 2.degree)
+    assert(index.itemsByArea(area).toSet === Set("equator","meridian"))
+    val area2 = Pixelization.queryDisc(rade2Vector(180.degree,0.degree), 2.degree)
+    assert(index.itemsByArea(area2).toList === List("equator"))
+    val area3 = Pixelization.queryDisc(rade2Vector(180.degree,45.degree), 2.degree)
+    assert(index.itemsByArea(area3).isEmpty)
+  }
+
+  def testPolylinesByArea{
+    val area = Pixelization.queryDisc(rade2Vector(180.degree,0.degree), 5.degree)
+    val lines = index.polylinesByArea(area).toList
+    //only continuous part of equator around 180 degrees
+    assert(lines.size === 1)
+    val line = lines.head._2
+    assert(line.length.toDegree ?> 10)
+    assert(line.length.toDegree ?< 30)
+    assert(Vector3D.angle(line.center, rade2Vector(180.degree,0.degree)) ?< 3 * Angle.D2R)
+  }
+
+  def testFullSky{
+    val lines = index.polylinesByArea(Pixelization.FULL_SKY).toList
+    assert(lines.map(_._1) === List("equator","meridian"))
+    assert(lines(0)._2.length.toDegree ~== 360)
+  }
+
+  def testWriteRead{
+    val bytes = new java.io.ByteArrayOutputStream
+    val out = new java.io.DataOutputStream(bytes)
+    index.write(out)
+    out.flush()
+    val read = SegmentIndex.read(java.nio.ByteBuffer.wrap(bytes.toByteArray))(count=>index.items.take(count))
+    assert(read.segmentCount === index.segmentCount)
+    val area = Pixelization.queryDisc(rade2Vector(90.degree,0.degree), 2.degree)
+    assert(read.itemsByArea(area).toSet === Set("equator","meridian"))
+    assert(read.polylinesByArea(Pixelization.FULL_SKY).toList === index.polylinesByArea(Pixelization.FULL_SKY).toList)
+  }
+}
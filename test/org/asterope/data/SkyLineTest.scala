@@ -31,7 +31,8 @@ class SkyLineTest extends ScalaTestCase{
 	
 	def testCalculateArea{
 		val rangeSet = equator.calculateArea();
-		assert(rangeSet.rangeCount < 4, "equator should be one line");
+		//nested pixels are not continuous along line, so count pixels instead of ranges
+		assert(rangeSet.size < 3 * 4 * Pixelization.NSIDE, "equator should be thin line");
 		var counter = 0;
 		equator.skyLineIterator(0.01 degree).foreach{ v=>
 			counter+=1;
@@ -58,4 +59,13 @@ class SkyLineTest extends ScalaTestCase{
 		assert(v1~=line2.end)
 	}
 	
+
+	def testPolySkyLine{
+		val line = PolySkyLine(List(rade2Vector(0.degree,0.degree), rade2Vector(1.degree,0.degree), rade2Vector(1.degree,2.degree)).toIndexedSeq)
+		assert(line.length.toDegree ~== 3)
+		assert(line.start === rade2Vector(0.degree,0.degree))
+		assert(line.end === rade2Vector(1.degree,2.degree))
+		assert(Vector3D.angle(line.skyLineIteration(1d/3), rade2Vector(1.degree,0.degree)) ?< 1e-6)
+		assert(Vector3D.angle(line.skyLineIteration(2d/3), rade2Vector(1.degree,1.degree)) ?< 1e-4)
+	}
 }
@@ -0,0 +1,47 @@
+package org.asterope.data
+
+import org.asterope.util._
+
+class StarBatchTest extends ScalaTestCase{
+
+  val stars = List(
+    LiteStar(ra=10.degree, de=20.degree, mag=Magnitude(3)),
+    LiteStar(ra=200.degree, de=-45.degree, mag=Magnitude(7.5), minMag=Some(Magnitude(8)), maxMag=Some(Magnitude(7))),
+    LiteStar(ra=300.degree, de=80.degree, mag=Magnitude(5), posAngle=Some(10.degree), separation=Some(3.arcSec))
+  )
+
+  def newBatch = {
+    //small capacity, so arrays must grow
+    val batch = new StarBatch(i=>stars(i.toInt), 1)
+    stars.zipWithIndex.foreach{case (s,i)=>batch.add(s,i)}
+    batch
+  }
+
+  def testAdd{
+    val batch = newBatch
+    assert(batch.size === 3)
+    for(i<-0 until 3){
+      val v = stars(i).vector
+      assert(batch.x(i) ~== v.getX)
+      assert(batch.y(i) ~== v.getY)
+      assert(batch.z(i) ~== v.getZ)
+      assert(batch.mag(i) === stars(i).mag.mag)
+    }
+    assert(!batch.isVariable(0) && !batch.isBinary(0))
+    assert(batch.isVariable(1))
+    assert(batch.isBinary(2))
+  }
+
+  def testStarOnDemand{
+    val batch = newBatch
+    assert(batch.star(1) === stars(1))
+    assert(batch.ref(2).star === stars(2))
+  }
+
+  def testRefEquality{
+    assert(newBatch.ref(1) === newBatch.ref(1))
+    assert(newBatch.ref(1).hashCode === newBatch.ref(1).hashCode)
+    assert(newBatch.ref(1) !== newBatch.ref(2))
+  }
+
+}
@@ -0,0 +1,27 @@
+package org.asterope.data
+
+import org.asterope.util._
+
+class StarCellTest extends ScalaTestCase{
+
+  def testAddKeepsOrder{
+    val cell = StarCell.EMPTY.add(1,9000).add(2,3000).add(3,9000).add(4,5000)
+    assert(cell.mags.toList === List(3000,5000,9000,9000))
+    assert(cell.recids.toList === List(2,4,1,3))
+  }
+
+  def testCountBrighter{
+    val cell = new StarCell(Array(1L,2L,3L,4L),Array[Short](3000,5000,9000,9300))
+    assert(cell.countBrighter(1000) === 0)
+    assert(cell.countBrighter(9000) === 2)
+    assert(cell.countBrighter(9001) === 3)
+    assert(cell.countBrighter(20000) === 4)
+  }
+
+  def testMerge{
+    val c1 = new StarCell(Array(1L,2L),Array[Short](1000,5000))
+    val c2 = new StarCell(Array(3L,4L),Array[Short](2000,6000))
+    assert(c1.merge(c2).recids.toList === List(1,3,2,4))
+  }
+
+}
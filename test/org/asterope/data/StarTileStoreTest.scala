@@ -0,0 +1,70 @@
+package org.asterope.data
+
+import java.io.File
+import org.asterope.util._
+
+class StarTileStoreTest extends ScalaTestCase{
+
+  lazy val file = File.createTempFile("asterope","startiles")
+
+  val stars = List(
+    LiteStar(ra=0.degree, de=0.degree, mag=Magnitude(3.5), names=List(Nomenclature.parse("HIP 11"))),
+    LiteStar(ra=1.degree, de=1.degree, mag=Magnitude(9.3), posAngle=Some(10.degree), separation=Some(2.arcSec)),
+    LiteStar(ra=1.degree, de=1.degree, mag=Magnitude(9.6)),
+    LiteStar(ra=1.degree, de=1.degree, mag=Magnitude(9.1)),
+    LiteStar(ra=10.degree, de=-5.degree, mag=Magnitude(9.7), minMag=Some(Magnitude(10)), maxMag=Some(Magnitude(9))),
+    LiteStar(ra=180.degree, de=45.degree, mag=Magnitude(5))
+  )
+
+  def bucket(s:LiteStar) = s.mag.mag.floor.toInt
+
+  lazy val store = {
+    val sorted = stars.sortBy{s=>(StarTileStore.tileKey(bucket(s),s.ipix), s.mag.mag)}
+    StarTileStore.write(file, sorted.map(s=>(bucket(s),s)).iterator)
+    new StarTileStore(file)
+  }
+
+  def testAllStars{
+    val all = store.starsByAreaMag(Pixelization.FULL_SKY, 2 to 25, Magnitude(30)).toSet
+    assert(all === stars.toSet)
+    //names are not part of star equality
+    assert(all.map(s=>(s,s.names)) === stars.map(s=>(s,s.names)).toSet)
+  }
+
+  def testAreaAndMag{
+    val area = Pixelization.queryDisc(rade2Vector(0.degree,0.degree), 3.degree)
+    val found = store.starsByAreaMag(area, 2 to 9, Magnitude(9.5)).toList
+    assert(found.toSet === Set(stars(0),stars(1),stars(3)))
+    assert(found.find(_ == stars(0)).get.names === List(Nomenclature.parse("HIP 11")))
+  }
+
+  def testUnsortedMagnitude{
+    val f = File.createTempFile("asterope","startiles")
+    val unsorted = List(stars(2),stars(3)).map(s=>(bucket(s),s))
+    intercept[AssertionError]{
+      StarTileStore.write(f, unsorted.iterator)
+    }
+  }
+
+  def testOpenMissing{
+    assert(StarTileStore.open(new File("nonexisting-tile-file")) === None)
+  }
+
+  def testOpenOldVersion{
+    store
+    assert(StarTileStore.isCurrent(file))
+    assert(StarTileStore.open(file).isDefined)
+
+    val old = File.createTempFile("asterope","startiles")
+    val out = new java.io.DataOutputStream(new java.io.FileOutputStream(old))
+    out.writeInt(StarTileStore.MAGIC)
+    out.writeInt(StarTileStore.VERSION - 1)
+    out.close()
+    assert(!StarTileStore.isCurrent(old))
+    assert(StarTileStore.open(old) === None)
+
+    val empty = File.createTempFile("asterope","startiles")
+    assert(StarTileStore.open(empty) === None)
+  }
+
+}
@@ -0,0 +1,70 @@
+package org.asterope.data
+
+import org.asterope.util._
+
+class TileCacheTest extends ScalaTestCase{
+
+  def testLru{
+    val cache = new TileCache[String](10, _.length)
+    var loads = 0
+    def load(s:String) = {loads+=1; s}
+
+    assert(cache.get(1)(load("aaaa")) === "aaaa")
+    assert(cache.get(2)(load("bbbb")) === "bbbb")
+    assert(cache.get(1)(load("xxxx")) === "aaaa")
+    assert(loads === 2)
+    assert(cache.hits === 1)
+    assert(cache.misses === 2)
+
+    //over budget, least recently used tile (2) is evicted
+    cache.get(3)(load("cccc"))
+    assert(cache.evictions === 1)
+    assert(cache.size === 2)
+    assert(cache.usedWeight === 8)
+    assert(cache.get(1)(load("xxxx")) === "aaaa")
+    assert(cache.get(2)(load("BBBB")) === "BBBB")
+  }
+
+  def testTooBigTile{
+    val cache = new TileCache[String](3, _.length)
+    assert(cache.get(1)("aaaa") === "aaaa")
+    assert(cache.size === 0)
+  }
+
+  def testClear{
+    val cache = new TileCache[String](10, _.length)
+    cache.get(1)("aaaa")
+    cache.clear()
+    assert(cache.size === 0)
+    assert(cache.get(1)("bbbb") === "bbbb")
+  }
+
+  def testByArea{
+    val cache = new AreaTileCache[String](3, 1000000, 10)
+    val pixels = List(Vector3D_m31, Vector3D_m13, Vector3D_galaxyCentre).map(v=>(Pixelization.vector2Ipix(v),v.toString))
+    def load(lo:Long, hi:Long) = pixels.filter(p=>p._1>=lo && p._1<=hi).sortBy(_._1).iterator
+
+    val area = Pixelization.queryDisc(Vector3D_m31, 1.degree)
+    assert(cache.byArea(area)(load).toList === List(Vector3D_m31.toString))
+    assert(cache.misses > 0)
+    assert(cache.byArea(area)(load).toList === List(Vector3D_m31.toString))
+    assert(cache.hits > 0)
+    assert(cache.byArea(Pixelization.FULL_SKY)(load).toSet === pixels.map(_._2).toSet)
+  }
+
+  def testWideAreaNotCached{
+    val cache = new AreaTileCache[String](5, 1000000, 10)
+    val pixels = List(Vector3D_m31, Vector3D_m13, Vector3D_galaxyCentre).map(v=>(Pixelization.vector2Ipix(v),v.toString))
+    var loads = 0
+    def load(lo:Long, hi:Long) = {
+      loads+=1
+      pixels.filter(p=>p._1>=lo && p._1<=hi).sortBy(_._1).iterator
+    }
+    assert(cache.byArea(Pixelization.FULL_SKY)(load).toSet === pixels.map(_._2).toSet)
+    //single range, not one load per tile
+    assert(loads === 1)
+    assert(cache.size === 0)
+    cache.prefetch(Pixelization.FULL_SKY)(load)
+    assert(cache.size === 0)
+  }
+}
@@ -69,4 +69,66 @@ class DataParserTest extends ScalaTestCase{
 				)) === p.parseLine(line).get
 		)
 	}
+
+	def testColumnPlan{
+		val p = new FixedWidthLineParser(
+				cols = List(
+						FixedWidthColumn(start=0, end=2, colName="RAh", unit=Some("h")),
+						FixedWidthColumn(start=2, end=4, colName="RAm", unit=Some("min")),
+						FixedWidthColumn(start=4, end=11, colName="RAs", unit=Some("s")),
+						FixedWidthColumn(start=11, end=12, colName="DE-"),
+						FixedWidthColumn(start=12, end=14, colName="DEd", unit=Some("deg")),
+						FixedWidthColumn(start=14, end=16, colName="DEm", unit=Some("arcmin")),
+						FixedWidthColumn(start=16, end=22, colName="DEs", unit=Some("arcsec")),
+						FixedWidthColumn(start=22, end=29, colName="Vmag", unit=Some("mag")),
+						FixedWidthColumn(start=29, end=33, colName="HD"),
+						FixedWidthColumn(start=33, end= -1, colName="sep", unit=Some("arcsec"))
+				))
+		val plan = p.compile
+
+		val line = "0503 1.1234-1523 9.876  5.123  12 12.5"
+		val row = p.parseLine(line).get
+		assert(plan.getRaUas(line) === row.getRa.get.uas)
+		assert(plan.getDeUas(line) === row.getDe.get.uas)
+		assert(plan.getMag(line, plan.column("Vmag")) === row.getMag("Vmag").get.mag)
+		assert(plan.getMilimag(line, plan.column("Vmag")) === 5123)
+		assert(plan.getInt(line, plan.column("HD")) === 12)
+		assert(plan.getString(line, plan.column("HD")) === Some("12"))
+		assert(plan.getAngleUas(line, plan.column("sep")) === row.getAngle("sep").get.uas)
+
+		//same line wrapped as bytes
+		val ascii = new AsciiLine().set(("xx"+line).getBytes, 2, line.length)
+		assert(plan.getRaUas(ascii) === row.getRa.get.uas)
+		assert(plan.getDeUas(ascii) === row.getDe.get.uas)
+
+		val empty = "0503 1.1234-1523 9.876       "
+		assert(plan.isEmpty(empty, plan.column("Vmag")))
+		assert(plan.getString(empty, plan.column("HD")) === None)
+		intercept[NumberFormatException]{
+			plan.getMag(empty, plan.column("Vmag"))
+		}
+		intercept[IllegalArgumentException]{
+			plan.column("nonexistent")
+		}
+	}
+
+	def testColumnPlanNumbers{
+		val p = new FixedWidthLineParser(cols = List(FixedWidthColumn(start=0, end= -1, colName="a", unit=Some("deg"))))
+		val plan = p.compile
+		for(v <- List("0", "-1.5", "12.345", "+7", "359.99999", "0.1", "1e3", " 1 2.5 "))
+			assert(plan.getDouble(v, 0) === v.replaceAll(" ","").toDouble)
+		assert(plan.getFixed("12.3456", 0, 3) === 12346)
+		assert(plan.getFixed("-12.3454", 0, 3) === -12345)
+		assert(plan.getFixed("12", 0, 3) === 12000)
+		intercept[ArithmeticException]{
+			plan.getFixed("12.3456", 0, 3, true)
+		}
+		intercept[NumberFormatException]{
+			plan.getDouble("11x1", 0)
+		}
+		intercept[NumberFormatException]{
+			plan.getInt("11.1", 0)
+		}
+		assert(plan.getAngleUas("359.9999574", 0) === DataRow(List(DataItem(colName="a", value=Some("359.9999574"), unit=Some("deg")))).getAngle("a").get.uas)
+	}
 }
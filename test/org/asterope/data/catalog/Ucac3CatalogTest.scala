@@ -5,7 +5,12 @@ import org.asterope.util._
 
 class Ucac3CatalogTest extends ScalaTestCase{
     
-    val catalog = new Ucac3Catalog()
+    val catalog = new Ucac3Catalog(){
+      def decode(zone:Int, firstStar:Int, count:Int, buf:java.nio.ByteBuffer) = decodeBin(zone,firstStar,count,buf)
+    }
+
+    //first entry from 'out.sam', file with sample output
+    val sampleRecord = Array[Byte](102,99,63,77,7,-39,79,19,30,62,3,62,-58,0,0,0,54,0,47,0,3,3,2,2,-8,37,68,38,-93,0,0,0,5,0,0,0,113,0,108,0,-20,80,-95,78,-35,51,56,49,-121,48,5,5,5,3,3,3,119,69,-34,63,86,59,11,1,1,1,0,0,0,0,0,0,0,0,1,0,0,0,0,0,47,-34,-86,4)
     
     def testReadSize{
         val in = new DataIS(new ByteArrayInputStream(new Array[Byte](1000)))
@@ -66,4 +71,33 @@ class Ucac3CatalogTest extends ScalaTestCase{
 //               x            x      x    x                         x     x       x   x x   x   x   x   x      x          x   x   x                  x        x             x               x                   x       x         x                      x   x
 
     }
-}
\ No newline at end of file
+
+    def testDecodeBin{
+      val buf = java.nio.ByteBuffer.wrap(sampleRecord ++ sampleRecord)
+      val batch = catalog.decode(181, 285552, 2, buf)
+      assert(buf.position === 2*84)
+      assert(batch.size === 2)
+      assert(math.abs(batch.ra(0)-359.9999574.degree.toMas)< 1000)
+      assert(math.abs(batch.de(0) - 00.0000020.degree.toMas)< 1000)
+      assert(batch.mag(0) ~== 15.875)
+      val star = batch.star(1)
+      assert(star.mag.mag ~== 15.875)
+      assert(star.names.map(_.toString) === List("UCAC3 181-285554"))
+    }
+
+    /** zones are not read from disk, each zone is single empty batch */
+    val emptyZones = new Ucac3Catalog(){
+      override protected def decodeZone(zone:Int) = Seq(new org.asterope.data.StarBatch(null, 1))
+    }
+
+    def testQueryBatches{
+      assert(emptyZones.queryBatches(2).size === 360)
+    }
+
+    def testQueryBatchesClose{
+      val iter = emptyZones.queryBatches(2)
+      assert(iter.take(3).size === 3)
+      iter.close()
+      assert(!iter.hasNext)
+    }
+}
@@ -0,0 +1,48 @@
+package org.asterope.data.catalog
+
+import java.io._
+import org.asterope.util._
+
+class Ucac3ZoneStoreTest extends ScalaTestCase{
+
+  val recordSize = 84
+  val bins = List((0,2),(2,0),(2,3))
+
+  val data = {
+    val r = new Array[Byte](5*recordSize)
+    new java.util.Random(1).nextBytes(r)
+    r
+  }
+
+  lazy val store = {
+    val f = File.createTempFile("asterope","ucac3zone")
+    f.delete()
+    Ucac3ZoneStore.convert(new ByteArrayInputStream(data), bins, recordSize, f)
+    new Ucac3ZoneStore(f)
+  }
+
+  def testReadBins{
+    assert(store.binCount === 3)
+    assert(store.readBin(0,recordSize).toList === data.slice(0,2*recordSize).toList)
+    assert(store.readBin(1,recordSize).toList === Nil)
+    assert(store.readBin(2,recordSize).toList === data.slice(2*recordSize,5*recordSize).toList)
+    assert(store.firstStar(2) === 2)
+    assert(store.starCount(2) === 3)
+  }
+
+  def testReadBinaryEntry{
+    val in = new DataIS(new ByteArrayInputStream(store.readBin(2,recordSize)))
+    val expected = new DataIS(new ByteArrayInputStream(data,2*recordSize,3*recordSize))
+    for(i<-0 until 3)
+      assert(new Ucac3BinaryEntry(in).ra === new Ucac3BinaryEntry(expected).ra)
+  }
+
+  def testTruncatedZone{
+    val f = File.createTempFile("asterope","ucac3zone")
+    f.delete()
+    intercept[EOFException]{
+      Ucac3ZoneStore.convert(new ByteArrayInputStream(data,0,100), bins, recordSize, f)
+    }
+    assert(!f.exists)
+  }
+}
@@ -3,7 +3,7 @@ package org.asterope.gui
 import org.asterope.util._
 import javax.swing.JMenuBar
 import edu.umd.cs.piccolo.PNode
-import org.asterope.chart.Layer
+import org.asterope.chart.{Layer, StarBatchNode}
 import collection.JavaConversions._
 import org.asterope.data._
 import org.asterope._
@@ -88,30 +88,31 @@ class ChartEditorTest extends GuiTestCase{
   }
 
 
-  def findBiggestStarNode:PNode = {
+  def findBiggestStarSize:Double = {
     chart.getLayer(Layer.star).getChildrenIterator
-      .map(_.asInstanceOf[PNode])
-      .toList
-      .sortWith(_.getWidth > _.getWidth)
-      .head
+      .map{
+        case b:StarBatchNode => b.maxDiameter
+        case n:PNode => n.getWidth
+      }
+      .max
   }
 
   def testBiggerStars(){
     open()
     chartEditor.waitForRefresh()
-    val starSize = findBiggestStarNode.getWidth
+    val starSize = findBiggestStarSize
     chartEditor.actBiggerStars.call()
     chartEditor.waitForRefresh()
-    assert(starSize<findBiggestStarNode.getWidth)
+    assert(starSize<findBiggestStarSize)
   }
 
   def testSmallerStars(){
     open()
     chartEditor.waitForRefresh()
-    val starSize = findBiggestStarNode.getWidth
+    val starSize = findBiggestStarSize
     chartEditor.actSmallerStars.call()
     chartEditor.waitForRefresh()
-    assert(starSize>findBiggestStarNode.getWidth)
+    assert(starSize>findBiggestStarSize)
   }
 
   def testLegend(){
@@ -25,4 +25,17 @@ class ConstelTest extends ScalaTestCase{
     assert(Constel.constelOnPosition(v1) ===Constel.UMa)
   }
 
-}
\ No newline at end of file
+  def testLookupTableMatchesExact{
+    val random = new java.util.Random(1)
+    for(i <- 0 until 100000){
+      val v = rade2Vector(random.nextDouble * 2 * math.Pi, math.asin(random.nextDouble * 2 - 1))
+      assert(Constel.constelOnPosition(v) === Constel.constelOnPositionExact(v), v.toString)
+    }
+  }
+
+  def testConstelOf{
+    val positions = Array(Vector3D.PLUS_K, Vector3D_asterope, Vector3D_galaxyCentre, Vector3D_m31)
+    assert(Constel.constelOf(positions).toList === List(Constel.UMi, Constel.Tau, Constel.Sgr, Constel.And))
+  }
+
+}
@@ -0,0 +1,26 @@
+package org.asterope.util
+
+class LatencyHistogramTest extends ScalaTestCase{
+
+  def testPercentile{
+    val h = new LatencyHistogram("test")
+    assert(h.percentile(50) === 0)
+    for(i<-0 until 90) h.record(3000)      //3 us
+    for(i<-0 until 10) h.record(1000000)   //1 ms
+    assert(h.count === 100)
+    assert(h.percentile(50) === 4)
+    assert(h.percentile(90) === 4)
+    assert(h.percentile(99) === 1024)
+    h.reset()
+    assert(h.count === 0)
+  }
+
+  def testTime{
+    val h = new LatencyHistogram("test")
+    assert(h.time(1+1) === 2)
+    intercept[IllegalStateException]{
+      h.time(throw new IllegalStateException)
+    }
+    assert(h.count === 2)
+  }
+}
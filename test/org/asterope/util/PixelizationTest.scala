@@ -0,0 +1,48 @@
+package org.asterope.util
+
+import org.apache.commons.math.geometry.Vector3D
+
+class PixelizationTest extends ScalaTestCase{
+
+  def testIpixRoundTrip{
+    val ipix = Pixelization.vector2Ipix(Vector3D_m31)
+    assert(Vector3D.angle(Pixelization.ipix2Vector(ipix),Vector3D_m31) < Pixelization.resolution.toRadian)
+  }
+
+  def testQueryDiscContainsAllPoints{
+    for(radius <- List(1.degree, 10.degree, 60.degree)){
+      val area = Pixelization.queryDisc(Vector3D_galaxyCentre, radius)
+      for(ra <- 0 until 360 by 2; de <- -90 to 90 by 2){
+        val v = rade2Vector(ra.degree,de.degree)
+        if(Vector3D.angle(v,Vector3D_galaxyCentre) <= radius.toRadian)
+          assert(area.contains(Pixelization.vector2Ipix(v)), "missing point in radius "+radius)
+      }
+    }
+  }
+
+  def testQueryDiscFarPoints{
+    val area = Pixelization.queryDisc(Vector3D.PLUS_K, 5.degree)
+    assert(!area.contains(Pixelization.vector2Ipix(Vector3D.MINUS_K)))
+    assert(!area.contains(Pixelization.vector2Ipix(Vector3D_m31)))
+  }
+
+  def testWideDiscHasFewRanges{
+    val area = Pixelization.queryDisc(Vector3D_galaxyCentre, 60.degree)
+    assert(area.rangeCount < 1000, "too many ranges: "+area.rangeCount)
+    val full = Pixelization.queryDisc(Vector3D_galaxyCentre, 180.degree)
+    assert(full.rangeCount === 1)
+    assert(full.size === Pixelization.maxPixNumber+1)
+  }
+
+  def testCellsInArea{
+    val area = Pixelization.queryDisc(Vector3D_m31, 3.degree)
+    val cells = Pixelization.cellsInArea(area, 4)
+    assert(cells === cells.distinct.sorted)
+    val cell = Pixelization.vector2Ipix(Vector3D_m31) >> (2*(Pixelization.NORDER-4))
+    assert(cells.contains(cell))
+    val (lo,hi) = Pixelization.cellRange(4,cell)
+    assert(lo <= Pixelization.vector2Ipix(Vector3D_m31) && Pixelization.vector2Ipix(Vector3D_m31) <= hi)
+    assert(Pixelization.cellsInArea(Pixelization.FULL_SKY, 0) === (0L until 12L))
+  }
+
+}